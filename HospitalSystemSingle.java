@@ -1,5 +1,31 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32C;
+import javax.management.JMException;
+import javax.management.ObjectName;
 public class HospitalSystemSingle {
 
     /* ----------------------------- ADTs ----------------------------- */
@@ -12,6 +38,7 @@ public class HospitalSystemSingle {
         public Patient(int id, String name, int age, int severity) {
             this.id = id; this.name = name; this.age = age; this.severity = severity;
         }
+        public Patient copy() { return new Patient(id, name, age, severity); }
         public String toString() {
             return String.format("Patient[id=%d,name=%s,age=%d,severity=%d]", id, name, age, severity);
         }
@@ -22,6 +49,7 @@ public class HospitalSystemSingle {
         public final int doctorId;
         public final int slotId;
         public final TokenType type;
+        long issuedAt; // System.nanoTime() when queued (0 = unknown), for wait-time metrics
         public Token(int tokenId, int patientId, int doctorId, int slotId, TokenType type) {
             this.tokenId = tokenId; this.patientId = patientId; this.doctorId = doctorId; this.slotId = slotId; 
             this.type = type;
@@ -37,365 +65,3682 @@ public class HospitalSystemSingle {
         public final int slotId;
         public final String startTime;
         public final String endTime;
-        public boolean booked;
+        public final int startMinute; // parsed once from "HH:mm"
+        public final int endMinute;
+        public boolean booked; // owned by Doctor: flip it via bookSlot/unbookSlot so the free index stays in sync
         public Slot(int slotId, String startTime, String endTime) {
             this.slotId = slotId; this.startTime = startTime; this.endTime = endTime; this.booked = false;
+            this.startMinute = parseMinutes(startTime); this.endMinute = parseMinutes(endTime);
+        }
+        private Slot(int slotId, String startTime, String endTime, int startMinute, int endMinute) {
+            this.slotId = slotId; this.startTime = startTime; this.endTime = endTime;
+            this.startMinute = startMinute; this.endMinute = endMinute;
+        }
+        // from minutes since midnight; the "HH:mm" strings of a day are shared, so bulk loads allocate only the Slot
+        public static Slot ofMinutes(int slotId, int startMinute, int endMinute) {
+            return new Slot(slotId, time(startMinute), time(endMinute), startMinute, endMinute);
+        }
+        private static final String[] TIMES = new String[24 * 60];
+        private static String time(int minute) {
+            if (minute < 0 || minute >= TIMES.length) return String.format("%02d:%02d", minute / 60, minute % 60);
+            String t = TIMES[minute];
+            if (t == null) TIMES[minute] = t = String.format("%02d:%02d", minute / 60, minute % 60); // benign race: equal strings
+            return t;
+        }
+        // search key for range lookups in Doctor's free set
+        private Slot(int slotId, int startMinute) {
+            this.slotId = slotId; this.startTime = null; this.endTime = null;
+            this.startMinute = startMinute; this.endMinute = startMinute;
+        }
+        // "HH:mm" -> minutes since midnight
+        public static int parseMinutes(String hhmm) {
+            int colon = hhmm.indexOf(':');
+            if (colon < 0) throw new IllegalArgumentException("Bad time (expected HH:mm): " + hhmm);
+            return Integer.parseInt(hhmm.substring(0, colon).trim()) * 60 + Integer.parseInt(hhmm.substring(colon + 1).trim());
         }
         public String toString() {
             return String.format("Slot[id=%d,%s-%s,booked=%b]", slotId, startTime, endTime, booked);
         }
     }
-    /* Doctor implemented with an internal singly linked list for slots */
-    public static class Doctor {
-        public final int id;
-        public final String name;
-        public final String specialization;
-        private SlotNode head;
-        private SlotNode tail; // maintain tail for O(1) append
-        private int slotCount = 0;
-        private static class SlotNode { Slot slot; SlotNode next; SlotNode(Slot s){ slot = s; next = null; } }
+    /* Doctor schedule: slotId index + ordered set of free slots (by start time, then slotId) */
+    public static class Doctor {
+        public final int id;
+        public final String name;
+        public final String specialization;
+        private static final Comparator<Slot> BY_START =
+            (a, b) -> a.startMinute != b.startMinute ? Integer.compare(a.startMinute, b.startMinute) : Integer.compare(a.slotId, b.slotId);
+        private final Map<Integer, Slot> slotsById = new LinkedHashMap<>(); // keeps insertion order for getAllSlots
+        private final TreeSet<Slot> freeSlots = new TreeSet<>(BY_START);
+        Consumer<Doctor> listener; // told after every schedule change (the owning system's availability index and snapshot feed)
+        private void changed() { if (listener != null) listener.accept(this); }
+
+        public Doctor(int id, String name, String specialization) {
+            this.id = id; this.name = name; this.specialization = specialization;
+        }
+        // add slot — O(log k); a duplicate slotId is rejected
+        public boolean addSlot(Slot s) {
+            if (slotsById.putIfAbsent(s.slotId, s) != null) return false;
+            if (!s.booked) freeSlots.add(s);
+            changed();
+            return true;
+        }
+        // cancel (remove) a slot by slotId — O(log k)
+        public boolean cancelSlot(int slotId) {
+            Slot s = slotsById.remove(slotId);
+            if (s == null) return false;
+            freeSlots.remove(s);
+            changed();
+            return true;
+        }
+
+        public Slot getSlot(int slotId) { return slotsById.get(slotId); }
+
+        // earliest free slot — O(log k)
+        public Slot findNextFreeSlot() { return freeSlots.isEmpty() ? null : freeSlots.first(); }
+
+        // first free slot starting at or after the given time — O(log k)
+        public Slot findFreeSlotAtOrAfter(int minute) {
+            return freeSlots.ceiling(new Slot(Integer.MIN_VALUE, minute));
+        }
+        public Slot findFreeSlotAtOrAfter(String hhmm) { return findFreeSlotAtOrAfter(Slot.parseMinutes(hhmm)); }
+
+        // free slots whose start lies in [fromMinute, toMinute) — O(log k + m), read-only view
+        public SortedSet<Slot> freeSlotsBetween(int fromMinute, int toMinute) {
+            if (toMinute <= fromMinute) return Collections.emptySortedSet();
+            return Collections.unmodifiableSortedSet(
+                freeSlots.subSet(new Slot(Integer.MIN_VALUE, fromMinute), new Slot(Integer.MIN_VALUE, toMinute)));
+        }
+        public SortedSet<Slot> freeSlotsBetween(String from, String to) {
+            return freeSlotsBetween(Slot.parseMinutes(from), Slot.parseMinutes(to));
+        }
+
+        // mark slot as booked by slotId — O(log k)
+        public boolean bookSlot(int slotId) {
+            Slot s = slotsById.get(slotId);
+            if (s == null || s.booked) return false;
+            s.booked = true; freeSlots.remove(s);
+            changed();
+            return true;
+        }
+        // release a booked slot (cancellation / undo) — O(log k)
+        public boolean unbookSlot(int slotId) {
+            Slot s = slotsById.get(slotId);
+            if (s == null || !s.booked) return false;
+            s.booked = false; freeSlots.add(s);
+            changed();
+            return true;
+        }
+
+        public List<Slot> getAllSlots() { return new ArrayList<>(slotsById.values()); }
+
+        public int slotCount() { return slotsById.size(); }
+
+        // free slots left — O(1)
+        public int pendingCount() { return freeSlots.size(); }
+
+        public String toString() {
+            return String.format("Doctor[id=%d,name=%s,spec=%s,pendingSlots=%d]", id, name, specialization, pendingCount());
+        }
+    }
+
+    /* ----------------------------- Routine Queue (chunked ring) ----------------------------- */
+    /* Tokens live at logical positions [head, tail) spread over fixed-size chunks; a small ring of
+     * chunk references grows by doubling, so existing tokens are never copied. A tokenId -> position
+     * index turns cancellation into an O(1) tombstone (null cell) that dequeue skips, and the
+     * queue compacts once tombstones outnumber live tokens. */
+    public static class CircularQueue {
+        private static final int COMPACT_MIN = 64;
+        private final int chunkShift, chunkMask;
+        private Token[][] chunks = new Token[4][];
+        private Token[] spare; // last released chunk, reused at chunk boundaries
+        private long head = 0, tail = 0;
+        private int size = 0, tombstones = 0;
+        private final Map<Integer, Long> index = new HashMap<>();
+        SnapshotFeed feed; // set while snapshots are enabled: every mutation is recorded there
+
+        // capacity is only a sizing hint now: it picks the chunk size (16..1024 tokens)
+        public CircularQueue(int capacity) {
+            int chunkSize = Integer.highestOneBit(Math.min(1024, Math.max(16, capacity) - 1)) << 1;
+            chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+            chunkMask = chunkSize - 1;
+        }
+        public boolean isEmpty() { return size == 0; }
+        public int size() { return size; }
+        public int tombstones() { return tombstones; }
+        public boolean contains(int tokenId) { return index.containsKey(tokenId); }
+
+        private Token[] chunkAt(long pos) { return chunks[(int) (pos >> chunkShift) & (chunks.length - 1)]; }
+        private Token get(long pos) { return chunkAt(pos)[(int) pos & chunkMask]; }
+        private void set(long pos, Token t) { chunkAt(pos)[(int) pos & chunkMask] = t; }
+
+        // make sure the chunk holding pos is mapped, doubling the chunk ring if the span outgrows it
+        private void ensureChunk(long pos) {
+            long c = pos >> chunkShift;
+            long lo = c, hi = c;
+            if (head != tail) { lo = Math.min(c, head >> chunkShift); hi = Math.max(c, (tail - 1) >> chunkShift); }
+            if (hi - lo + 1 > chunks.length) {
+                int n = chunks.length;
+                while (hi - lo + 1 > n) n <<= 1;
+                Token[][] grown = new Token[n][];
+                for (long k = head >> chunkShift; head != tail && k <= (tail - 1) >> chunkShift; k++)
+                    grown[(int) k & (n - 1)] = chunks[(int) k & (chunks.length - 1)];
+                chunks = grown;
+            }
+            int slot = (int) c & (chunks.length - 1);
+            if (chunks[slot] == null) {
+                chunks[slot] = spare != null ? spare : new Token[chunkMask + 1];
+                spare = null;
+            }
+        }
+        private void releaseChunk(long c) {
+            int slot = (int) c & (chunks.length - 1);
+            if (chunks[slot] != null) { spare = chunks[slot]; chunks[slot] = null; }
+        }
+
+        public boolean enqueue(Token t) {
+            ensureChunk(tail);
+            set(tail, t); index.put(t.tokenId, tail);
+            tail++; size++;
+            if (feed != null) feed.add(SnapshotFeed.ENQUEUE, 0, 0, t);
+            return true;
+        }
+
+        // put a token back at the front (undo of serve) — O(1)
+        public void pushFront(Token t) {
+            ensureChunk(head - 1);
+            head--;
+            set(head, t); index.put(t.tokenId, head);
+            size++;
+            if (feed != null) feed.add(SnapshotFeed.PUSH_FRONT, 0, 0, t);
+        }
+
+        // advance head past one cell, freeing its chunk once fully consumed
+        private Token advance() {
+            Token t = get(head);
+            set(head, null);
+            head++;
+            if ((head & chunkMask) == 0) releaseChunk((head - 1) >> chunkShift);
+            return t;
+        }
+        public Token dequeue() {
+            while (head < tail) {
+                Token t = advance();
+                if (t == null) { tombstones--; continue; }
+                index.remove(t.tokenId); size--;
+                if (feed != null) feed.add(SnapshotFeed.DEQUEUE, 0, 0, null);
+                return t;
+            }
+            return null;
+        }
+
+        public Token peek() {
+            while (head < tail && get(head) == null) { advance(); tombstones--; }
+            return head < tail ? get(head) : null;
+        }
+
+        public Token find(int tokenId) { Long pos = index.get(tokenId); return pos == null ? null : get(pos); }
+        // cancel a queued token — O(1), leaves a tombstone
+        public boolean remove(int tokenId) {
+            Long pos = index.remove(tokenId);
+            if (pos == null) return false;
+            set(pos, null);
+            size--; tombstones++;
+            if (feed != null) feed.add(SnapshotFeed.CANCEL, tokenId, 0, null);
+            if (tombstones > COMPACT_MIN && tombstones > size) compact();
+            return true;
+        }
+
+        // slide live tokens towards head, dropping tombstones — O(n), amortised over the removals
+        private void compact() {
+            long w = head;
+            for (long r = head; r < tail; r++) {
+                Token t = get(r);
+                if (t == null) continue;
+                if (w != r) { set(w, t); set(r, null); index.put(t.tokenId, w); }
+                w++;
+            }
+            for (long c = ((w - 1) >> chunkShift) + 1; c <= (tail - 1) >> chunkShift; c++) releaseChunk(c);
+            tail = w; tombstones = 0;
+        }
+
+        // live tokens in queue order, without consuming them
+        public List<Token> tokens() {
+            List<Token> out = new ArrayList<>(size);
+            for (long p = head; p < tail; p++) { Token t = get(p); if (t != null) out.add(t); }
+            return out;
+        }
+    }
+
+    /* ----------------------------- Indexed Min Heap (Triage) ----------------------------- */
+    /* Each node carries its severity key inline, so sifting never touches the patient table.
+     * tokenId -> node and patientId -> nodes indexes make remove/updatePriority O(log n).
+     * Equal severities are served FIFO: token ids are issued in increasing order. */
+    public static class MinHeapTriage {
+        private static class Node {
+            final Token token; int severity; int pos;
+            Node(Token t, int severity){ token = t; this.severity = severity; }
+        }
+        private Node[] heap = new Node[16];
+        private int size = 0;
+        private final Map<Integer, Node> byToken = new HashMap<>();
+        private final Map<Integer, List<Node>> byPatient = new HashMap<>();
+        SnapshotFeed feed; // set while snapshots are enabled: every mutation is recorded there
+
+        private boolean less(Node a, Node b) {
+            if (a.severity != b.severity) return a.severity < b.severity;
+            return a.token.tokenId < b.token.tokenId;
+        }
+        private void place(Node n, int idx) { heap[idx] = n; n.pos = idx; }
+        private void heapifyUp(int idx) {
+            Node n = heap[idx];
+            while (idx > 0) {
+                int parent = (idx - 1) / 2;
+                if (!less(n, heap[parent])) break;
+                place(heap[parent], idx); idx = parent;
+            }
+            place(n, idx);
+        }
+        private void heapifyDown(int idx) {
+            Node n = heap[idx];
+            while (true) {
+                int left = 2 * idx + 1, right = left + 1, smallest = left;
+                if (left >= size) break;
+                if (right < size && less(heap[right], heap[left])) smallest = right;
+                if (!less(heap[smallest], n)) break;
+                place(heap[smallest], idx); idx = smallest;
+            }
+            place(n, idx);
+        }
+        private void sift(int idx) {
+            if (idx > 0 && less(heap[idx], heap[(idx - 1) / 2])) heapifyUp(idx); else heapifyDown(idx);
+        }
+        private Node removeAt(int idx) {
+            Node n = heap[idx];
+            Node last = heap[--size]; heap[size] = null;
+            if (idx < size) { place(last, idx); sift(idx); }
+            byToken.remove(n.token.tokenId);
+            List<Node> same = byPatient.get(n.token.patientId);
+            if (same != null) { same.remove(n); if (same.isEmpty()) byPatient.remove(n.token.patientId); }
+            return n;
+        }
+
+        public boolean isEmpty() { return size == 0; }
+        public int size() { return size; }
+        public int depth() { return 32 - Integer.numberOfLeadingZeros(size); } // levels in the heap
+        public boolean contains(int tokenId) { return byToken.containsKey(tokenId); }
+
+        // O(log n); severity is cached, later patient updates go through updatePriority
+        public void insert(Token t, int severity) {
+            if (byToken.containsKey(t.tokenId)) return;
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            Node n = new Node(t, severity);
+            byToken.put(t.tokenId, n);
+            byPatient.computeIfAbsent(t.patientId, k -> new ArrayList<>(1)).add(n);
+            place(n, size++); heapifyUp(n.pos);
+            if (feed != null) feed.add(SnapshotFeed.TRIAGE, severity, 0, t);
+        }
+        public Token extractMin() {
+            if (size == 0) return null;
+            if (feed != null) feed.add(SnapshotFeed.EXTRACT, 0, 0, null);
+            return removeAt(0).token;
+        }
+        public Token peek() { return size == 0 ? null : heap[0].token; }
+        public int peekSeverity() { return size == 0 ? Integer.MAX_VALUE : heap[0].severity; } // cached key of peek()
+
+        // cancel a token anywhere in the heap — O(log n)
+        public boolean remove(int tokenId) {
+            Node n = byToken.get(tokenId);
+            if (n == null) return false;
+            if (feed != null) feed.add(SnapshotFeed.TRIAGE_CANCEL, tokenId, 0, null);
+            removeAt(n.pos); return true;
+        }
+
+        // re-sift every pending token of a patient whose severity changed — O(t log n)
+        public void updatePriority(int patientId, int severity) {
+            List<Node> same = byPatient.get(patientId);
+            if (same == null) return;
+            if (feed != null) feed.add(SnapshotFeed.PRIORITY, patientId, severity, null);
+            for (Node n : same) if (n.severity != severity) { n.severity = severity; sift(n.pos); }
+        }
+        // change one token's key (e.g. escalation of a long wait) — O(log n)
+        public boolean changeKey(int tokenId, int severity) {
+            Node n = byToken.get(tokenId);
+            if (n == null) return false;
+            if (feed != null) feed.add(SnapshotFeed.CHANGE_KEY, tokenId, severity, null);
+            if (n.severity != severity) { n.severity = severity; sift(n.pos); }
+            return true;
+        }
+        public Integer severityOf(int tokenId) { Node n = byToken.get(tokenId); return n == null ? null : n.severity; }
+
+        // (token, cached severity) pairs in heap order
+        public void forEachEntry(ObjIntConsumer<Token> action) {
+            for (int i = 0; i < size; i++) action.accept(heap[i].token, heap[i].severity);
+        }
+
+        // tokens in heap (array) order, without disturbing the heap
+        public List<Token> tokens() {
+            List<Token> out = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) out.add(heap[i].token);
+            return out;
+        }
+        // heap-ordered copy of tokens and severities — O(n); sortByPriority() puts it in serving order
+        public int copyTo(Token[] tokens, int[] severities) {
+            for (int i = 0; i < size; i++) { tokens[i] = heap[i].token; severities[i] = heap[i].severity; }
+            return size;
+        }
+        public static List<Token> sortByPriority(Token[] tokens, int[] severities) {
+            Integer[] order = new Integer[tokens.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> severities[a] != severities[b] ? Integer.compare(severities[a], severities[b])
+                                                                         : Integer.compare(tokens[a].tokenId, tokens[b].tokenId));
+            List<Token> out = new ArrayList<>(order.length);
+            for (int i : order) out.add(tokens[i]);
+            return out;
+        }
+    }
+
+    /* ----------------------------- Patient Store ----------------------------- */
+    /* The registry behind HospitalSystemSingle: PatientHashTable keeps Patient objects,
+     * ColumnarPatientStore keeps primitive columns and hands out copies. Either way, change a
+     * patient by upserting it again rather than mutating a returned object. Not thread-safe, the
+     * stats scans included: only the owning (writer) thread may call any of these. */
+    public interface PatientStore {
+        void upsert(Patient p);
+        Patient get(int patientId);
+        boolean delete(int patientId);
+        void forEach(Consumer<Patient> action);
+        int size();
+        int capacity();
+        int[] probeLengthHistogram();
+        void ensureCapacity(int expected); // pre-size for a bulk load so it never grows midway
+    }
+
+    /* ----------------------------- Patient Hash Table (open addressing) ----------------------------- */
+    /* Linear probing over primitive int keys with backward-shift deletion, so the live table never
+     * holds tombstones. Growth is incremental: the full table is frozen and drained MIGRATE_STEP
+     * slots per write while new keys go to the doubled table, so no single upsert pays for a rehash.
+     * Memory per entry (64-bit JVM, compressed oops): chaining cost ~24 B Entry + ~24 B LinkedList
+     * node = ~48 B/entry, plus ~32 B per bucket for the LinkedList itself. Here each slot is an int
+     * key + a Patient ref = 8 B, i.e. ~10.7 B/entry at load factor 0.75 (x1.5 while a resize drains). */
+    public static class PatientHashTable implements PatientStore {
+        private static final Patient MOVED = new Patient(Integer.MIN_VALUE, "", 0, 0); // drained slot in the frozen table
+        private static final int MIGRATE_STEP = 8;
+        private final float loadFactor;
+        private int[] keys; private Patient[] vals; private int mask; private int threshold;
+        private int[] oldKeys; private Patient[] oldVals; private int oldMask; private int migrateIdx;
+        private int size;
+
+        public PatientHashTable(int capacity) { this(capacity, 0.75f); }
+        public PatientHashTable(int capacity, float loadFactor) {
+            if (!(loadFactor > 0f && loadFactor < 1f)) throw new IllegalArgumentException("loadFactor must be in (0,1): " + loadFactor);
+            this.loadFactor = loadFactor;
+            allocate(tableSizeFor(capacity, loadFactor));
+        }
+        // smallest power of two holding `expected` entries under the load factor
+        private static int tableSizeFor(int expected, float loadFactor) {
+            int n = 16;
+            while (n < (1 << 30) && (long) (n * (double) loadFactor) < expected) n <<= 1;
+            return n;
+        }
+        private void allocate(int n) {
+            keys = new int[n]; vals = new Patient[n]; mask = n - 1;
+            threshold = Math.min((int) (n * (double) loadFactor), n - 2); // always leave an empty slot to end probes
+        }
+        // murmur3 fmix32: spreads sequential ids across the table
+        private static int mix(int h) {
+            h ^= h >>> 16; h *= 0x85ebca6b;
+            h ^= h >>> 13; h *= 0xc2b2ae35;
+            return h ^ (h >>> 16);
+        }
+        private static int find(int[] ks, Patient[] vs, int m, int key) {
+            int idx = mix(key) & m;
+            for (Patient v; (v = vs[idx]) != null; idx = (idx + 1) & m) {
+                if (ks[idx] == key) return v == MOVED ? -1 : idx;
+            }
+            return -1;
+        }
+        private void insertFresh(int key, Patient p) {
+            int idx = mix(key) & mask;
+            while (vals[idx] != null) idx = (idx + 1) & mask;
+            keys[idx] = key; vals[idx] = p;
+        }
+        private void migrateStep(int slots) {
+            if (oldVals == null) return;
+            int end = (int) Math.min(oldVals.length, (long) migrateIdx + slots);
+            for (; migrateIdx < end; migrateIdx++) {
+                Patient v = oldVals[migrateIdx];
+                if (v != null && v != MOVED) { insertFresh(oldKeys[migrateIdx], v); oldVals[migrateIdx] = MOVED; }
+            }
+            if (migrateIdx == oldVals.length) { oldKeys = null; oldVals = null; }
+        }
+        private void grow() {
+            migrateStep(Integer.MAX_VALUE); // finish any drain still in flight
+            oldKeys = keys; oldVals = vals; oldMask = mask; migrateIdx = 0;
+            allocate(keys.length << 1);
+        }
+        // drop the frozen copy of a key (it is about to be written or deleted in the live table)
+        private boolean killOld(int key) {
+            if (oldVals == null) return false;
+            int idx = find(oldKeys, oldVals, oldMask, key);
+            if (idx < 0) return false;
+            oldVals[idx] = MOVED; return true;
+        }
+
+        public void upsert(Patient p) {
+            migrateStep(MIGRATE_STEP);
+            boolean wasOld = killOld(p.id);
+            int idx = find(keys, vals, mask, p.id);
+            if (idx >= 0) { vals[idx] = p; return; }
+            insertFresh(p.id, p);
+            if (!wasOld && ++size > threshold) grow();
+        }
+
+        public Patient get(int patientId) {
+            int idx = find(keys, vals, mask, patientId);
+            if (idx >= 0) return vals[idx];
+            if (oldVals == null) return null;
+            idx = find(oldKeys, oldVals, oldMask, patientId);
+            return idx < 0 ? null : oldVals[idx];
+        }
+
+        public boolean delete(int patientId) {
+            migrateStep(MIGRATE_STEP);
+            if (killOld(patientId)) { size--; return true; }
+            int gap = find(keys, vals, mask, patientId);
+            if (gap < 0) return false;
+            // backward-shift: pull later cluster members into the hole unless it would move them before their home
+            for (int j = (gap + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+                int home = mix(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) { keys[gap] = keys[j]; vals[gap] = vals[j]; gap = j; }
+            }
+            vals[gap] = null;
+            size--;
+            return true;
+        }
+
+        public void forEach(Consumer<Patient> action) {
+            for (Patient v : vals) if (v != null) action.accept(v);
+            if (oldVals != null) for (Patient v : oldVals) if (v != null && v != MOVED) action.accept(v);
+        }
+
+        public int size() { return size; }
+        public int capacity() { return keys.length; }
+        public float loadFactor() { return loadFactor; }
+        // one full rehash into a table big enough for `expected` entries (finishes any drain first)
+        public void ensureCapacity(int expected) {
+            int n = tableSizeFor(expected, loadFactor);
+            if (n <= keys.length) return;
+            migrateStep(Integer.MAX_VALUE);
+            int[] ks = keys; Patient[] vs = vals;
+            allocate(n);
+            for (int i = 0; i < vs.length; i++) if (vs[i] != null) insertFresh(ks[i], vs[i]);
+        }
+        // h[k] = entries found after k + 1 probes (cluster length seen by a lookup) — O(capacity) scan
+        public int[] probeLengthHistogram() {
+            int[] h = new int[8];
+            for (int pass = 0; pass < 2; pass++) {
+                int[] ks = pass == 0 ? keys : oldKeys; Patient[] vs = pass == 0 ? vals : oldVals;
+                if (vs == null) continue;
+                int m = vs.length - 1;
+                for (int i = 0; i < vs.length; i++) {
+                    if (vs[i] == null || vs[i] == MOVED) continue;
+                    int probes = ((i - (mix(ks[i]) & m)) & m) + 1;
+                    if (probes > h.length) h = Arrays.copyOf(h, Math.max(probes, h.length * 2));
+                    h[probes - 1]++;
+                }
+            }
+            int len = h.length;
+            while (len > 0 && h[len - 1] == 0) len--;
+            return Arrays.copyOf(h, len);
+        }
+    }
+
+    /* ----------------------------- Columnar Patient Store ----------------------------- */
+    /* Struct-of-arrays registry for multi-million-patient loads: rows live in parallel int columns
+     * (id, age, severity, name id), names are deduplicated into one UTF-8 byte arena, and a linear
+     * probing index maps id -> row. Nothing is allocated per patient, so a load creates no garbage
+     * for the GC to trace and the heap holds ~27 B/patient plus the distinct name bytes, against
+     * ~100 B for a Patient + String + byte[] + table slot. get() materializes a Patient copy;
+     * view() is a reusable flyweight that reads the columns in place and decodes a name only when
+     * asked. Deleting moves the last row into the hole; name bytes are never reclaimed. Growth
+     * rehashes the whole index at once: it holds ints only, so that is a tight copy loop. */
+    public static class ColumnarPatientStore implements PatientStore {
+        private final float loadFactor;
+        private int[] slotKeys, slotRows; private int mask, threshold; // slotRows[i] = row + 1, 0 = empty
+        private int[] ids, ages, severities, nameIds; private int size;
+        private byte[] arena = new byte[1 << 12]; private int arenaUsed;
+        private int[] nameStart = new int[1 << 8]; private int nameCount; // name n = arena[nameStart[n], nameStart[n + 1])
+        private int[] nameSlots; private int nameMask; // dedup index: nameId + 1, 0 = empty
+
+        public ColumnarPatientStore(int capacity) { this(capacity, 0.75f); }
+        public ColumnarPatientStore(int capacity, float loadFactor) {
+            if (!(loadFactor > 0f && loadFactor < 1f)) throw new IllegalArgumentException("loadFactor must be in (0,1): " + loadFactor);
+            this.loadFactor = loadFactor;
+            int rows = Math.max(16, capacity);
+            ids = new int[rows]; ages = new int[rows]; severities = new int[rows]; nameIds = new int[rows];
+            allocateIndex(PatientHashTable.tableSizeFor(capacity, loadFactor));
+            nameSlots = new int[1 << 10]; nameMask = nameSlots.length - 1;
+        }
+        private void allocateIndex(int n) {
+            slotKeys = new int[n]; slotRows = new int[n]; mask = n - 1;
+            threshold = Math.min((int) (n * (double) loadFactor), n - 2);
+        }
+        private int slotOf(int key) {
+            int idx = PatientHashTable.mix(key) & mask;
+            for (; slotRows[idx] != 0; idx = (idx + 1) & mask) if (slotKeys[idx] == key) return idx;
+            return -1;
+        }
+        private void place(int key, int row) {
+            int idx = PatientHashTable.mix(key) & mask;
+            while (slotRows[idx] != 0) idx = (idx + 1) & mask;
+            slotKeys[idx] = key; slotRows[idx] = row + 1;
+        }
+        private void growIndex() {
+            allocateIndex(slotKeys.length << 1);
+            for (int r = 0; r < size; r++) place(ids[r], r);
+        }
+
+        // dedup: one arena copy per distinct name; -1 encodes a null name
+        private int internName(String name) {
+            if (name == null) return -1;
+            byte[] b = name.getBytes(StandardCharsets.UTF_8);
+            int h = PatientHashTable.mix(Arrays.hashCode(b)), idx = h & nameMask;
+            for (int n; (n = nameSlots[idx]) != 0; idx = (idx + 1) & nameMask) {
+                int from = nameStart[n - 1], to = n < nameCount ? nameStart[n] : arenaUsed;
+                if (Arrays.equals(arena, from, to, b, 0, b.length)) return n - 1;
+            }
+            if (arenaUsed + b.length > arena.length) arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaUsed + b.length));
+            System.arraycopy(b, 0, arena, arenaUsed, b.length);
+            if (nameCount == nameStart.length) nameStart = Arrays.copyOf(nameStart, nameCount * 2);
+            nameStart[nameCount] = arenaUsed; arenaUsed += b.length;
+            nameSlots[idx] = ++nameCount;
+            if (nameCount > nameSlots.length * 3 / 4) rehashNames();
+            return nameCount - 1;
+        }
+        private void rehashNames() {
+            nameSlots = new int[nameSlots.length << 1]; nameMask = nameSlots.length - 1;
+            for (int n = 0; n < nameCount; n++) {
+                int from = nameStart[n], to = n + 1 < nameCount ? nameStart[n + 1] : arenaUsed;
+                int h = 1;
+                for (int i = from; i < to; i++) h = 31 * h + arena[i]; // Arrays.hashCode over the slice
+                int idx = PatientHashTable.mix(h) & nameMask;
+                while (nameSlots[idx] != 0) idx = (idx + 1) & nameMask;
+                nameSlots[idx] = n + 1;
+            }
+        }
+        private String name(int nameId) {
+            if (nameId < 0) return null;
+            int from = nameStart[nameId], to = nameId + 1 < nameCount ? nameStart[nameId + 1] : arenaUsed;
+            return new String(arena, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        public void upsert(Patient p) {
+            int slot = slotOf(p.id), row;
+            if (slot >= 0) row = slotRows[slot] - 1;
+            else {
+                if (size == ids.length) {
+                    int n = size + (size >> 1);
+                    ids = Arrays.copyOf(ids, n); ages = Arrays.copyOf(ages, n);
+                    severities = Arrays.copyOf(severities, n); nameIds = Arrays.copyOf(nameIds, n);
+                }
+                row = size++;
+                ids[row] = p.id;
+                place(p.id, row);
+                if (size > threshold) growIndex();
+            }
+            ages[row] = p.age; severities[row] = p.severity; nameIds[row] = internName(p.name);
+        }
+        // a fresh Patient built from the columns — changing it does not change the store
+        public Patient get(int patientId) {
+            int slot = slotOf(patientId);
+            if (slot < 0) return null;
+            int r = slotRows[slot] - 1;
+            return new Patient(ids[r], name(nameIds[r]), ages[r], severities[r]);
+        }
+        public boolean delete(int patientId) {
+            int gap = slotOf(patientId);
+            if (gap < 0) return false;
+            int row = slotRows[gap] - 1, last = --size;
+            for (int j = (gap + 1) & mask; slotRows[j] != 0; j = (j + 1) & mask) { // backward-shift, as in PatientHashTable
+                int home = PatientHashTable.mix(slotKeys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) { slotKeys[gap] = slotKeys[j]; slotRows[gap] = slotRows[j]; gap = j; }
+            }
+            slotRows[gap] = 0;
+            if (row != last) { // keep rows dense: move the last row into the hole
+                ids[row] = ids[last]; ages[row] = ages[last]; severities[row] = severities[last]; nameIds[row] = nameIds[last];
+                slotRows[slotOf(ids[row])] = row + 1;
+            }
+            return true;
+        }
+        public void forEach(Consumer<Patient> action) {
+            for (int r = 0; r < size; r++) action.accept(new Patient(ids[r], name(nameIds[r]), ages[r], severities[r]));
+        }
+        // iterate without materializing: the same View is repositioned on every row
+        public void forEachView(Consumer<View> action) {
+            View v = new View();
+            for (int r = 0; r < size; r++) { v.row = r; action.accept(v); }
+        }
+        public View view() { return new View(); }
+
+        /* Flyweight over one row; moveTo() repositions it. Valid until the store is next written. */
+        public final class View {
+            private int row = -1;
+            public boolean moveTo(int patientId) {
+                int slot = slotOf(patientId);
+                row = slot < 0 ? -1 : slotRows[slot] - 1;
+                return row >= 0;
+            }
+            public int id() { return ids[row]; }
+            public int age() { return ages[row]; }
+            public int severity() { return severities[row]; }
+            public String name() { return ColumnarPatientStore.this.name(nameIds[row]); } // decoded on each call
+            public Patient toPatient() { return new Patient(ids[row], name(), ages[row], severities[row]); }
+        }
+
+        public int size() { return size; }
+        public int capacity() { return slotKeys.length; }
+        public void ensureCapacity(int expected) {
+            if (expected > ids.length) {
+                ids = Arrays.copyOf(ids, expected); ages = Arrays.copyOf(ages, expected);
+                severities = Arrays.copyOf(severities, expected); nameIds = Arrays.copyOf(nameIds, expected);
+            }
+            int n = PatientHashTable.tableSizeFor(expected, loadFactor);
+            if (n <= slotKeys.length) return;
+            allocateIndex(n);
+            for (int r = 0; r < size; r++) place(ids[r], r);
+        }
+        public int distinctNames() { return nameCount; }
+        // h[k] = entries found after k + 1 probes — O(capacity) scan
+        public int[] probeLengthHistogram() {
+            int[] h = new int[8];
+            for (int i = 0; i < slotKeys.length; i++) {
+                if (slotRows[i] == 0) continue;
+                int probes = ((i - (PatientHashTable.mix(slotKeys[i]) & mask)) & mask) + 1;
+                if (probes > h.length) h = Arrays.copyOf(h, Math.max(probes, h.length * 2));
+                h[probes - 1]++;
+            }
+            int len = h.length;
+            while (len > 0 && h[len - 1] == 0) len--;
+            return Arrays.copyOf(h, len);
+        }
+        // heap bytes held by the arrays (16 B array headers)
+        public long footprintBytes() {
+            long ints = 4L * (ids.length + ages.length + severities.length + nameIds.length + slotKeys.length + slotRows.length
+                              + nameStart.length + nameSlots.length);
+            return ints + arena.length + 16L * 9;
+        }
+    }
+    /* ----------------------------- Patient Indexes (name / age / severity) ----------------------------- */
+    /* Secondary indexes beside a PatientStore. Age and severity are (value << 32 | id) longs in a
+     * PackedLongSet, so a range query is one binary search and a scan. Names are lower-cased
+     * (Locale.ROOT) into an ordered set of (name, id) keys: prefix search compares Strings, and the
+     * folded String is one object per patient anyway. Each id remembers the values it was indexed
+     * under, so a re-upsert removes exactly the stale keys. Queries return lazy IntStreams over
+     * the live sets: consume them before the next write. */
+    public static class PatientIndex {
+        private static final class NameKey implements Comparable<NameKey> {
+            final String name; final int id;
+            NameKey(String name, int id) { this.name = name; this.id = id; }
+            public int compareTo(NameKey o) { int c = name.compareTo(o.name); return c != 0 ? c : Integer.compare(id, o.id); }
+        }
+        private static final class Indexed { final NameKey name; final int age, severity; Indexed(NameKey n, int a, int s) { name = n; age = a; severity = s; } }
+        private final Map<Integer, Indexed> indexed = new HashMap<>();
+        private final TreeSet<NameKey> byName = new TreeSet<>();
+        private final PackedLongSet byAge = new PackedLongSet(), bySeverity = new PackedLongSet();
+
+        /* Sorted longs in blocks of at most BLOCK values: a binary search over the blocks' first
+         * values, then one inside the block. add/remove shift within one block (a split or a merge
+         * also shifts the block directory), so they are O(log n + BLOCK) with no boxing. */
+        static final class PackedLongSet {
+            private static final int BLOCK = 256;
+            private long[][] blocks = { new long[BLOCK] };
+            private int[] sizes = new int[1];
+            private int count = 1, size; // blocks in use (the first may be empty), values
+
+            public int size() { return size; }
+            // the last block whose first value <= v, or 0
+            private int blockOf(long v) {
+                int lo = 0, hi = count - 1;
+                while (lo < hi) { int mid = (lo + hi + 1) >>> 1; if (blocks[mid][0] <= v) lo = mid; else hi = mid - 1; }
+                return lo;
+            }
+            public boolean add(long v) {
+                int b = blockOf(v), n = sizes[b];
+                int i = Arrays.binarySearch(blocks[b], 0, n, v);
+                if (i >= 0) return false;
+                i = -i - 1;
+                if (n == BLOCK) { // split in half and insert into the half that covers i
+                    split(b);
+                    if (i > BLOCK / 2) { b++; i -= BLOCK / 2; }
+                    n = sizes[b];
+                }
+                long[] vals = blocks[b];
+                System.arraycopy(vals, i, vals, i + 1, n - i);
+                vals[i] = v; sizes[b] = n + 1; size++;
+                return true;
+            }
+            public boolean remove(long v) {
+                int b = blockOf(v), n = sizes[b];
+                int i = Arrays.binarySearch(blocks[b], 0, n, v);
+                if (i < 0) return false;
+                System.arraycopy(blocks[b], i + 1, blocks[b], i, n - i - 1);
+                sizes[b] = --n; size--;
+                if (b + 1 < count && n + sizes[b + 1] <= BLOCK / 2) merge(b);
+                else if (b > 0 && n + sizes[b - 1] <= BLOCK / 2) merge(b - 1);
+                return true;
+            }
+            private void split(int b) {
+                if (count == blocks.length) { blocks = Arrays.copyOf(blocks, count * 2); sizes = Arrays.copyOf(sizes, count * 2); }
+                System.arraycopy(blocks, b + 1, blocks, b + 2, count - b - 1);
+                System.arraycopy(sizes, b + 1, sizes, b + 2, count - b - 1);
+                long[] right = new long[BLOCK];
+                System.arraycopy(blocks[b], BLOCK / 2, right, 0, BLOCK - BLOCK / 2);
+                blocks[b + 1] = right; sizes[b + 1] = BLOCK - BLOCK / 2; sizes[b] = BLOCK / 2;
+                count++;
+            }
+            // append block b + 1 to block b and drop it
+            private void merge(int b) {
+                System.arraycopy(blocks[b + 1], 0, blocks[b], sizes[b], sizes[b + 1]);
+                sizes[b] += sizes[b + 1];
+                System.arraycopy(blocks, b + 2, blocks, b + 1, count - b - 2);
+                System.arraycopy(sizes, b + 2, sizes, b + 1, count - b - 2);
+                blocks[--count] = null;
+            }
+            // values in [from, to] ascending, as their low 32 bits: a lazy view of the live blocks
+            public IntStream lowBits(long from, long to) {
+                if (to < from) return IntStream.empty();
+                int b = blockOf(from), i = Arrays.binarySearch(blocks[b], 0, sizes[b], from);
+                int start = b, at = i < 0 ? -i - 1 : i;
+                PrimitiveIterator.OfInt it = new PrimitiveIterator.OfInt() {
+                    int blk = start, pos = at;
+                    public boolean hasNext() {
+                        while (blk < count && pos >= sizes[blk]) { blk++; pos = 0; }
+                        return blk < count && blocks[blk][pos] <= to;
+                    }
+                    public int nextInt() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        return (int) blocks[blk][pos++];
+                    }
+                };
+                return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false);
+            }
+        }
+
+        private static long pack(int value, int id) { return (long) value << 32 | (id & 0xffffffffL); }
+        private static String fold(String name) { return name == null ? "" : name.toLowerCase(Locale.ROOT); }
+
+        public void put(Patient p) {
+            remove(p.id);
+            NameKey k = new NameKey(fold(p.name), p.id);
+            indexed.put(p.id, new Indexed(k, p.age, p.severity));
+            byName.add(k); byAge.add(pack(p.age, p.id)); bySeverity.add(pack(p.severity, p.id));
+        }
+        public boolean remove(int patientId) {
+            Indexed old = indexed.remove(patientId);
+            if (old == null) return false;
+            byName.remove(old.name); byAge.remove(pack(old.age, patientId)); bySeverity.remove(pack(old.severity, patientId));
+            return true;
+        }
+        public int size() { return indexed.size(); }
+
+        // ids whose name starts with `prefix`, ignoring case, in name order
+        public IntStream byNamePrefix(String prefix) {
+            String from = fold(prefix);
+            SortedSet<NameKey> range = from.isEmpty() ? byName
+                : byName.subSet(new NameKey(from, Integer.MIN_VALUE), new NameKey(from + Character.MAX_VALUE, Integer.MIN_VALUE));
+            return range.stream().mapToInt(k -> k.id);
+        }
+        // ids with minAge <= age <= maxAge, youngest first
+        public IntStream byAge(int minAge, int maxAge) { return range(byAge, minAge, maxAge); }
+        // ids with minSeverity <= severity <= maxSeverity, most urgent (lowest) first
+        public IntStream bySeverity(int minSeverity, int maxSeverity) { return range(bySeverity, minSeverity, maxSeverity); }
+        private static IntStream range(PackedLongSet set, int from, int to) {
+            return to < from ? IntStream.empty() : set.lowBits(pack(from, 0), pack(to, -1));
+        }
+    }
+
+    /* ----------------------------- Frequency Buckets (Top-K) ----------------------------- */
+    /* Stream-summary layout: one bucket per distinct count, buckets in a doubly linked list ordered
+     * by count, keys hanging off their bucket. increment/decrement move a key to the neighbouring
+     * bucket in O(1); Top-K walks down from the largest bucket in O(K).
+     * With capacity > 0 it becomes a Space-Saving sketch: an unseen key evicts a key from the
+     * smallest bucket and inherits its count as error, so count(key) overestimates the true
+     * frequency by at most error(key) <= total() / capacity. */
+    public static class FrequencyBuckets {
+        private static class Bucket { long count; Bucket prev, next; Node head; Bucket(long c){ count = c; } }
+        private static class Node { int key; long error; Bucket bucket; Node prev, next; }
+        private final Map<Integer, Node> nodes = new HashMap<>();
+        private final int capacity;
+        private Bucket min, max;
+        private long total;
+
+        public FrequencyBuckets() { this(0); }
+        public FrequencyBuckets(int capacity) { this.capacity = capacity; }
+
+        private void detach(Node n) {
+            Bucket b = n.bucket;
+            if (n.prev != null) n.prev.next = n.next; else b.head = n.next;
+            if (n.next != null) n.next.prev = n.prev;
+            n.prev = n.next = null;
+            if (b.head == null) {
+                if (b.prev != null) b.prev.next = b.next; else min = b.next;
+                if (b.next != null) b.next.prev = b.prev; else max = b.prev;
+            }
+        }
+        private void attach(Node n, Bucket b) {
+            n.bucket = b; n.prev = null; n.next = b.head;
+            if (b.head != null) b.head.prev = n;
+            b.head = n;
+        }
+        // bucket for `count` right after `after` (null = before min), created if missing
+        private Bucket bucketAfter(Bucket after, long count) {
+            Bucket next = after == null ? min : after.next;
+            if (next != null && next.count == count) return next;
+            Bucket b = new Bucket(count);
+            b.prev = after; b.next = next;
+            if (after != null) after.next = b; else min = b;
+            if (next != null) next.prev = b; else max = b;
+            return b;
+        }
+        // re-hang a key on the bucket for `count` (one above or below its current bucket)
+        private void move(Node n, long count) {
+            Bucket from = n.bucket;
+            if (count > from.count) {
+                detach(n);
+                attach(n, bucketAfter(from.head != null ? from : from.prev, count));
+            } else {
+                Bucket prev = from.prev;
+                detach(n);
+                attach(n, prev != null && prev.count == count ? prev : bucketAfter(prev, count));
+            }
+        }
+
+        public void increment(int key) {
+            total++;
+            Node n = nodes.get(key);
+            if (n != null) { move(n, n.bucket.count + 1); return; }
+            if (capacity > 0 && nodes.size() >= capacity) { // Space-Saving: recycle a minimum counter
+                n = min.head;
+                nodes.remove(n.key);
+                n.key = key; n.error = n.bucket.count;
+                nodes.put(key, n);
+                move(n, n.bucket.count + 1);
+                return;
+            }
+            n = new Node(); n.key = key;
+            nodes.put(key, n);
+            attach(n, bucketAfter(null, 1));
+        }
+
+        public void decrement(int key) {
+            Node n = nodes.get(key);
+            if (n == null) return;
+            total--;
+            if (n.bucket.count <= 1) { detach(n); nodes.remove(key); return; }
+            move(n, n.bucket.count - 1);
+        }
+
+        public long count(int key) { Node n = nodes.get(key); return n == null ? 0 : n.bucket.count; }
+        public long error(int key) { Node n = nodes.get(key); return n == null ? 0 : n.error; }
+        public long total() { return total; }
+        public int distinct() { return nodes.size(); }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(capacity); out.writeLong(total); out.writeInt(nodes.size());
+            for (Bucket b = min; b != null; b = b.next)
+                for (Node n = b.head; n != null; n = n.next) { out.writeInt(n.key); out.writeLong(b.count); out.writeLong(n.error); }
+        }
+        static FrequencyBuckets readFrom(DataInput in) throws IOException {
+            FrequencyBuckets f = new FrequencyBuckets(in.readInt());
+            f.total = in.readLong();
+            Node last = null;
+            for (int i = in.readInt(); i > 0; i--) { // ascending counts: always append at max, in written order
+                Node n = new Node(); n.key = in.readInt();
+                long count = in.readLong(); n.error = in.readLong();
+                f.nodes.put(n.key, n);
+                if (last != null && last.bucket.count == count) { n.bucket = last.bucket; n.prev = last; last.next = n; }
+                else f.attach(n, f.bucketAfter(f.max, count));
+                last = n;
+            }
+            return f;
+        }
+
+        // keys with the K largest counts, highest first — O(K)
+        public List<Integer> topK(int K) {
+            List<Integer> out = new ArrayList<>(Math.max(0, Math.min(K, nodes.size())));
+            for (Bucket b = max; b != null && out.size() < K; b = b.prev)
+                for (Node n = b.head; n != null && out.size() < K; n = n.next) out.add(n.key);
+            return out;
+        }
+    }
+
+    /* Per-patient token frequencies kept up to date by every booking/triage/serve/undo:
+     * pending tokens, a sliding window over the last `windowSize` arrivals, and all-time
+     * history (exact, or a bounded Space-Saving sketch for multi-day runs). */
+    public static class FrequencyTracker {
+        private FrequencyBuckets pending = new FrequencyBuckets();
+        private FrequencyBuckets recent = new FrequencyBuckets();
+        private FrequencyBuckets history = new FrequencyBuckets();
+        private final int[] window; // ring of the most recent arrivals (patient ids)
+        private int windowStart = 0, windowSize = 0;
+        SnapshotFeed feed; // set while snapshots are enabled: every event is recorded there
+
+        public FrequencyTracker(int windowSize) { window = new int[Math.max(1, windowSize)]; }
+        public int windowLength() { return window.length; }
+
+        // switch all-time history to a Space-Saving sketch with `counters` entries (starts empty)
+        public void useBoundedHistory(int counters) { history = new FrequencyBuckets(counters); }
+
+        public void onArrival(int patientId) {
+            if (feed != null) feed.add(SnapshotFeed.ARRIVAL, patientId, 0, null);
+            pending.increment(patientId);
+            history.increment(patientId);
+            recent.increment(patientId);
+            if (windowSize == window.length) { // evict the oldest arrival
+                recent.decrement(window[windowStart]);
+                window[windowStart] = patientId;
+                windowStart = (windowStart + 1) % window.length;
+            } else window[(windowStart + windowSize++) % window.length] = patientId;
+        }
+        // undo of a booking/triage: usually the newest arrival still in the window
+        public void onArrivalUndone(int patientId) {
+            if (feed != null) feed.add(SnapshotFeed.ARRIVAL_UNDONE, patientId, 0, null);
+            pending.decrement(patientId);
+            history.decrement(patientId);
+            if (windowSize > 0) {
+                int last = (windowStart + windowSize - 1) % window.length;
+                if (window[last] == patientId) { windowSize--; recent.decrement(patientId); }
+            }
+        }
+        public void onServed(int patientId) {
+            if (feed != null) feed.add(SnapshotFeed.SERVED, patientId, 0, null);
+            pending.decrement(patientId);
+        }
+        public long pendingCount(int patientId) { return pending.count(patientId); }
+        public void onExpired(int patientId) { // no-show: no longer pending, still an arrival
+            if (feed != null) feed.add(SnapshotFeed.EXPIRED, patientId, 0, null);
+            pending.decrement(patientId);
+        }
+        public void onServeUndone(int patientId) {
+            if (feed != null) feed.add(SnapshotFeed.SERVE_UNDONE, patientId, 0, null);
+            pending.increment(patientId);
+        }
+
+        public List<Integer> topPending(int K) { return pending.topK(K); }
+        public List<Integer> topRecent(int K) { return recent.topK(K); }
+        public List<Integer> topHistorical(int K) { return history.topK(K); }
+        public FrequencyBuckets history() { return history; }
+
+        // pending + window (oldest first) + recent + history; buckets are saved rather than rebuilt
+        // so that ties keep their order
+        void writeTo(DataOutput out) throws IOException {
+            pending.writeTo(out);
+            out.writeInt(windowSize);
+            for (int i = 0; i < windowSize; i++) out.writeInt(window[(windowStart + i) % window.length]);
+            recent.writeTo(out);
+            history.writeTo(out);
+        }
+        void readFrom(DataInput in) throws IOException {
+            pending = FrequencyBuckets.readFrom(in);
+            int n = in.readInt(), skip = Math.max(0, n - window.length);
+            windowStart = 0; windowSize = 0;
+            for (int i = 0; i < n; i++) {
+                int pid = in.readInt();
+                if (i >= skip) window[windowSize++] = pid;
+            }
+            recent = FrequencyBuckets.readFrom(in);
+            history = FrequencyBuckets.readFrom(in);
+        }
+    }
+
+    /* ----------------------------- Periodic Flusher ----------------------------- */
+    // one lazily started daemon thread running periodic ticks for many owners, each held weakly
+    static final class PeriodicFlusher {
+        private final String threadName;
+        private ScheduledExecutorService executor;
+        PeriodicFlusher(String threadName) { this.threadName = threadName; }
+        private synchronized ScheduledExecutorService executor() {
+            if (executor == null) executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, threadName); t.setDaemon(true); return t;
+            });
+            return executor;
+        }
+        // tick(owner) every periodMillis until it returns false or the owner is collected (tick must not capture it)
+        <T> ScheduledFuture<?> every(long periodMillis, T owner, Predicate<? super T> tick) {
+            Tick<T> task = new Tick<>(owner, tick);
+            return task.future = executor().scheduleWithFixedDelay(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+        private static final class Tick<T> implements Runnable {
+            private final java.lang.ref.WeakReference<T> owner;
+            private final Predicate<? super T> tick;
+            volatile ScheduledFuture<?> future;
+            Tick(T owner, Predicate<? super T> tick) { this.owner = new java.lang.ref.WeakReference<>(owner); this.tick = tick; }
+            public void run() {
+                T o = owner.get();
+                if ((o == null || !tick.test(o)) && future != null) future.cancel(false);
+            }
+        }
+    }
+
+    /* ----------------------------- Write-ahead Journal ----------------------------- */
+    /* Write-ahead log of [len][lsn][op][payload][crc32c] records, written through; FsyncPolicy decides when they are forced */
+    public static class Journal implements java.io.Closeable {
+        public enum FsyncPolicy { EVERY_OP, GROUP, NONE }
+        static final byte UPSERT = 1, ADD_DOCTOR = 2, ADD_SLOT = 3, BOOK = 4, TRIAGE = 5, SERVE = 6, UNDO = 7, REDO = 8, SCHEDULE = 9, ADVANCE = 10, REMOVE = 11, RELEASE_DESK = 12;
+        private static final int OVERHEAD = 4 + 8 + 1 + 4;
+        public static final int DEFAULT_GROUP_OPS = 64, DEFAULT_GROUP_MILLIS = 5;
+        private static final PeriodicFlusher FLUSHER = new PeriodicFlusher("journal-flusher"); // group-commits every GROUP journal
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        private final CRC32C crc = new CRC32C();
+        private final FsyncPolicy policy;
+        private final int groupOps;
+        private final long groupNanos;
+        private int unsynced = 0;             // guarded by this: records written but not yet forced
+        private long lastSyncNanos = System.nanoTime();
+        private volatile IOException failed;  // a background force failed: surfaced by the next append
+        private ScheduledFuture<?> commit;
+        private long lsn;
+        private int recordStart;
+
+        Journal(FileChannel channel, long lastLsn, FsyncPolicy policy, int groupOps, long groupMillis) {
+            this.channel = channel; this.lsn = lastLsn; this.policy = policy;
+            this.groupOps = Math.max(1, groupOps); this.groupNanos = groupMillis * 1_000_000L;
+            if (policy == FsyncPolicy.GROUP) commit = FLUSHER.every(Math.max(1, groupMillis), this, Journal::groupCommit);
+        }
+        public long lastLsn() { return lsn; }
+
+        private void begin(byte op, int payloadBytes) throws IOException {
+            IOException f = failed;
+            if (f != null) throw new IOException("Journal group commit failed", f);
+            if (OVERHEAD + payloadBytes > buf.capacity()) throw new IOException("Journal record too large: " + payloadBytes);
+            recordStart = buf.position();
+            buf.putInt(0).putLong(++lsn).put(op);
+        }
+        private void end() throws IOException {
+            ByteBuffer body = buf.duplicate();
+            body.position(recordStart + 4).limit(buf.position());
+            crc.reset(); crc.update(body);
+            buf.putInt((int) crc.getValue());
+            buf.putInt(recordStart, buf.position() - recordStart - 4);
+            flush(); // write-through: only the force is deferred
+            boolean force;
+            synchronized (this) {
+                unsynced++;
+                force = policy == FsyncPolicy.EVERY_OP
+                    || policy == FsyncPolicy.GROUP && (unsynced >= groupOps || System.nanoTime() - lastSyncNanos >= groupNanos);
+            }
+            if (force) force();
+        }
+        // strings are a u16 byte length + UTF-8 bytes; length 0xffff marks null
+        private static byte[] utf8(String s) { return s == null ? null : s.getBytes(StandardCharsets.UTF_8); }
+        private static int size(byte[] b) { return 2 + (b == null ? 0 : b.length); }
+        private void putString(byte[] b) {
+            if (b == null) buf.putShort((short) 0xffff); else buf.putShort((short) b.length).put(b);
+        }
+        static String getString(ByteBuffer in) {
+            int n = in.getShort() & 0xffff;
+            if (n == 0xffff) return null;
+            byte[] b = new byte[n]; in.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        // desk-scoped ops (upsert/book/triage/serve/undo/redo) start with the desk id
+        void logUpsert(int desk, Patient p) throws IOException {
+            byte[] name = utf8(p.name);
+            begin(UPSERT, 16 + size(name));
+            buf.putInt(desk).putInt(p.id).putInt(p.age).putInt(p.severity); putString(name);
+            end();
+        }
+        void logRemove(int desk, int patientId) throws IOException { begin(REMOVE, 8); buf.putInt(desk).putInt(patientId); end(); }
+        void logReleaseDesk(int desk) throws IOException { begin(RELEASE_DESK, 4); buf.putInt(desk); end(); }
+        void logAddDoctor(Doctor d) throws IOException {
+            byte[] name = utf8(d.name), spec = utf8(d.specialization);
+            begin(ADD_DOCTOR, 4 + size(name) + size(spec));
+            buf.putInt(d.id); putString(name); putString(spec);
+            end();
+        }
+        void logAddSlot(int doctorId, Slot s, boolean booked) throws IOException {
+            byte[] start = utf8(s.startTime), endTime = utf8(s.endTime);
+            begin(ADD_SLOT, 8 + size(start) + size(endTime) + 1);
+            buf.putInt(doctorId).putInt(s.slotId); putString(start); putString(endTime); buf.put((byte) (booked ? 1 : 0));
+            end();
+        }
+        void logBook(int desk, int patientId, int doctorId) throws IOException { begin(BOOK, 12); buf.putInt(desk).putInt(patientId).putInt(doctorId); end(); }
+        void logTriage(int desk, int patientId) throws IOException { begin(TRIAGE, 8); buf.putInt(desk).putInt(patientId); end(); }
+        void logServe(int desk) throws IOException { begin(SERVE, 4); buf.putInt(desk); end(); }
+        void logUndo(int desk) throws IOException { begin(UNDO, 4); buf.putInt(desk); end(); }
+        void logRedo(int desk) throws IOException { begin(REDO, 4); buf.putInt(desk); end(); }
+        void logSchedule(int startMinute, int grace, int escalateAfter) throws IOException {
+            begin(SCHEDULE, 12); buf.putInt(startMinute).putInt(grace).putInt(escalateAfter); end();
+        }
+        void logAdvance(long minute) throws IOException { begin(ADVANCE, 8); buf.putLong(minute); end(); }
+
+        public void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+        // group-commit point: force everything written so far to disk
+        private synchronized void force() throws IOException {
+            channel.force(false);
+            unsynced = 0; lastSyncNanos = System.nanoTime();
+        }
+        // the flusher's tick: force records that have waited out the group window
+        synchronized void forceIfDue() throws IOException {
+            if (unsynced > 0 && System.nanoTime() - lastSyncNanos >= groupNanos) force();
+        }
+        public void sync() throws IOException { flush(); force(); }
+        // drop every record (they are covered by a snapshot)
+        void truncate() throws IOException { flush(); channel.truncate(0); channel.force(true); }
+        public void close() throws IOException {
+            if (commit != null) commit.cancel(false);
+            synchronized (this) { sync(); channel.close(); }
+        }
+        // the flusher's tick; a failed force stops it and is surfaced by the next append
+        private static boolean groupCommit(Journal j) {
+            if (!j.channel.isOpen()) return false;
+            try { j.forceIfDue(); return true; }
+            catch (IOException e) { j.failed = e; return false; }
+        }
+
+        // replay records with lsn > afterLsn into hs up to the first torn one; returns {lastLsn, validBytes}
+        static long[] replay(FileChannel ch, long afterLsn, HospitalSystemSingle hs) throws IOException {
+            long size = ch.size(), last = afterLsn;
+            if (size == 0) return new long[]{ last, 0 };
+            MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32C crc = new CRC32C();
+            int valid = 0;
+            while (in.remaining() >= 4) {
+                int start = in.position(), len = in.getInt();
+                if (len < OVERHEAD - 4 || len > in.remaining()) break;
+                ByteBuffer body = in.slice(start + 4, len - 4);
+                crc.reset(); crc.update(body.duplicate());
+                if ((int) crc.getValue() != in.getInt(start + len)) break;
+                long recLsn = body.getLong();
+                byte op = body.get();
+                if (recLsn > afterLsn) { hs.apply(op, body); last = recLsn; }
+                in.position(start + 4 + len);
+                valid = in.position();
+            }
+            return new long[]{ last, valid };
+        }
+    }
+
+    /* ----------------------------- Undo Log ----------------------------- */
+    /* Bounded ring of typed undo records in parallel arrays: `undoable` records, then the redo tail */
+    public static class UndoLog {
+        public enum ActionType { REGISTER, BOOK, TRIAGE, SERVE }
+        private static final ActionType[] TYPES = ActionType.values();
+        private final byte[] type;
+        private final int[] tokenId, patientId, doctorId, slotId;
+        private final int[] severity; // serve of an emergency: its triage key when served, escalations included
+        private final Patient[] patient, previous; // register: the stored record (redo) and the one it displaced (undo)
+        private int oldest = 0, undoable = 0, redoable = 0;
+
+        public UndoLog(int depth) {
+            if (depth <= 0) throw new IllegalArgumentException("Undo depth must be positive: " + depth);
+            type = new byte[depth];
+            tokenId = new int[depth]; patientId = new int[depth]; doctorId = new int[depth]; slotId = new int[depth];
+            severity = new int[depth];
+            patient = new Patient[depth]; previous = new Patient[depth];
+        }
+        public int depth() { return type.length; }
+        public int undoable() { return undoable; }
+        public int redoable() { return redoable; }
+        private int at(int k) { int i = oldest + k; return i >= type.length ? i - type.length : i; }
+
+        // registry records are never mutated in place (callers only see copies), so both are kept as is
+        public void pushRegister(Patient p, Patient replaced) {
+            int i = push(ActionType.REGISTER, -1, p.id, -1, -1);
+            patient[i] = p; previous[i] = replaced;
+        }
+        // a removal is a register whose new value is null: undo restores `removed`, redo deletes again
+        public void pushRemove(int patientId, Patient removed) {
+            int i = push(ActionType.REGISTER, -1, patientId, -1, -1);
+            patient[i] = null; previous[i] = removed;
+        }
+        public void pushToken(ActionType t, Token tk) { push(t, tk.tokenId, tk.patientId, tk.doctorId, tk.slotId); }
+        // `key`: the emergency's triage key as it left the heap, so undo restores its place (unused for routine)
+        public void pushServe(Token tk, int key) { severity[push(ActionType.SERVE, tk.tokenId, tk.patientId, tk.doctorId, tk.slotId)] = key; }
+        private int push(ActionType t, int token, int pid, int did, int sid) {
+            clearRedo();
+            if (undoable == type.length) { oldest = at(1); undoable--; } // overwrite the oldest
+            int i = at(undoable++);
+            type[i] = (byte) t.ordinal();
+            tokenId[i] = token; patientId[i] = pid; doctorId[i] = did; slotId[i] = sid;
+            severity[i] = 0; patient[i] = null; previous[i] = null;
+            return i;
+        }
+
+        // index of the record undo would reverse / redo would re-apply, or -1
+        public int lastDone() { return undoable == 0 ? -1 : at(undoable - 1); }
+        public int nextRedo() { return redoable == 0 ? -1 : at(undoable); }
+        void undone() { undoable--; redoable++; }
+        void redone() { undoable++; redoable--; }
+        // the last record can no longer be reversed (e.g. its token was served): drop it with the redo tail
+        void dropLastDone() { undoable--; redoable++; clearRedo(); }
+        void clearRedo() {
+            for (int k = 0; k < redoable; k++) { int i = at(undoable + k); patient[i] = null; previous[i] = null; }
+            redoable = 0;
+        }
+
+        public ActionType type(int i) { return TYPES[type[i]]; }
+        public int tokenId(int i) { return tokenId[i]; }
+        public int patientId(int i) { return patientId[i]; }
+        public int doctorId(int i) { return doctorId[i]; }
+        public int slotId(int i) { return slotId[i]; }
+        public int severity(int i) { return severity[i]; }
+        void setSeverity(int i, int key) { severity[i] = key; }
+        public Patient patient(int i) { return patient[i]; }
+        public Patient previous(int i) { return previous[i]; }
+        // rebuild the token of a book/triage/serve record (emergency tokens carry doctorId -1)
+        public Token token(int i) {
+            return new Token(tokenId[i], patientId[i], doctorId[i], slotId[i],
+                doctorId[i] < 0 ? Token.TokenType.EMERGENCY : Token.TokenType.ROUTINE);
+        }
+
+        // depth, counts, then undoable + redoable records oldest first
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(type.length); out.writeInt(undoable); out.writeInt(redoable);
+            for (int k = 0; k < undoable + redoable; k++) {
+                int i = at(k);
+                out.writeByte(type[i]);
+                out.writeInt(tokenId[i]); out.writeInt(patientId[i]); out.writeInt(doctorId[i]); out.writeInt(slotId[i]);
+                out.writeInt(severity[i]);
+                writePatient(out, patient[i]); writePatient(out, previous[i]);
+            }
+        }
+        static UndoLog readFrom(DataInput in) throws IOException {
+            UndoLog log = new UndoLog(in.readInt());
+            int undoable = in.readInt(), redoable = in.readInt();
+            for (int k = 0; k < undoable + redoable; k++) {
+                log.type[k] = in.readByte();
+                log.tokenId[k] = in.readInt(); log.patientId[k] = in.readInt(); log.doctorId[k] = in.readInt(); log.slotId[k] = in.readInt();
+                log.severity[k] = in.readInt();
+                log.patient[k] = readPatient(in); log.previous[k] = readPatient(in);
+            }
+            log.undoable = undoable; log.redoable = redoable;
+            return log;
+        }
+        private static void writePatient(DataOutput out, Patient p) throws IOException {
+            out.writeBoolean(p != null);
+            if (p != null) { out.writeInt(p.id); writeName(out, p.name); out.writeInt(p.age); out.writeInt(p.severity); }
+        }
+        private static Patient readPatient(DataInput in) throws IOException {
+            if (!in.readBoolean()) return null;
+            int id = in.readInt(); String name = readName(in);
+            return new Patient(id, name, in.readInt(), in.readInt());
+        }
+    }
+    /* ----------------------------- Timing Wheel (slot scheduler) ----------------------------- */
+    /* Hierarchical timing wheel over a simulated minute clock: 4 levels of 64 buckets (1 min,
+     * 64 min, ~3 days, ~6 months per bucket). A timer goes to the level that matches how far away
+     * it is. When the clock crosses a coarse bucket, that bucket is re-spread into finer levels.
+     * Buckets are intrusive doubly-linked lists, so schedule and cancel are O(1). Each timer
+     * cascades at most LEVELS - 1 times, and advancing costs O(1) per elapsed minute. */
+    public static class TimingWheel {
+        static final int RELEASE = 0, EXPIRE = 1, ESCALATE = 2; // timer kinds used by the scheduler
+        private static final int BITS = 6, SLOTS = 1 << BITS, LEVELS = 4;
+
+        public static final class Timer {
+            public final int kind, tokenId;
+            public final long deadline;
+            private Timer prev, next;
+            private int level = -1, slot; // level -1: not scheduled
+            Timer(int kind, int tokenId, long deadline) { this.kind = kind; this.tokenId = tokenId; this.deadline = deadline; }
+        }
+
+        private final Timer[][] heads = new Timer[LEVELS][SLOTS], tails = new Timer[LEVELS][SLOTS];
+        private long now;
+        private int size;
+
+        public TimingWheel(long startMinute) { now = startMinute; }
+        public long now() { return now; }
+        public int size() { return size; }
+
+        // O(1); a deadline at or before now fires on the next advance
+        public Timer schedule(int kind, int tokenId, long deadline) {
+            Timer t = new Timer(kind, tokenId, Math.max(deadline, now + 1));
+            place(t); size++;
+            return t;
+        }
+        // O(1); false if the timer already fired or was cancelled
+        public boolean cancel(Timer t) {
+            if (t.level < 0) return false;
+            unlink(t); size--;
+            return true;
+        }
+
+        private void place(Timer t) {
+            long delta = t.deadline - now;
+            int level = 0;
+            while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) level++;
+            append(t, level, (int) (t.deadline >>> (BITS * level)) & (SLOTS - 1));
+        }
+        private void append(Timer t, int level, int slot) {
+            t.level = level; t.slot = slot; t.next = null; t.prev = tails[level][slot];
+            if (t.prev != null) t.prev.next = t; else heads[level][slot] = t;
+            tails[level][slot] = t;
+        }
+        private void unlink(Timer t) {
+            if (t.prev != null) t.prev.next = t.next; else heads[t.level][t.slot] = t.next;
+            if (t.next != null) t.next.prev = t.prev; else tails[t.level][t.slot] = t.prev;
+            t.prev = t.next = null; t.level = -1;
+        }
+        private Timer detachAll(int level, int slot) {
+            Timer h = heads[level][slot];
+            heads[level][slot] = tails[level][slot] = null;
+            return h;
+        }
+
+        /* Move the clock forward minute by minute, handing every due timer to onFire (in the
+         * order it was scheduled within a minute). onFire may schedule new timers. */
+        public void advanceTo(long minute, Consumer<Timer> onFire) {
+            while (now < minute) {
+                now++;
+                // re-spread coarse buckets whose span starts now (coarsest first)
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((now & ((1L << (BITS * level)) - 1)) != 0) continue;
+                    for (Timer t = detachAll(level, (int) (now >>> (BITS * level)) & (SLOTS - 1)), nx; t != null; t = nx) {
+                        nx = t.next; t.prev = t.next = null;
+                        place(t);
+                    }
+                }
+                for (Timer t = detachAll(0, (int) now & (SLOTS - 1)), nx; t != null; t = nx) {
+                    nx = t.next; t.prev = t.next = null; t.level = -1; size--;
+                    onFire.accept(t);
+                }
+            }
+        }
+
+        // bucket contents level by level, in list order, so a restore rebuilds the same firing order
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(now); out.writeInt(size);
+            for (int level = 0; level < LEVELS; level++)
+                for (int slot = 0; slot < SLOTS; slot++)
+                    for (Timer t = heads[level][slot]; t != null; t = t.next) {
+                        out.writeByte(level); out.writeByte(slot);
+                        out.writeByte(t.kind); out.writeInt(t.tokenId); out.writeLong(t.deadline);
+                    }
+        }
+        static TimingWheel readFrom(DataInput in, Consumer<Timer> onRestore) throws IOException {
+            TimingWheel w = new TimingWheel(in.readLong());
+            for (int i = w.size = in.readInt(); i > 0; i--) {
+                int level = in.readByte(), slot = in.readByte();
+                Timer t = new Timer(in.readByte(), in.readInt(), in.readLong());
+                w.append(t, level, slot);
+                onRestore.accept(t);
+            }
+            return w;
+        }
+    }
+
+    /* ----------------------------- Concurrent (multi-desk) mode ----------------------------- */
+    /* Bounded lock-free MPMC ring (Vyukov): each cell carries a sequence number that tells
+     * producers/consumers whether it is free for lap `pos` — no locks, one CAS per op. */
+    public static class MpmcTokenQueue {
+        private final AtomicReferenceArray<Token> buffer;
+        private final AtomicLongArray sequence;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+        public MpmcTokenQueue(int capacity) {
+            int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            buffer = new AtomicReferenceArray<>(n);
+            sequence = new AtomicLongArray(n);
+            for (int i = 0; i < n; i++) sequence.set(i, i);
+            mask = n - 1;
+        }
+        public boolean offer(Token t) {
+            long pos = tail.get();
+            while (true) {
+                int idx = (int) pos & mask;
+                long dif = sequence.get(idx) - pos;
+                if (dif == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        buffer.lazySet(idx, t);
+                        sequence.lazySet(idx, pos + 1); // publish to consumers
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (dif < 0) return false; // full: a whole lap behind
+                else pos = tail.get();
+            }
+        }
+        public Token poll() {
+            long pos = head.get();
+            while (true) {
+                int idx = (int) pos & mask;
+                long dif = sequence.get(idx) - (pos + 1);
+                if (dif == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        Token t = buffer.get(idx);
+                        buffer.lazySet(idx, null);
+                        sequence.lazySet(idx, pos + mask + 1); // free for the next lap
+                        return t;
+                    }
+                    pos = head.get();
+                } else if (dif < 0) return null; // empty
+                else pos = head.get();
+            }
+        }
+        public int size() { return (int) Math.max(0, tail.get() - head.get()); }
+        public boolean isEmpty() { return tail.get() == head.get(); }
+        public int capacity() { return mask + 1; }
+    }
+
+    /* Concurrent triage: a skip list keyed by (severity << 32 | tokenId) gives the same
+     * severity-then-FIFO order as MinHeapTriage with lock-free insert/poll/remove. keyOf holds each
+     * pending token's current key and is the claim: poll/remove take a token by removing its
+     * (tokenId, key) mapping, so exactly one caller wins it. A re-key puts the new entry before it
+     * drops the old one, so a pending token is never missing from the list; entries whose key is
+     * no longer current are skipped, and discarded once their token is claimed. */
+    public static class ConcurrentTriage {
+        private final ConcurrentSkipListMap<Long, Token> queue = new ConcurrentSkipListMap<>();
+        private final ConcurrentHashMap<Integer, Long> keyOf = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, Set<Integer>> byPatient = new ConcurrentHashMap<>();
+        private final AtomicLong rekeys = new AtomicLong(); // bumped as each re-key starts: poll rescans if it moved
+
+        private static long key(int severity, int tokenId) { return ((long) severity << 32) | (tokenId & 0xffffffffL); }
+
+        public void insert(Token t, int severity) {
+            long k = key(severity, t.tokenId);
+            byPatient.computeIfAbsent(t.patientId, p -> ConcurrentHashMap.newKeySet()).add(t.tokenId);
+            keyOf.put(t.tokenId, k);
+            queue.put(k, t);
+        }
+        /* Claim the first entry whose key is current. The iterator is weakly consistent, so a scan
+         * that finds nothing is repeated if it skipped a token being re-keyed or a re-key started
+         * meanwhile: otherwise a token moved behind the scan could be reported as absent. */
+        public Token poll() {
+            for (;;) {
+                long seen = rekeys.get();
+                boolean skipped = false;
+                for (Map.Entry<Long, Token> e : queue.entrySet()) {
+                    Token t = e.getValue();
+                    long k = e.getKey();
+                    if (keyOf.remove(t.tokenId, k)) {
+                        queue.remove(k, t);
+                        forget(t);
+                        return t;
+                    }
+                    if (keyOf.containsKey(t.tokenId)) skipped = true; // mid re-key: the other entry is current
+                    else queue.remove(k, t); // token already claimed: a leftover entry
+                }
+                if (!skipped && rekeys.get() == seen) return null;
+            }
+        }
+        public boolean remove(int tokenId) {
+            for (;;) {
+                Long k = keyOf.get(tokenId);
+                if (k == null) return false; // not pending, or lost the race to a poll
+                if (!keyOf.remove(tokenId, k)) continue; // re-keyed meanwhile
+                Token t = queue.remove(k);
+                if (t != null) forget(t);
+                return true;
+            }
+        }
+        /* Re-key a patient's pending tokens; a token claimed meanwhile is simply skipped. Not atomic
+         * against insert or another update for the same patient: callers serialize those per
+         * patient (ConcurrentHospitalSystem holds the patient's lock), so the last update wins. */
+        public void updatePriority(int patientId, int severity) {
+            Set<Integer> ids = byPatient.get(patientId);
+            if (ids == null) return;
+            for (int tokenId : ids) {
+                Long old = keyOf.get(tokenId);
+                if (old == null) continue;
+                long k = key(severity, tokenId);
+                if (k == old) continue;
+                Token t = queue.get(old);
+                if (t == null) continue; // claimed
+                rekeys.incrementAndGet();
+                queue.put(k, t); // new entry first: the token stays visible throughout
+                if (keyOf.replace(tokenId, old, k)) queue.remove(old, t);
+                else queue.remove(k, t); // claimed meanwhile
+            }
+        }
+        private void forget(Token t) {
+            Set<Integer> ids = byPatient.get(t.patientId);
+            if (ids != null) ids.remove(t.tokenId);
+        }
+        public boolean isEmpty() { return keyOf.isEmpty(); }
+        public int size() { return keyOf.size(); }
+    }
+
+    /* Multi-desk system: desks book/triage and rooms serve concurrently. Doctor schedules are
+     * guarded by striped locks keyed on doctorId, so two desks never book the same Slot. A second
+     * set of stripes keyed on patientId serializes a patient's upserts and triage insertions, so
+     * a token is always keyed by the severity of the latest registration. */
+    public static class ConcurrentHospitalSystem {
+        private final ConcurrentHashMap<Integer, Doctor> doctors = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, Patient> patients = new ConcurrentHashMap<>();
+        private final MpmcTokenQueue routineQueue;
+        private final ConcurrentTriage triage = new ConcurrentTriage();
+        private final ReentrantLock[] stripes, patientStripes;
+        private final AtomicInteger tokenCounter = new AtomicInteger(1);
+        private final LongAdder servedCount = new LongAdder();
+        private final LongAdder pendingCount = new LongAdder();
+
+        public ConcurrentHospitalSystem(int routineQueueCapacity, int lockStripes) {
+            routineQueue = new MpmcTokenQueue(routineQueueCapacity);
+            int n = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+            stripes = new ReentrantLock[n]; patientStripes = new ReentrantLock[n];
+            for (int i = 0; i < n; i++) { stripes[i] = new ReentrantLock(); patientStripes[i] = new ReentrantLock(); }
+        }
+        private ReentrantLock lockFor(int doctorId) { return stripes[(doctorId * 0x9E3779B9 >>> 16) & (stripes.length - 1)]; }
+        private ReentrantLock patientLock(int patientId) { return patientStripes[(patientId * 0x9E3779B9 >>> 16) & (patientStripes.length - 1)]; }
+
+        public void upsertPatient(Patient p) {
+            ReentrantLock lock = patientLock(p.id);
+            lock.lock();
+            try {
+                patients.put(p.id, p);
+                triage.updatePriority(p.id, p.severity);
+            } finally { lock.unlock(); }
+        }
+        public Patient getPatient(int id) { return patients.get(id); }
+        public void addDoctor(Doctor d) { doctors.put(d.id, d); }
+
+        /* Book the doctor's next free slot; returns the token, or null if no slot / queue full */
+        public Token bookRoutine(int patientId, int doctorId) {
+            Doctor doc = doctors.get(doctorId);
+            if (doc == null) return null;
+            ReentrantLock lock = lockFor(doctorId);
+            Slot s;
+            lock.lock();
+            try {
+                s = doc.findNextFreeSlot();
+                if (s == null || !doc.bookSlot(s.slotId)) return null;
+            } finally { lock.unlock(); }
+            Token t = new Token(tokenCounter.getAndIncrement(), patientId, doctorId, s.slotId, Token.TokenType.ROUTINE);
+            pendingCount.increment();
+            if (!routineQueue.offer(t)) { // rollback if queue full
+                pendingCount.decrement();
+                lock.lock();
+                try { doc.unbookSlot(s.slotId); } finally { lock.unlock(); }
+                return null;
+            }
+            return t;
+        }
+        public Token triageInsert(int patientId) {
+            ReentrantLock lock = patientLock(patientId);
+            lock.lock();
+            try { // severity read and insert under the patient's lock: a concurrent upsert sees the token
+                Patient p = patients.get(patientId);
+                if (p == null) return null;
+                Token t = new Token(tokenCounter.getAndIncrement(), patientId, -1, -1, Token.TokenType.EMERGENCY);
+                pendingCount.increment();
+                triage.insert(t, p.severity);
+                return t;
+            } finally { lock.unlock(); }
+        }
+        /* Same rule as the single-threaded system: emergency before routine */
+        public Token serveNext() {
+            Token next = triage.poll();
+            if (next == null) next = routineQueue.poll();
+            if (next == null) return null;
+            servedCount.increment(); pendingCount.decrement();
+            return next;
+        }
+
+        public long servedCount() { return servedCount.sum(); }
+        public long pendingCount() { return pendingCount.sum(); }
+        public int issuedCount() { return tokenCounter.get() - 1; }
+
+        public String reportSummary() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("=== SUMMARY ===\n");
+            sb.append("Served: ").append(servedCount()).append("\n");
+            sb.append("Pending: ").append(pendingCount()).append("\n");
+            sb.append("Doctors:\n");
+            for (Doctor d : doctors.values()) {
+                ReentrantLock lock = lockFor(d.id);
+                lock.lock();
+                try {
+                    sb.append(d).append("\n");
+                    sb.append("  NextSlot: ").append(d.findNextFreeSlot()).append("\n");
+                } finally { lock.unlock(); }
+            }
+            return sb.toString();
+        }
+    }
+
+    /* ----------------------------- Sharded (per-department) mode ----------------------------- */
+    /* One single-writer shard per specialization (or named group of specializations). Each shard
+     * owns a private HospitalSystemSingle (routine queue, triage heap, slots, undo log) that only
+     * its event-loop thread ever touches, so nothing inside needs a lock. Callers reach a shard
+     * through a lock-free MPSC mailbox; the router maps doctors and specializations to shards.
+     * Token ids are striped (shard i issues i+1, i+1+maxShards, ...) so they stay unique. */
+    public static class ShardedHospitalSystem implements AutoCloseable {
+        private static final int MIRROR_DESK = -1; // undo scope for replicated patient records
+        private static final int PUBLISH_EVERY = 256, IDLE_SPINS = 100;
+
+        // intrusive Vyukov MPSC node: producers swap the head in, the loop follows `next`
+        private static final class Command {
+            final Consumer<HospitalSystemSingle> action;
+            volatile Command next;
+            Command(Consumer<HospitalSystemSingle> action) { this.action = action; }
+        }
+
+        // published by a shard after every batch; reports read these and never the live structures
+        public static final class ShardStats {
+            public final String name;
+            public final int doctors, served, pending, routineDepth, triageDepth;
+            public final long processed, failed;
+            ShardStats(String name, HospitalSystemSingle hs, long processed, long failed) {
+                this.name = name; doctors = hs.doctors.size(); served = hs.servedCount; pending = hs.pendingCount;
+                routineDepth = hs.routineQueue.size(); triageDepth = hs.triage.size();
+                this.processed = processed; this.failed = failed;
+            }
+        }
+
+        public static final class Shard implements Runnable {
+            public final String name;
+            private final HospitalSystemSingle hs;
+            private final Thread thread;
+            private final AtomicReference<Command> head;
+            private Command tail; // consumer side: the last consumed node (stub)
+            private volatile boolean parked, running = true;
+            private volatile ShardStats stats;
+            private long processed, failed;
+            private final Map<Integer, Long> mirrored = new HashMap<>(); // patient id -> registry version installed (loop thread only)
+
+            Shard(String name, int index, int maxShards, int patientTableSize, int routineQueueCapacity) {
+                this.name = name;
+                hs = new HospitalSystemSingle(patientTableSize, routineQueueCapacity);
+                hs.tokenCounter.set(index + 1);
+                hs.tokenStride = maxShards;
+                tail = new Command(null);
+                head = new AtomicReference<>(tail);
+                stats = new ShardStats(name, hs, 0, 0);
+                thread = new Thread(this, "shard-" + name);
+                thread.setDaemon(true);
+            }
+            void submit(Command c) {
+                head.getAndSet(c).next = c;
+                if (parked) LockSupport.unpark(thread);
+            }
+            private Command poll() {
+                Command next = tail.next;
+                if (next != null) tail = next;
+                return next;
+            }
+            public void run() {
+                while (true) {
+                    Command c = poll();
+                    if (c == null) {
+                        stats = new ShardStats(name, hs, processed, failed);
+                        if (!running) break;
+                        for (int spin = 0; spin < IDLE_SPINS && tail.next == null; spin++) Thread.onSpinWait(); // cheaper than a park/unpark round trip under load
+                        if (tail.next != null) continue;
+                        parked = true; // re-check after announcing, so a concurrent submit either is seen or unparks us
+                        if (tail.next == null && running) LockSupport.park(this);
+                        parked = false;
+                        continue;
+                    }
+                    try { c.action.accept(hs); } catch (RuntimeException e) { failed++; }
+                    if (++processed % PUBLISH_EVERY == 0) stats = new ShardStats(name, hs, processed, failed);
+                }
+            }
+            public ShardStats stats() { return stats; }
+        }
+
+        private final int maxShards, patientTableSize, routineQueueCapacity;
+        private final Map<String, String> groupOf = new ConcurrentHashMap<>(); // specialization -> shard name
+        private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+        private final Map<Integer, Shard> shardOfDoctor = new ConcurrentHashMap<>();
+        private final Map<Integer, Registered> registry = new ConcurrentHashMap<>();
+        private final AtomicLong registryVersion = new AtomicLong();
+        private volatile boolean closed;
+        // a registry entry: a private copy of the record and the version that wrote it
+        private static final class Registered {
+            final Patient patient; final long version;
+            Registered(Patient patient, long version) { this.patient = patient; this.version = version; }
+        }
+
+        public ShardedHospitalSystem(int maxShards, int patientTableSize, int routineQueueCapacity) {
+            if (maxShards <= 0) throw new IllegalArgumentException("maxShards must be positive: " + maxShards);
+            this.maxShards = maxShards; this.patientTableSize = patientTableSize; this.routineQueueCapacity = routineQueueCapacity;
+        }
+
+        // serve several specializations from one shard; call before their first doctor is added
+        public void group(String shardName, String... specializations) {
+            for (String s : specializations) groupOf.put(s, shardName);
+        }
+        // a doctor without a specialization lands in the "" shard (the maps reject null keys)
+        private String shardName(String specialization) {
+            String spec = specialization == null ? "" : specialization;
+            return groupOf.getOrDefault(spec, spec);
+        }
+        public Shard shard(String specialization) { return shards.get(shardName(specialization)); }
+        private synchronized Shard shardFor(String specialization) {
+            if (closed) throw new IllegalStateException("Sharded system is closed");
+            String name = shardName(specialization);
+            Shard s = shards.get(name);
+            if (s != null) return s;
+            if (shards.size() == maxShards) throw new IllegalStateException("More than " + maxShards + " shards");
+            s = new Shard(name, shards.size(), maxShards, patientTableSize, routineQueueCapacity);
+            shards.put(name, s);
+            s.thread.start();
+            return s;
+        }
+
+        private <T> CompletableFuture<T> call(Shard s, java.util.function.Function<HospitalSystemSingle, T> action) {
+            CompletableFuture<T> reply = new CompletableFuture<>();
+            if (closed) { reply.completeExceptionally(new IllegalStateException("Sharded system is closed")); return reply; }
+            if (s == null) { reply.complete(null); return reply; }
+            s.submit(new Command(hs -> {
+                try { reply.complete(action.apply(hs)); }
+                catch (RuntimeException e) { reply.completeExceptionally(e); throw e; }
+            }));
+            return reply;
+        }
+
+        public void addDoctor(Doctor d) {
+            Shard s = shardFor(d.specialization);
+            shardOfDoctor.put(d.id, s);
+            s.submit(new Command(hs -> hs.addDoctor(d))); // the shard owns `d` from here on
+        }
+        /* Patients live in a shared, versioned registry; shards copy a record when they first triage
+         * it and are sent every later update (severity changes must re-sift their pending
+         * emergencies). A shard always installs the registry's current entry when the command runs,
+         * and only if it is newer than what it holds, so a delayed command never brings back a
+         * stale record. */
+        public void upsertPatient(Patient p) {
+            Registered r = new Registered(p.copy(), registryVersion.incrementAndGet());
+            registry.merge(p.id, r, (old, nu) -> nu.version > old.version ? nu : old);
+            for (Shard s : shards.values())
+                s.submit(new Command(hs -> { if (s.mirrored.containsKey(p.id)) mirror(s, p.id); }));
+        }
+        // on the shard's loop: bring its copy of the patient up to the registry's current version
+        private void mirror(Shard s, int patientId) {
+            Registered r = registry.get(patientId);
+            if (r == null) return;
+            Long have = s.mirrored.get(patientId);
+            if (have != null && have >= r.version) return;
+            s.hs.desk(MIRROR_DESK).upsertPatient(r.patient);
+            s.mirrored.put(patientId, r.version);
+        }
+        public Patient getPatient(int id) {
+            Registered r = registry.get(id);
+            return r == null ? null : r.patient.copy();
+        }
+
+        // routed by the doctor's shard; completes with the token, or null when no slot is free
+        public CompletableFuture<Token> bookRoutine(int patientId, int doctorId) {
+            return call(shardOfDoctor.get(doctorId), hs -> hs.book(0, patientId, doctorId));
+        }
+        // completes with null for an unknown patient or specialization
+        public CompletableFuture<Token> triageInsert(int patientId, String specialization) {
+            Shard s = registry.containsKey(patientId) ? shard(specialization) : null;
+            return call(s, hs -> {
+                mirror(s, patientId);
+                return hs.triage(0, patientId);
+            });
+        }
+        public CompletableFuture<Token> serveNext(String specialization) { return call(shard(specialization), HospitalSystemSingle::serveNext); }
+        public CompletableFuture<String> undo(String specialization) { return call(shard(specialization), HospitalSystemSingle::undo); }
+
+        // latest published stats per shard — never blocks or pauses a shard
+        public List<ShardStats> stats() {
+            List<ShardStats> out = new ArrayList<>();
+            for (Shard s : shards.values()) out.add(s.stats());
+            out.sort(Comparator.comparing(st -> st.name));
+            return out;
+        }
+        public String reportSummary() {
+            StringBuilder sb = new StringBuilder("=== SHARDED SUMMARY ===\n");
+            long served = 0, pending = 0, processed = 0;
+            for (ShardStats st : stats()) {
+                sb.append(String.format("%-12s doctors=%d served=%d pending=%d routine=%d triage=%d commands=%d failed=%d%n",
+                    st.name, st.doctors, st.served, st.pending, st.routineDepth, st.triageDepth, st.processed, st.failed));
+                served += st.served; pending += st.pending; processed += st.processed;
+            }
+            sb.append(String.format("Total: served=%d pending=%d commands=%d%n", served, pending, processed));
+            return sb.toString();
+        }
+
+        // stop accepting work, let every shard drain its mailbox, then join the loops (callers
+        // should have finished submitting; a command racing with close may be dropped)
+        public void close() {
+            synchronized (this) { closed = true; }
+            for (Shard s : shards.values()) { s.running = false; LockSupport.unpark(s.thread); }
+            try { for (Shard s : shards.values()) s.thread.join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+    }
+
+    /* ----------------------------- Metrics ----------------------------- */
+    /* Lock-free log-linear latency histogram (HDR-style): values below 16 get exact buckets, above
+     * that each power of two is split into 16 linear sub-buckets, so a reported percentile is
+     * within ~6% of the true value. Recording is a bucket index plus one atomic increment. */
+    public static class LatencyHistogram {
+        private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        static int bucket(long v) {
+            if (v < SUB) return (int) Math.max(0, v);
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            return (e - SUB_BITS + 1) * SUB + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+        }
+        // smallest value that lands in bucket b
+        static long lowerBound(int b) {
+            if (b < SUB) return b;
+            int e = b / SUB + SUB_BITS - 1;
+            return (long) (SUB + b % SUB) << (e - SUB_BITS);
+        }
+
+        public void record(long v) {
+            counts.getAndIncrement(bucket(v));
+            sum.add(v);
+            long m = max.get();
+            while (v > m && !max.compareAndSet(m, v)) m = max.get();
+        }
+        public long count() {
+            long n = 0;
+            for (int b = 0; b < counts.length(); b++) n += counts.get(b);
+            return n;
+        }
+        public long max() { return max.get(); }
+        public double mean() { long n = count(); return n == 0 ? 0 : sum.sum() / (double) n; }
+        // value at percentile p (0..100): upper edge of the bucket holding that rank, capped at max
+        public long percentile(double p) {
+            long n = count();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n)), seen = 0;
+            for (int b = 0; b < counts.length(); b++) {
+                seen += counts.get(b);
+                if (seen >= rank) return Math.min(max.get(), lowerBound(b + 1) - 1);
+            }
+            return max.get();
+        }
+        public void reset() {
+            for (int b = 0; b < counts.length(); b++) counts.set(b, 0);
+            sum.reset(); max.set(0);
+        }
+        public OpStats stats() {
+            return new OpStats(count(), mean(), percentile(50), percentile(99), percentile(99.9), max());
+        }
+    }
+
+    // one histogram summary, in microseconds (an MXBean composite type)
+    public static class OpStats {
+        private final long count;
+        private final double mean, p50, p99, p999, max;
+        OpStats(long count, double meanNanos, long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+            this.count = count; mean = meanNanos / 1e3; p50 = p50Nanos / 1e3;
+            p99 = p99Nanos / 1e3; p999 = p999Nanos / 1e3; max = maxNanos / 1e3;
+        }
+        public long getCount() { return count; }
+        public double getMeanMicros() { return mean; }
+        public double getP50Micros() { return p50; }
+        public double getP99Micros() { return p99; }
+        public double getP999Micros() { return p999; }
+        public double getMaxMicros() { return max; }
+    }
+
+    /* Always-on instrumentation for the single-desk system: a latency histogram per operation and
+     * token wait time (issue -> serve) per TokenType. A timed operation costs two System.nanoTime()
+     * calls and a histogram record (~100 ns on a VM clock), so by default only every 16th operation
+     * of each kind is timed; the rest pay a counter increment. Waits are recorded for every served
+     * token (each token is stamped at issue). setSampleEvery(1) times everything,
+     * setEnabled(false) turns it into a flag check. */
+    public static class Metrics {
+        public enum Op { REGISTER, BOOK, TRIAGE, SERVE, UNDO, REDO, TOP_K }
+        private final LatencyHistogram[] latency = new LatencyHistogram[Op.values().length];
+        private final LatencyHistogram[] wait = new LatencyHistogram[Token.TokenType.values().length];
+        private volatile boolean enabled = true;
+        private volatile int sampleMask = 15; // may be set over JMX
+        private final int[] ticks = new int[Op.values().length]; // per-op sample counters: the op mix cannot starve an op
+        private int maxRoutineDepth, maxTriageDepth; // high-water marks, written by the owning thread
+        private volatile boolean depthsReset; // reset() from another thread: the owner clears the marks
+
+        Metrics() {
+            for (int i = 0; i < latency.length; i++) latency[i] = new LatencyHistogram();
+            for (int i = 0; i < wait.length; i++) wait[i] = new LatencyHistogram();
+        }
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        // time one operation in every n (rounded up to a power of two)
+        public void setSampleEvery(int n) {
+            if (n <= 0) throw new IllegalArgumentException("Sample interval must be positive: " + n);
+            sampleMask = n == 1 ? 0 : (Integer.highestOneBit(n - 1) << 1) - 1;
+        }
+        public int sampleEvery() { return sampleMask + 1; }
+
+        // 0 = not timed (disabled or not sampled)
+        long start(Op op) { return enabled && (++ticks[op.ordinal()] & sampleMask) == 0 ? System.nanoTime() : 0L; }
+        void stop(Op op, long t0) { if (t0 != 0L) latency[op.ordinal()].record(System.nanoTime() - t0); }
+        // issue stamp of a new token, reusing the operation's start time when it was sampled
+        static long issued(long t0) { return t0 != 0L ? t0 : System.nanoTime(); }
+        // t0: start of the serve (0 if not sampled); tokens restored by a snapshot carry no issue time
+        void served(Token t, long t0) {
+            if (enabled && t.issuedAt != 0L) wait[t.type.ordinal()].record((t0 != 0L ? t0 : System.nanoTime()) - t.issuedAt);
+        }
+        void depths(int routine, int triage) {
+            if (depthsReset) { depthsReset = false; maxRoutineDepth = maxTriageDepth = 0; }
+            if (routine > maxRoutineDepth) maxRoutineDepth = routine;
+            if (triage > maxTriageDepth) maxTriageDepth = triage;
+        }
+        public LatencyHistogram latency(Op op) { return latency[op.ordinal()]; }
+        public LatencyHistogram waitTime(Token.TokenType type) { return wait[type.ordinal()]; }
+        public int maxRoutineDepth() { return depthsReset ? 0 : maxRoutineDepth; }
+        public int maxTriageDepth() { return depthsReset ? 0 : maxTriageDepth; }
+        // safe from any thread
+        public void reset() {
+            for (LatencyHistogram h : latency) h.reset();
+            for (LatencyHistogram h : wait) h.reset();
+            depthsReset = true;
+        }
+    }
+
+    /* JMX view (registered by registerMBean), called on JMX threads. Histograms are read directly
+     * (they are thread-safe); gauges and structural stats come from the latest published
+     * StateSnapshot, never from the live single-threaded structures. */
+    public interface HospitalMetricsMXBean {
+        boolean isEnabled();
+        void setEnabled(boolean enabled);
+        int getSampleEvery();
+        void setSampleEvery(int n);
+        int getRoutineQueueDepth();
+        int getTriageDepth();
+        int getMaxRoutineQueueDepth();
+        int getMaxTriageDepth();
+        int getServedCount();
+        int getPendingCount();
+        Map<String, OpStats> getOperationLatencies();
+        Map<String, OpStats> getTokenWaits();
+        Map<Integer, Double> getDoctorUtilization(); // doctor id -> booked fraction of slots
+        int getTriageHeapDepth();
+        double getHashMeanProbeLength();
+        int getHashMaxProbeLength();
+        String dump();
+        void reset();
+    }
+
+    /* ----------------------------- HospitalSystem (glue) ----------------------------- */
+    public static final int DEFAULT_UNDO_DEPTH = 1024;
+    private final Map<Integer, Doctor> doctors = new LinkedHashMap<>(); // registration order (reports, snapshots)
+    private final PatientStore patients;
+    private final CircularQueue routineQueue;
+    private final MinHeapTriage triage;
+    private final Map<Integer, UndoLog> undoLogs = new HashMap<>(); // per desk scope; desk 0 is the default
+    private final int undoDepth;
+    private final FrequencyTracker frequencies = new FrequencyTracker(1000);
+    private final Metrics metrics = new Metrics();
+    private final AtomicInteger tokenCounter = new AtomicInteger(1);
+    private int tokenStride = 1; // > 1 when shards share the token id space
+    private int servedCount = 0;
+    private int pendingCount = 0;
+    private Journal journal; // null unless opened via recover()
+    private Path dataDir;
+    private int snapshotEvery = 0, opsSinceSnapshot = 0;
+    private TimingWheel wheel; // null until enableSchedule(): no slot times, tokens queue at booking
+    private final Map<Integer, TimingWheel.Timer> timers = new HashMap<>(); // tokenId -> its pending timer
+    private final Map<Integer, Token> held = new HashMap<>(); // booked tokens whose slot has not opened yet
+    private int graceMinutes = -1, escalateAfterMinutes = 0, expiredCount = 0, escalatedCount = 0;
+    private PatientIndex index; // null until enableIndexes()
+    private final AvailabilityIndex availability = new AvailabilityIndex();
+    private volatile SnapshotFeed feed; // null until enableSnapshots()
+    private volatile boolean probeStatsWanted; // set by a metrics reader: recompute probe stats with the next change
+    private double probeMean; private int probeMax; // last computed probe stats (snapshots carry these)
+    private long version; // counts state changes
+    public HospitalSystemSingle(int patientTableSize, int routineQueueCapacity) {
+        this(patientTableSize, routineQueueCapacity, DEFAULT_UNDO_DEPTH);
+    }
+    public HospitalSystemSingle(int patientTableSize, int routineQueueCapacity, int undoDepth) {
+        this(new PatientHashTable(patientTableSize), routineQueueCapacity, undoDepth);
+    }
+    // e.g. a ColumnarPatientStore for registries of millions of patients
+    public HospitalSystemSingle(PatientStore patients, int routineQueueCapacity, int undoDepth) {
+        if (undoDepth <= 0) throw new IllegalArgumentException("Undo depth must be positive: " + undoDepth);
+        this.patients = patients;
+        routineQueue = new CircularQueue(routineQueueCapacity);
+        triage = new MinHeapTriage();
+        this.undoDepth = undoDepth;
+    }
+    private UndoLog undoLog(int desk) { return undoLogs.computeIfAbsent(desk, k -> new UndoLog(undoDepth)); }
+    // drop a desk's undo/redo history (e.g. its connection closed); the desk id may be reused afterwards
+    public void releaseDesk(int deskId) {
+        if (!undoLogs.containsKey(deskId)) return;
+        logged(j -> j.logReleaseDesk(deskId));
+        undoLogs.remove(deskId);
+        changed();
+    }
+    public int deskCount() { return undoLogs.size(); }
+
+    /* A desk with its own undo/redo scope, kept until release(); the plain methods act as desk 0 */
+    public final class DeskSession {
+        public final int deskId;
+        private DeskSession(int deskId) { this.deskId = deskId; }
+        public void upsertPatient(Patient p) { upsert(deskId, p); }
+        public boolean bookRoutine(int patientId, int doctorId) { return book(deskId, patientId, doctorId) != null; }
+        public boolean triageInsert(int patientId) { return triage(deskId, patientId) != null; }
+        public Token serveNext() { return serve(deskId); }
+        public boolean removePatient(int patientId) { return remove(deskId, patientId); }
+        public Token bookEarliest(int patientId, String specialization) { return HospitalSystemSingle.this.bookEarliest(deskId, patientId, specialization); }
+        public String undo() { return HospitalSystemSingle.this.undo(deskId); }
+        public String redo() { return HospitalSystemSingle.this.redo(deskId); }
+        public void release() { releaseDesk(deskId); }
+    }
+    public DeskSession desk(int deskId) { return new DeskSession(deskId); }
+
+    public void upsertPatient(Patient p) { upsert(0, p); }
+    private void upsert(int desk, Patient p) {
+        long t0 = metrics.start(Metrics.Op.REGISTER);
+        logged(j -> j.logUpsert(desk, p));
+        Patient replaced = patients.get(p.id);
+        Patient stored = p.copy(); // the registry owns its records: no caller keeps an alias to mutate
+        patients.upsert(stored);
+        if (index != null) index.put(stored);
+        triage.updatePriority(p.id, p.severity); // re-sift pending emergencies
+        undoLog(desk).pushRegister(stored, replaced);
+        done(Metrics.Op.REGISTER, t0);
+    }
+    // a copy: change a patient by upserting it again
+    public Patient getPatient(int id) {
+        Patient p = patients.get(id);
+        return p == null ? null : p.copy();
+    }
+
+    /* Delete a patient record (undoable). Pending tokens stay queued and are served as usual, but
+     * the patient's emergencies drop to the back of triage, as after undoing a registration. */
+    public boolean removePatient(int patientId) { return remove(0, patientId); }
+    private boolean remove(int desk, int patientId) {
+        Patient removed = patients.get(patientId);
+        if (removed == null) return false;
+        logged(j -> j.logRemove(desk, patientId));
+        patients.delete(patientId);
+        if (index != null) index.remove(patientId);
+        triage.updatePriority(patientId, Integer.MAX_VALUE);
+        undoLog(desk).pushRemove(patientId, removed);
+        changed();
+        return true;
+    }
+
+    /* Secondary indexes (see PatientIndex), built from the current registry and kept in sync by
+     * upsert, remove, undo and redo. Off by default: each indexed write updates three sorted sets. */
+    public void enableIndexes() {
+        if (index != null) return;
+        PatientIndex built = new PatientIndex();
+        patients.forEach(built::put);
+        index = built;
+    }
+    private PatientIndex index() {
+        if (index == null) throw new IllegalStateException("Patient indexes not enabled (call enableIndexes())");
+        return index;
+    }
+    // lazy lookups: each Patient is fetched from the store as the stream is consumed
+    public Stream<Patient> searchByName(String prefix) { return index().byNamePrefix(prefix).mapToObj(this::getPatient); }
+    public Stream<Patient> patientsByAge(int minAge, int maxAge) { return index().byAge(minAge, maxAge).mapToObj(this::getPatient); }
+    public Stream<Patient> patientsBySeverity(int minSeverity, int maxSeverity) {
+        return index().bySeverity(minSeverity, maxSeverity).mapToObj(this::getPatient);
+    }
+    // booked/triaged tokens not yet served — O(1)
+    public int pendingTokens(int patientId) { return (int) frequencies.pendingCount(patientId); }
+    public void addDoctor(Doctor d) {
+        logged(j -> {
+            j.logAddDoctor(d);
+            for (Slot s : d.getAllSlots()) j.logAddSlot(d.id, s, s.booked);
+        });
+        putDoctor(d);
+        changed();
+    }
+    private void putDoctor(Doctor d) {
+        Doctor old = doctors.put(d.id, d);
+        if (old != null && old != d) { old.listener = null; availability.remove(old); }
+        d.listener = this::doctorChanged;
+        doctorChanged(d);
+    }
+    // a doctor's schedule changed: re-rank it, and record its new summary for snapshots
+    private void doctorChanged(Doctor d) {
+        availability.update(d);
+        if (feed != null) feed.add(SnapshotFeed.DOCTOR, 0, 0, new DoctorSnapshot(d));
+    }
+    // add a slot to a registered doctor (journaled, unlike calling Doctor.addSlot directly)
+    public boolean addSlot(int doctorId, Slot s) {
+        Doctor d = doctors.get(doctorId);
+        if (d == null || d.getSlot(s.slotId) != null) return false;
+        logged(j -> j.logAddSlot(doctorId, s, s.booked));
+        d.addSlot(s);
+        changed();
+        return true;
+    }
+
+    /* Doctors of each specialization ordered by (first free slot start, booked slots, id): the head
+     * of a specialization's set holds the globally earliest free slot, and among equally early
+     * doctors the least booked one wins, which spreads load. With a schedule clock only slots at
+     * or after the clock count, so the head is always bookable. Doctor schedule changes (book,
+     * unbook by undo or no-show, add/cancel slot) re-rank the doctor in O(log k + log D); fully
+     * booked doctors drop out of the set. Moving the clock re-ranks just the doctors whose first
+     * free slot it passed, each step skipping at least one slot, so over a day that costs
+     * O(S log D) in total for S slots. */
+    private static final class AvailabilityIndex {
+        private static final class Rank {
+            final Doctor doctor; final int start, booked;
+            Rank(Doctor d, int start) { doctor = d; this.start = start; booked = d.slotCount() - d.pendingCount(); }
+        }
+        private static final Comparator<Rank> ORDER = (a, b) ->
+            a.start != b.start ? Integer.compare(a.start, b.start)
+            : a.booked != b.booked ? Integer.compare(a.booked, b.booked) : Integer.compare(a.doctor.id, b.doctor.id);
+        private final Map<String, TreeSet<Rank>> bySpecialization = new HashMap<>();
+        private final Map<Doctor, Rank> ranks = new IdentityHashMap<>();
+        private int clock = Integer.MIN_VALUE; // slots starting before this are past
+
+        void update(Doctor d) {
+            remove(d);
+            Slot next = d.findFreeSlotAtOrAfter(clock);
+            if (next == null) return;
+            Rank r = new Rank(d, next.startMinute);
+            ranks.put(d, r);
+            bySpecialization.computeIfAbsent(d.specialization, k -> new TreeSet<>(ORDER)).add(r);
+        }
+        void remove(Doctor d) {
+            Rank r = ranks.remove(d);
+            if (r != null) bySpecialization.get(d.specialization).remove(r);
+        }
+        // move the clock forward; doctors whose first free slot is now past are re-ranked
+        void advanceTo(int minute) {
+            if (minute <= clock) return;
+            clock = minute;
+            for (TreeSet<Rank> set : bySpecialization.values())
+                while (!set.isEmpty() && set.first().start < minute) update(set.first().doctor);
+        }
+        // best doctor with a free slot at or after the clock — O(log D); null if nobody has one
+        Doctor earliest(String specialization) {
+            TreeSet<Rank> set = bySpecialization.get(specialization);
+            return set == null || set.isEmpty() ? null : set.first().doctor;
+        }
+    }
+
+    /* Book the earliest free slot of any doctor with this specialization — O(log D) to pick the
+     * doctor (ties go to the least booked; past slots are already skipped by the index) plus the
+     * usual O(log k) booking. Null if the
+     * specialization has no free slot. Journaled and undone as an ordinary booking with the
+     * chosen doctor. */
+    public Token bookEarliest(int patientId, String specialization) { return bookEarliest(0, patientId, specialization); }
+    private Token bookEarliest(int desk, int patientId, String specialization) {
+        Doctor d = availability.earliest(specialization);
+        return d == null ? null : book(desk, patientId, d.id);
+    }
+    // one earliest-slot booking per patient, in order; a null entry means that patient got no slot
+    public List<Token> bookEarliestBatch(List<Integer> patientIds, String specialization) {
+        List<Token> out = new ArrayList<>(patientIds.size());
+        for (int pid : patientIds) out.add(bookEarliest(0, pid, specialization));
+        return out;
+    }
+
+    /* Booking routine appointment: find next free slot and enqueue token */
+    public boolean bookRoutine(int patientId, int doctorId) { return book(0, patientId, doctorId) != null; }
+    private Token book(int desk, int patientId, int doctorId) {
+        long t0 = metrics.start(Metrics.Op.BOOK);
+        try {
+            Doctor doc = doctors.get(doctorId);
+            if (doc == null) return null;
+            Slot s = wheel == null ? doc.findNextFreeSlot() : doc.findFreeSlotAtOrAfter((int) Math.min(wheel.now(), Integer.MAX_VALUE));
+            if (s == null) return null;
+            logged(j -> j.logBook(desk, patientId, doctorId));
+            boolean ok = doc.bookSlot(s.slotId);
+            if (!ok) return null;
+            Token t = new Token(tokenCounter.getAndAdd(tokenStride), patientId, doctorId, s.slotId, Token.TokenType.ROUTINE);
+            t.issuedAt = Metrics.issued(t0);
+            admitRoutine(t, s.startMinute);
+            frequencies.onArrival(patientId);
+            pendingCount++;
+            undoLog(desk).pushToken(UndoLog.ActionType.BOOK, t);
+            metrics.depths(routineQueue.size(), triage.size());
+            return t;
+        } finally { done(Metrics.Op.BOOK, t0); }
+    }
+    /* Emergency triage insertion: false if the patient is not registered */
+    public boolean triageInsert(int patientId) { return triage(0, patientId) != null; }
+    private Token triage(int desk, int patientId) {
+        long t0 = metrics.start(Metrics.Op.TRIAGE);
+        try {
+            Patient p = patients.get(patientId);
+            if (p == null) return null;
+            logged(j -> j.logTriage(desk, patientId));
+            Token t = new Token(tokenCounter.getAndAdd(tokenStride), patientId, -1, -1, Token.TokenType.EMERGENCY);
+            t.issuedAt = Metrics.issued(t0);
+            admitEmergency(t, p.severity);
+            frequencies.onArrival(patientId);
+            pendingCount++;
+            undoLog(desk).pushToken(UndoLog.ActionType.TRIAGE, t);
+            metrics.depths(routineQueue.size(), triage.size());
+            return t;
+        } finally { done(Metrics.Op.TRIAGE, t0); }
+    }
+
+    /* Serve next: emergency (triage) has priority over routine */
+    public Token serveNext() { return serve(0); }
+    private Token serve(int desk) {
+        long t0 = metrics.start(Metrics.Op.SERVE);
+        try {
+            if (triage.isEmpty() && routineQueue.isEmpty()) return null;
+            logged(j -> j.logServe(desk));
+            int key = triage.peekSeverity(); // escalations included
+            Token next = !triage.isEmpty() ? triage.extractMin() : routineQueue.dequeue();
+            if (next == null) return null;
+            disarm(next.tokenId);
+            metrics.served(next, t0);
+            frequencies.onServed(next.patientId);
+            servedCount++; pendingCount = Math.max(0, pendingCount - 1);
+            undoLog(desk).pushServe(next, key);
+            return next;
+        } finally { done(Metrics.Op.SERVE, t0); }
+    }
+    // triage key for a patient; unknown patients sort last
+    private int severityOf(int patientId) {
+        Patient p = patients.get(patientId);
+        return p == null ? Integer.MAX_VALUE : p.severity;
+    }
+    /* Undo: best-effort reversals (a token served meanwhile cannot be; its record is dropped) */
+    public String undo() { return undo(0); }
+    private String undo(int desk) {
+        long t0 = metrics.start(Metrics.Op.UNDO);
+        try { return undoLast(desk); } finally { done(Metrics.Op.UNDO, t0); }
+    }
+    private String undoLast(int desk) {
+        UndoLog log = undoLogs.get(desk);
+        int i = log == null ? -1 : log.lastDone();
+        if (i < 0) return "Nothing to undo";
+        logged(j -> j.logUndo(desk));
+        int tokenId = log.tokenId(i), pid = log.patientId(i);
+        switch (log.type(i)) {
+            case BOOK: {
+                if (held.remove(tokenId) == null && !routineQueue.remove(tokenId)) { log.dropLastDone(); return "Cannot undo booking " + tokenId + " (no longer pending)"; }
+                disarm(tokenId);
+                Doctor d = doctors.get(log.doctorId(i));
+                if (d != null) d.unbookSlot(log.slotId(i));
+                frequencies.onArrivalUndone(pid);
+                pendingCount = Math.max(0, pendingCount - 1);
+                log.undone();
+                return "Undid booking " + tokenId;
+            }
+            case TRIAGE: {
+                if (!triage.remove(tokenId)) { log.dropLastDone(); return "Cannot undo triage " + tokenId + " (already served)"; }
+                disarm(tokenId);
+                frequencies.onArrivalUndone(pid);
+                pendingCount = Math.max(0, pendingCount - 1);
+                log.undone();
+                return "Undid triage " + tokenId;
+            }
+            case SERVE: {
+                Token served = log.token(i);
+                if (served.type == Token.TokenType.ROUTINE) {
+                    routineQueue.pushFront(served);
+                    // back in the queue: the no-show deadline of its slot applies again (fires at the next tick if past)
+                    Doctor d = doctors.get(served.doctorId);
+                    Slot slot = d == null ? null : d.getSlot(served.slotId);
+                    if (wheel != null && graceMinutes >= 0 && slot != null) arm(TimingWheel.EXPIRE, tokenId, slot.startMinute + graceMinutes);
+                } else admitEmergency(served, log.severity(i)); // the escalated key, and escalation resumes
+                frequencies.onServeUndone(pid);
+                servedCount = Math.max(0, servedCount - 1);
+                pendingCount++;
+                log.undone();
+                return "Undid serve " + tokenId;
+            }
+            case REGISTER: {
+                Patient replaced = log.previous(i);
+                if (replaced != null) { patients.upsert(replaced); triage.updatePriority(pid, replaced.severity); }
+                else { patients.delete(pid); triage.updatePriority(pid, Integer.MAX_VALUE); }
+                if (index != null) { if (replaced != null) index.put(replaced); else index.remove(pid); }
+                log.undone();
+                return (log.patient(i) == null ? "Undid patient removal " : "Undid patient register ") + pid;
+            }
+            default: return "Unknown action to undo";
+        }}
+    /* Redo: re-apply the last undone action with the same token id; clears the redo tail if it cannot */
+    public String redo() { return redo(0); }
+    private String redo(int desk) {
+        long t0 = metrics.start(Metrics.Op.REDO);
+        try { return redoNext(desk); } finally { done(Metrics.Op.REDO, t0); }
+    }
+    private String redoNext(int desk) {
+        UndoLog log = undoLogs.get(desk);
+        int i = log == null ? -1 : log.nextRedo();
+        if (i < 0) return "Nothing to redo";
+        logged(j -> j.logRedo(desk));
+        int tokenId = log.tokenId(i), pid = log.patientId(i);
+        switch (log.type(i)) {
+            case BOOK: {
+                Doctor d = doctors.get(log.doctorId(i));
+                if (d == null || !d.bookSlot(log.slotId(i))) { log.clearRedo(); return "Cannot redo booking " + tokenId + " (slot taken)"; }
+                admitRoutine(log.token(i), d.getSlot(log.slotId(i)).startMinute);
+                frequencies.onArrival(pid);
+                pendingCount++;
+                log.redone();
+                return "Redid booking " + tokenId;
+            }
+            case TRIAGE: {
+                if (patients.get(pid) == null) { log.clearRedo(); return "Cannot redo triage " + tokenId + " (patient removed)"; }
+                admitEmergency(log.token(i), severityOf(pid));
+                frequencies.onArrival(pid);
+                pendingCount++;
+                log.redone();
+                return "Redid triage " + tokenId;
+            }
+            case SERVE: {
+                Integer key = triage.severityOf(tokenId);
+                if (key != null) log.setSeverity(i, key); // it may have escalated again since the undo
+                boolean removed = log.doctorId(i) < 0 ? triage.remove(tokenId) : routineQueue.remove(tokenId);
+                if (!removed) { log.clearRedo(); return "Cannot redo serve " + tokenId + " (no longer pending)"; }
+                disarm(tokenId);
+                frequencies.onServed(pid);
+                servedCount++; pendingCount = Math.max(0, pendingCount - 1);
+                log.redone();
+                return "Redid serve " + tokenId;
+            }
+            case REGISTER: {
+                Patient p = log.patient(i);
+                if (p == null) { // a removal
+                    patients.delete(pid); triage.updatePriority(pid, Integer.MAX_VALUE);
+                    if (index != null) index.remove(pid);
+                    log.redone();
+                    return "Redid patient removal " + pid;
+                }
+                patients.upsert(p);
+                triage.updatePriority(pid, p.severity);
+                if (index != null) index.put(p);
+                log.redone();
+                return "Redid patient register " + pid;
+            }
+            default: return "Unknown action to redo";
+        }}
+
+    /* Scheduling on a simulated minute clock (see TimingWheel). Once enabled, a booked token is
+     * held until its slot opens; a released token not served within graceMinutes is a no-show
+     * (slot freed, token dropped); an emergency waiting escalateAfterMinutes gets its severity
+     * lowered by one, repeatedly, down to 0. graceMinutes < 0 / escalateAfterMinutes <= 0 disable
+     * those. Slot times are minutes of one day. */
+    public void enableSchedule(int startMinute, int graceMinutes, int escalateAfterMinutes) {
+        if (wheel != null) throw new IllegalStateException("Schedule already enabled");
+        logged(j -> j.logSchedule(startMinute, graceMinutes, escalateAfterMinutes));
+        wheel = new TimingWheel(startMinute);
+        availability.advanceTo(startMinute);
+        this.graceMinutes = graceMinutes; this.escalateAfterMinutes = escalateAfterMinutes;
+        changed(); // snapshots gain the clock line
+    }
+    public long clock() { return wheel == null ? -1 : wheel.now(); }
+    public void advanceClock(int minutes) { if (wheel != null) advanceTo(wheel.now() + minutes); }
+    // fire every timer due up to `minute` — O(1) per timer and per elapsed minute
+    public void advanceTo(long minute) {
+        if (wheel == null || minute <= wheel.now()) return;
+        logged(j -> j.logAdvance(minute));
+        wheel.advanceTo(minute, this::onTimer);
+        availability.advanceTo((int) Math.min(minute, Integer.MAX_VALUE));
+        changed();
+    }
+    public int heldCount() { return held.size(); }
+    public int expiredCount() { return expiredCount; }
+    public int escalatedCount() { return escalatedCount; }
+
+    private void arm(int kind, int tokenId, long deadline) { timers.put(tokenId, wheel.schedule(kind, tokenId, deadline)); }
+    private void disarm(int tokenId) {
+        TimingWheel.Timer t = timers.remove(tokenId);
+        if (t != null) wheel.cancel(t);
+    }
+    // a new routine token: queued now, or held until its slot opens
+    private void admitRoutine(Token t, int slotStart) {
+        if (wheel == null) { routineQueue.enqueue(t); return; } // grows on demand
+        if (slotStart > wheel.now()) { held.put(t.tokenId, t); arm(TimingWheel.RELEASE, t.tokenId, slotStart); }
+        else release(t, slotStart);
+    }
+    private void release(Token t, long slotStart) {
+        routineQueue.enqueue(t);
+        if (graceMinutes >= 0) arm(TimingWheel.EXPIRE, t.tokenId, slotStart + graceMinutes);
+    }
+    private void admitEmergency(Token t, int severity) {
+        triage.insert(t, severity);
+        if (wheel != null && escalateAfterMinutes > 0 && severity > 0) arm(TimingWheel.ESCALATE, t.tokenId, wheel.now() + escalateAfterMinutes);
+    }
+    private void onTimer(TimingWheel.Timer timer) {
+        timers.remove(timer.tokenId);
+        switch (timer.kind) {
+            case TimingWheel.RELEASE: {
+                Token t = held.remove(timer.tokenId);
+                if (t != null) release(t, timer.deadline);
+                break;
+            }
+            case TimingWheel.EXPIRE: { // no-show: free the slot and drop the token
+                Token t = routineQueue.find(timer.tokenId);
+                if (t == null || !routineQueue.remove(t.tokenId)) break;
+                Doctor d = doctors.get(t.doctorId);
+                if (d != null) d.unbookSlot(t.slotId);
+                frequencies.onExpired(t.patientId);
+                pendingCount = Math.max(0, pendingCount - 1);
+                expiredCount++;
+                break;
+            }
+            case TimingWheel.ESCALATE: {
+                Integer severity = triage.severityOf(timer.tokenId);
+                if (severity == null || severity <= 0) break;
+                triage.changeKey(timer.tokenId, severity - 1);
+                escalatedCount++;
+                if (severity - 1 > 0) arm(TimingWheel.ESCALATE, timer.tokenId, wheel.now() + escalateAfterMinutes);
+                break;
+            }
+            default: throw new IllegalStateException("Unknown timer kind " + timer.kind);
+        }
+    }
 
-        public Doctor(int id, String name, String specialization) {
-            this.id = id; this.name = name; this.specialization = specialization; head = null; tail = null;
+    /* Reports */
+    public String reportSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== SUMMARY ===\n");
+        sb.append("Served: ").append(servedCount).append("\n");
+        sb.append("Pending: ").append(pendingCount).append("\n");
+        if (wheel != null)
+            sb.append(String.format("Clock: %02d:%02d, held until slot: %d, no-shows expired: %d, escalations: %d%n",
+                wheel.now() / 60 % 24, wheel.now() % 60, held.size(), expiredCount, escalatedCount));
+        sb.append("Doctors:\n");
+        for (Doctor d : doctors.values()) {
+            sb.append(d).append("\n");
+            sb.append("  NextSlot: ").append(d.findNextFreeSlot()).append("\n");
+            sb.append("  PendingSlots: ").append(d.pendingCount()).append("\n");
         }
-        // add slot at tail — O(1) thanks to tail
-        public void addSlot(Slot s) {
-            SlotNode node = new SlotNode(s);
-            if (head == null) { head = tail = node; }
-            else { tail.next = node; tail = node; }
-            slotCount++;
+        return sb.toString();
+    }
+
+    /* Read-only snapshots for dashboards: the writer records deltas in a SnapshotFeed, readers replay them onto a replica */
+    public static final int SNAPSHOT_TOP_K = 10;
+    public static final long FEED_DRAIN_MILLIS = 100; // flusher period at interval 0, bounds the feed's backlog
+    public static final class DoctorSnapshot {
+        public final int id, slotCount, freeSlots, nextSlotId; // nextSlotId -1 = fully booked
+        public final String name, specialization, nextSlotStart, nextSlotEnd;
+        private DoctorSnapshot(Doctor d) {
+            id = d.id; name = d.name; specialization = d.specialization;
+            slotCount = d.slotCount(); freeSlots = d.pendingCount();
+            Slot next = d.findNextFreeSlot();
+            nextSlotId = next == null ? -1 : next.slotId;
+            nextSlotStart = next == null ? null : next.startTime; nextSlotEnd = next == null ? null : next.endTime;
         }
-        // cancel (remove) a slot by slotId — O(k) worst-case
-        public boolean cancelSlot(int slotId) {
-            SlotNode cur = head, prev = null;
-            while (cur != null) {
-                if (cur.slot.slotId == slotId) {
-                    if (prev == null) head = cur.next;
-                    else prev.next = cur.next;
-                    if (cur == tail) tail = prev;
-                    slotCount--;
-                    return true;
-                }
-                prev = cur; cur = cur.next;
+    }
+    // scalar state as of one change, captured by the writer
+    private static final class Counters {
+        final long version, clock;
+        final int served, pending, held, expired, escalated, maxRoutineDepth, maxTriageDepth, patientCount, patientCapacity, probeMax;
+        final double probeMean;
+        Counters(HospitalSystemSingle hs) {
+            version = hs.version; clock = hs.clock();
+            served = hs.servedCount; pending = hs.pendingCount; held = hs.held.size();
+            expired = hs.expiredCount; escalated = hs.escalatedCount;
+            maxRoutineDepth = hs.metrics.maxRoutineDepth(); maxTriageDepth = hs.metrics.maxTriageDepth();
+            patientCount = hs.patients.size(); patientCapacity = hs.patients.capacity();
+            probeMean = hs.probeMean; probeMax = hs.probeMax;
+        }
+    }
+    public static final class StateSnapshot {
+        public final long version, publishedAt; // publishedAt: System.nanoTime()
+        public final int served, pending, held, expired, escalated;
+        public final long clock; // -1 when no schedule
+        public final List<Token> routine; // queue order
+        private final Token[] triageTokens; private final int[] triageSeverities; // heap order
+        private volatile List<Token> emergencies; // sorted on first read, by the reader
+        public final List<DoctorSnapshot> doctors;
+        public final List<Integer> topPending, topRecent; // SNAPSHOT_TOP_K patient ids each
+        public final int maxRoutineDepth, maxTriageDepth, patientCount, patientCapacity;
+        // probe-length stats cost O(capacity): recomputed only when asked for (see probeStatsWanted)
+        public final double probeMean; public final int probeMax;
+        // copies the given structures: the feed's replica, or (metricsReport) the live ones on the writer
+        private StateSnapshot(Counters c, CircularQueue routineQueue, MinHeapTriage triage, FrequencyTracker frequencies,
+                              Collection<DoctorSnapshot> doctors, long publishedAt) {
+            version = c.version; this.publishedAt = publishedAt;
+            served = c.served; pending = c.pending; held = c.held;
+            expired = c.expired; escalated = c.escalated; clock = c.clock;
+            routine = Collections.unmodifiableList(routineQueue.tokens());
+            triageTokens = new Token[triage.size()]; triageSeverities = new int[triageTokens.length];
+            triage.copyTo(triageTokens, triageSeverities);
+            this.doctors = Collections.unmodifiableList(new ArrayList<>(doctors));
+            topPending = Collections.unmodifiableList(frequencies.topPending(SNAPSHOT_TOP_K));
+            topRecent = Collections.unmodifiableList(frequencies.topRecent(SNAPSHOT_TOP_K));
+            maxRoutineDepth = c.maxRoutineDepth; maxTriageDepth = c.maxTriageDepth;
+            patientCount = c.patientCount; patientCapacity = c.patientCapacity;
+            probeMean = c.probeMean; probeMax = c.probeMax;
+        }
+        public int triageHeapDepth() { return 32 - Integer.numberOfLeadingZeros(triageTokens.length); }
+        // pending emergencies in serving order — O(n log n) on the first call, then cached
+        public List<Token> emergencies() {
+            List<Token> e = emergencies;
+            if (e == null) emergencies = e = Collections.unmodifiableList(MinHeapTriage.sortByPriority(triageTokens, triageSeverities));
+            return e;
+        }
+        // same layout as reportSummary(), built from this snapshot only
+        public String report() {
+            StringBuilder sb = new StringBuilder("=== SUMMARY (v").append(version).append(") ===\n");
+            sb.append("Served: ").append(served).append("\n");
+            sb.append("Pending: ").append(pending).append("\n");
+            if (clock >= 0)
+                sb.append(String.format("Clock: %02d:%02d, held until slot: %d, no-shows expired: %d, escalations: %d%n",
+                    clock / 60 % 24, clock % 60, held, expired, escalated));
+            sb.append("Doctors:\n");
+            for (DoctorSnapshot d : doctors) {
+                sb.append(String.format("Doctor[id=%d,name=%s,spec=%s,pendingSlots=%d]%n", d.id, d.name, d.specialization, d.freeSlots));
+                sb.append("  NextSlot: ").append(d.nextSlotId < 0 ? "null"
+                    : String.format("Slot[id=%d,%s-%s,booked=false]", d.nextSlotId, d.nextSlotStart, d.nextSlotEnd)).append("\n");
+                sb.append("  PendingSlots: ").append(d.freeSlots).append("\n");
             }
-            return false;
+            return sb.toString();
         }
+    }
 
-        // find next free slot — O(k)
-        public Slot findNextFreeSlot() {
-            SlotNode cur = head;
-            while (cur != null) {
-                if (!cur.slot.booked) return cur.slot;
-                cur = cur.next;
-            }
-            return null;
+    /* ----------------------------- Snapshot Feed ----------------------------- */
+    /* Single-producer log of (op, int, int, ref) records in linked chunks, replayed under the feed's lock */
+    static final class SnapshotFeed {
+        static final byte ENQUEUE = 1, PUSH_FRONT = 2, DEQUEUE = 3, CANCEL = 4,                    // routine queue
+                          TRIAGE = 5, EXTRACT = 6, TRIAGE_CANCEL = 7, PRIORITY = 8, CHANGE_KEY = 9,   // triage heap
+                          ARRIVAL = 10, ARRIVAL_UNDONE = 11, SERVED = 12, EXPIRED = 13, SERVE_UNDONE = 14, // frequencies
+                          DOCTOR = 15, COMMIT = 16;
+        private static final int CHUNK = 1024;
+        private static final class Chunk {
+            final byte[] ops = new byte[CHUNK]; final int[] a = new int[CHUNK], b = new int[CHUNK];
+            final Object[] refs = new Object[CHUNK];
+            Chunk next;
         }
+        private static final PeriodicFlusher FLUSHER = new PeriodicFlusher("snapshot-flusher"); // drains every system's feed
+        // writer side
+        private Chunk tail = new Chunk();
+        private int tailIdx;
+        private long appended;
+        private final AtomicLong committed = new AtomicLong(); // records the reading side may replay
+        // reading side, guarded by this
+        private Chunk head = tail;
+        private int headIdx;
+        private long replayed;
+        private final CircularQueue routine = new CircularQueue(1024);
+        private final MinHeapTriage triage = new MinHeapTriage();
+        private final FrequencyTracker frequencies;
+        private final Map<Integer, DoctorSnapshot> doctors = new LinkedHashMap<>(); // the system's registration order
+        private Counters counters;
+        private volatile StateSnapshot latest;
+        private volatile boolean onDemand; // interval 0: snapshot() catches up itself
+        private ScheduledFuture<?> drain;
 
-        // mark slot as booked by slotId
-        public boolean bookSlot(int slotId) {
-            SlotNode cur = head;
-            while (cur != null) {
-                if (cur.slot.slotId == slotId && !cur.slot.booked) {
-                    cur.slot.booked = true; return true;
+        SnapshotFeed(HospitalSystemSingle hs) {
+            for (Token t : hs.routineQueue.tokens()) routine.enqueue(t);
+            hs.triage.forEachEntry(triage::insert);
+            frequencies = new FrequencyTracker(hs.frequencies.windowLength());
+            try { // through the snapshot encoding, which keeps tie order
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                hs.frequencies.writeTo(new DataOutputStream(bytes));
+                frequencies.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            frequencies.useBoundedHistory(1); // all-time history is not part of a snapshot
+            for (Doctor d : hs.doctors.values()) doctors.put(d.id, new DoctorSnapshot(d));
+            counters = new Counters(hs);
+        }
+
+        void add(byte op, int a, int b, Object ref) {
+            if (tailIdx == CHUNK) { Chunk c = new Chunk(); tail.next = c; tail = c; tailIdx = 0; }
+            tail.ops[tailIdx] = op; tail.a[tailIdx] = a; tail.b[tailIdx] = b; tail.refs[tailIdx] = ref;
+            tailIdx++; appended++;
+        }
+        // end of a change: make everything recorded so far visible (a release store, no fence)
+        void commit(Counters c) { add(COMMIT, 0, 0, c); committed.lazySet(appended); }
+
+        // replay what the writer committed and publish a snapshot of it — O(new records + pending)
+        synchronized StateSnapshot catchUp() {
+            long end = committed.get();
+            StateSnapshot s = latest;
+            if (s != null && replayed == end) return s;
+            for (; replayed < end; replayed++) {
+                if (headIdx == CHUNK) { head = head.next; headIdx = 0; }
+                int i = headIdx++, a = head.a[i], b = head.b[i];
+                Object ref = head.refs[i];
+                switch (head.ops[i]) {
+                    case ENQUEUE: routine.enqueue((Token) ref); break;
+                    case PUSH_FRONT: routine.pushFront((Token) ref); break;
+                    case DEQUEUE: routine.dequeue(); break;
+                    case CANCEL: routine.remove(a); break;
+                    case TRIAGE: triage.insert((Token) ref, a); break;
+                    case EXTRACT: triage.extractMin(); break;
+                    case TRIAGE_CANCEL: triage.remove(a); break;
+                    case PRIORITY: triage.updatePriority(a, b); break;
+                    case CHANGE_KEY: triage.changeKey(a, b); break;
+                    case ARRIVAL: frequencies.onArrival(a); break;
+                    case ARRIVAL_UNDONE: frequencies.onArrivalUndone(a); break;
+                    case SERVED: frequencies.onServed(a); break;
+                    case EXPIRED: frequencies.onExpired(a); break;
+                    case SERVE_UNDONE: frequencies.onServeUndone(a); break;
+                    case DOCTOR: { DoctorSnapshot d = (DoctorSnapshot) ref; doctors.put(d.id, d); break; }
+                    case COMMIT: counters = (Counters) ref; break;
+                    default: throw new IllegalStateException("Unknown feed record " + head.ops[i]);
                 }
-                cur = cur.next;
             }
-            return false;
+            return latest = new StateSnapshot(counters, routine, triage, frequencies, doctors.values(), System.nanoTime());
         }
+        StateSnapshot snapshot() { return onDemand ? catchUp() : latest; }
 
-        public List<Slot> getAllSlots() {
-            List<Slot> out = new ArrayList<>();
-            SlotNode cur = head;
-            while (cur != null) { out.add(cur.slot); cur = cur.next; }
-            return out;
+        // (re)start the flusher: every interval, or FEED_DRAIN_MILLIS at interval 0
+        synchronized void schedule(long intervalMillis) {
+            if (drain != null) drain.cancel(false);
+            onDemand = intervalMillis == 0;
+            drain = FLUSHER.every(intervalMillis > 0 ? intervalMillis : FEED_DRAIN_MILLIS, this, f -> { f.catchUp(); return true; });
+        }
+    }
+
+    // start publishing: a snapshot at most one interval old (0 = current on every snapshot() call)
+    public void enableSnapshots(long intervalMillis) {
+        if (intervalMillis < 0) throw new IllegalArgumentException("Snapshot interval must be >= 0: " + intervalMillis);
+        SnapshotFeed f = feed;
+        if (f == null) {
+            refreshProbeStats();
+            f = new SnapshotFeed(this);
+            routineQueue.feed = f; triage.feed = f; frequencies.feed = f;
+            feed = f;
         }
+        f.schedule(intervalMillis);
+        f.catchUp();
+    }
+    // the latest published view (null before enableSnapshots) — safe from any thread
+    public StateSnapshot snapshot() { SnapshotFeed f = feed; return f == null ? null : f.snapshot(); }
+    // publish everything changed so far right away, replaying it on the calling thread
+    public void flushSnapshot() { SnapshotFeed f = feed; if (f != null) f.catchUp(); }
+    private void refreshProbeStats() {
+        probeStatsWanted = false;
+        int[] h = patients.probeLengthHistogram();
+        long entries = 0, total = 0;
+        for (int k = 0; k < h.length; k++) { entries += h[k]; total += (long) h[k] * (k + 1); }
+        probeMean = entries == 0 ? 0 : total / (double) entries; probeMax = h.length;
+    }
+    private void changed() {
+        version++;
+        if (feed == null) return;
+        if (probeStatsWanted) refreshProbeStats();
+        feed.commit(new Counters(this));
+    }
+    private void done(Metrics.Op op, long t0) { metrics.stop(op, t0); changed(); }
 
-        public int pendingCount() {
-            int c = 0; SlotNode cur = head;
-            while (cur != null) { if (!cur.slot.booked) c++; cur = cur.next; }
-            return c;
+    // patients with the most pending tokens — O(K), counts maintained incrementally
+    public List<Integer> topKFrequentPatients(int K) {
+        long t0 = metrics.start(Metrics.Op.TOP_K);
+        List<Integer> top = frequencies.topPending(K);
+        metrics.stop(Metrics.Op.TOP_K, t0);
+        return top;
+    }
+    // most frequent patients among the last `frequencyWindow` arrivals
+    public List<Integer> topKRecentPatients(int K) { return frequencies.topRecent(K); }
+    // all-time arrivals (exact, or Space-Saving estimates after useBoundedHistory)
+    public List<Integer> topKHistoricalPatients(int K) { return frequencies.topHistorical(K); }
+    public void useBoundedHistory(int counters) { frequencies.useBoundedHistory(counters); }
+
+    /* Metrics: per-op latency, token waits, queue gauges and structural stats */
+    public Metrics metrics() { return metrics; }
+    public int[] patientProbeLengths() { return patients.probeLengthHistogram(); }
+    public double doctorUtilization(int doctorId) {
+        Doctor d = doctors.get(doctorId);
+        if (d == null || d.slotCount() == 0) return 0;
+        return (d.slotCount() - d.pendingCount()) / (double) d.slotCount();
+    }
+    // plain-text dump for the CLI (writer thread: reads a fresh copy of the state)
+    public String metricsReport() {
+        refreshProbeStats();
+        List<DoctorSnapshot> ds = new ArrayList<>(doctors.size());
+        for (Doctor d : doctors.values()) ds.add(new DoctorSnapshot(d));
+        return metricsReport(new StateSnapshot(new Counters(this), routineQueue, triage, frequencies, ds, System.nanoTime()));
+    }
+    // HospitalMetricsMXBean.dump() and any other thread: from the latest published snapshot
+    private String metricsReport(StateSnapshot snap) {
+        StringBuilder sb = new StringBuilder("=== METRICS ===\n");
+        sb.append("Sampling: 1 in ").append(metrics.sampleEvery()).append(" operations timed\n");
+        sb.append(String.format("%-22s %9s %9s %9s %9s %9s %9s%n", "Latency (us)", "count", "mean", "p50", "p99", "p99.9", "max"));
+        for (Metrics.Op op : Metrics.Op.values()) appendStats(sb, op.name().toLowerCase(), metrics.latency(op).stats(), 1);
+        sb.append("Token wait (ms)\n");
+        for (Token.TokenType type : Token.TokenType.values()) appendStats(sb, type.name().toLowerCase(), metrics.waitTime(type).stats(), 1e3);
+        sb.append(String.format("Queue depth: routine=%d (max %d), triage=%d (max %d); triage heap depth %d%n",
+            snap.routine.size(), snap.maxRoutineDepth, snap.triageTokens.length, snap.maxTriageDepth, snap.triageHeapDepth()));
+        sb.append(String.format("Patient table: %d entries / %d slots, probe length mean %.2f, max %d%n",
+            snap.patientCount, snap.patientCapacity, snap.probeMean, snap.probeMax));
+        sb.append("Doctor utilization:\n");
+        for (DoctorSnapshot d : snap.doctors) {
+            int booked = d.slotCount - d.freeSlots;
+            sb.append(String.format("  %s (%d): %d/%d slots booked (%.0f%%)%n", d.name, d.id, booked, d.slotCount,
+                d.slotCount == 0 ? 0 : 100.0 * booked / d.slotCount));
         }
+        return sb.toString();
+    }
+    private static void appendStats(StringBuilder sb, String name, OpStats s, double scale) {
+        sb.append(String.format("  %-20s %9d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, s.getCount(), s.getMeanMicros() / scale,
+            s.getP50Micros() / scale, s.getP99Micros() / scale, s.getP999Micros() / scale, s.getMaxMicros() / scale));
+    }
 
-        public String toString() {
-            return String.format("Doctor[id=%d,name=%s,spec=%s,pendingSlots=%d]", id, name, specialization, pendingCount());
+    private final class MetricsView implements HospitalMetricsMXBean {
+        public boolean isEnabled() { return metrics.isEnabled(); }
+        public void setEnabled(boolean enabled) { metrics.setEnabled(enabled); }
+        public int getSampleEvery() { return metrics.sampleEvery(); }
+        public void setSampleEvery(int n) { metrics.setSampleEvery(n); }
+        public int getRoutineQueueDepth() { return snapshot().routine.size(); }
+        public int getTriageDepth() { return snapshot().triageTokens.length; }
+        public int getMaxRoutineQueueDepth() { return snapshot().maxRoutineDepth; }
+        public int getMaxTriageDepth() { return snapshot().maxTriageDepth; }
+        public int getServedCount() { return snapshot().served; }
+        public int getPendingCount() { return snapshot().pending; }
+        public Map<String, OpStats> getOperationLatencies() {
+            Map<String, OpStats> m = new LinkedHashMap<>();
+            for (Metrics.Op op : Metrics.Op.values()) m.put(op.name().toLowerCase(), metrics.latency(op).stats());
+            return m;
+        }
+        public Map<String, OpStats> getTokenWaits() {
+            Map<String, OpStats> m = new LinkedHashMap<>();
+            for (Token.TokenType type : Token.TokenType.values()) m.put(type.name().toLowerCase(), metrics.waitTime(type).stats());
+            return m;
+        }
+        public Map<Integer, Double> getDoctorUtilization() {
+            Map<Integer, Double> m = new TreeMap<>();
+            for (DoctorSnapshot d : snapshot().doctors) m.put(d.id, d.slotCount == 0 ? 0 : (d.slotCount - d.freeSlots) / (double) d.slotCount);
+            return m;
         }
+        public int getTriageHeapDepth() { return snapshot().triageHeapDepth(); }
+        // as of the last time the writer computed them; asking schedules a refresh with the next change
+        public double getHashMeanProbeLength() { probeStatsWanted = true; return snapshot().probeMean; }
+        public int getHashMaxProbeLength() { probeStatsWanted = true; return snapshot().probeMax; }
+        public String dump() { probeStatsWanted = true; return metricsReport(snapshot()); }
+        public void reset() { metrics.reset(); }
+    }
+    /* The view reads published snapshots, so (on the writer thread) this turns on snapshot
+     * publishing at METRICS_SNAPSHOT_MILLIS if it is off; the flusher keeps an idle system's
+     * view current within that interval. */
+    public static final long METRICS_SNAPSHOT_MILLIS = 1000;
+    public HospitalMetricsMXBean metricsMXBean() {
+        if (feed == null) enableSnapshots(METRICS_SNAPSHOT_MILLIS);
+        return new MetricsView();
+    }
+    // register the metrics view with the platform MBean server as capstone:type=HospitalSystem,name=<name>;
+    // a name with characters an ObjectName value cannot hold (,=:"*?\n) is quoted
+    public ObjectName registerMBean(String name) throws JMException {
+        boolean plain = !name.isEmpty() && name.chars().noneMatch(c -> ",=:\"*?\n".indexOf(c) >= 0);
+        ObjectName on = new ObjectName("capstone:type=HospitalSystem,name=" + (plain ? name : ObjectName.quote(name)));
+        if (feed == null) enableSnapshots(METRICS_SNAPSHOT_MILLIS);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsView(), on);
+        return on;
     }
 
-    /* ----------------------------- Circular Queue ----------------------------- */
-    public static class CircularQueue {
-        private final Token[] data;
-        private int head = 0, tail = 0, size = 0, capacity;
+    /* ----------------------------- Persistence (journal + snapshots) ----------------------------- */
+    public static final String JOURNAL_FILE = "journal.log", SNAPSHOT_FILE = "snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x48535336; // "HSS6" (nullable names and specializations, typed undo logs with serve keys, schedule)
+    private interface JournalWrite { void write(Journal j) throws IOException; }
 
-        public CircularQueue(int capacity) {
-            this.capacity = capacity;
-            this.data = new Token[capacity];
+    // write-ahead hook: called right before an operation's first mutation
+    private void logged(JournalWrite w) {
+        if (journal == null) return;
+        try {
+            if (snapshotEvery > 0 && opsSinceSnapshot >= snapshotEvery) checkpoint(); // state == log here
+            w.write(journal);
+            opsSinceSnapshot++;
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    /* Open a data directory: latest snapshot + journal tail, then keep journaling (snapshotEveryOps <= 0: no auto snapshots) */
+    public static HospitalSystemSingle recover(Path dir, int patientTableSize, int routineQueueCapacity,
+                                               Journal.FsyncPolicy policy, int snapshotEveryOps) throws IOException {
+        return recover(dir, patientTableSize, routineQueueCapacity, policy, Journal.DEFAULT_GROUP_OPS, Journal.DEFAULT_GROUP_MILLIS, snapshotEveryOps);
+    }
+    // GROUP forces every groupOps records, and the flusher forces records older than groupMillis
+    public static HospitalSystemSingle recover(Path dir, int patientTableSize, int routineQueueCapacity, Journal.FsyncPolicy policy,
+                                               int groupOps, long groupMillis, int snapshotEveryOps) throws IOException {
+        Files.createDirectories(dir);
+        HospitalSystemSingle hs = new HospitalSystemSingle(patientTableSize, routineQueueCapacity);
+        long lsn = 0;
+        Path snap = dir.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snap)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snap), 1 << 16))) {
+                lsn = hs.readSnapshot(in);
+            }
         }
-        public boolean isEmpty() { return size == 0; }
-        public boolean isFull() { return size == capacity; }
-        public int size() { return size; }
-        public boolean enqueue(Token t) {
-            if (isFull()) return false;
-            data[tail] = t; tail = (tail + 1) % capacity; size++; return true;
+        FileChannel ch = FileChannel.open(dir.resolve(JOURNAL_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long[] tail = Journal.replay(ch, lsn, hs);
+        ch.truncate(tail[1]); // drop a torn last record
+        ch.position(tail[1]);
+        hs.journal = new Journal(ch, tail[0], policy, groupOps, groupMillis);
+        hs.dataDir = dir;
+        hs.snapshotEvery = snapshotEveryOps;
+        return hs;
+    }
+
+    /* Write a full snapshot (temp file + atomic rename), then drop the journal it covers */
+    public void checkpoint() throws IOException {
+        if (journal == null) return;
+        journal.sync();
+        Path tmp = dataDir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            writeSnapshot(out, journal.lastLsn());
+            out.flush();
+            fos.getFD().sync();
         }
+        Files.move(tmp, dataDir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.truncate(); // a crash before this is harmless: replay skips lsn <= snapshot lsn
+        opsSinceSnapshot = 0;
+    }
 
-        public Token dequeue() {
-            if (isEmpty()) return null;
-            Token t = data[head]; data[head] = null; head = (head + 1) % capacity; size--; return t;
+    public void closeJournal() throws IOException {
+        if (journal == null) return;
+        journal.close(); journal = null;
+    }
+
+    // re-execute one journaled operation (journal is detached while replaying)
+    private void apply(byte op, ByteBuffer in) {
+        switch (op) {
+            case Journal.UPSERT: {
+                int desk = in.getInt(), id = in.getInt(), age = in.getInt(), sev = in.getInt();
+                upsert(desk, new Patient(id, Journal.getString(in), age, sev));
+                break;
+            }
+            case Journal.REMOVE: { int desk = in.getInt(); remove(desk, in.getInt()); break; }
+            case Journal.ADD_DOCTOR: addDoctor(new Doctor(in.getInt(), Journal.getString(in), Journal.getString(in))); break;
+            case Journal.ADD_SLOT: {
+                int doctorId = in.getInt();
+                Slot s = new Slot(in.getInt(), Journal.getString(in), Journal.getString(in));
+                boolean booked = in.get() != 0;
+                Doctor d = doctors.get(doctorId);
+                if (d != null && d.addSlot(s) && booked) d.bookSlot(s.slotId);
+                break;
+            }
+            case Journal.BOOK: { int desk = in.getInt(), pid = in.getInt(); book(desk, pid, in.getInt()); break; }
+            case Journal.TRIAGE: { int desk = in.getInt(); triage(desk, in.getInt()); break; }
+            case Journal.SERVE: serve(in.getInt()); break;
+            case Journal.UNDO: undo(in.getInt()); break;
+            case Journal.REDO: redo(in.getInt()); break;
+            case Journal.SCHEDULE: { int start = in.getInt(), grace = in.getInt(); enableSchedule(start, grace, in.getInt()); break; }
+            case Journal.ADVANCE: advanceTo(in.getLong()); break;
+            case Journal.RELEASE_DESK: releaseDesk(in.getInt()); break;
+            default: throw new IllegalStateException("Unknown journal op " + op);
         }
+    }
 
-        public Token peek() { return isEmpty() ? null : data[head]; }
+    // names may be null (writeUTF would throw), so they carry a presence flag
+    private static void writeName(DataOutput out, String name) throws IOException {
+        out.writeBoolean(name != null);
+        if (name != null) out.writeUTF(name);
+    }
+    private static String readName(DataInput in) throws IOException { return in.readBoolean() ? in.readUTF() : null; }
+    private static void writeToken(DataOutputStream out, Token t) throws IOException {
+        out.writeInt(t.tokenId); out.writeInt(t.patientId); out.writeInt(t.doctorId); out.writeInt(t.slotId);
+        out.writeByte(t.type.ordinal());
+    }
+    private static Token readToken(DataInputStream in) throws IOException {
+        return new Token(in.readInt(), in.readInt(), in.readInt(), in.readInt(), Token.TokenType.values()[in.readByte()]);
     }
 
-    /* ----------------------------- Min Heap (Triage) ----------------------------- */
-    public static class MinHeapTriage {
-        private final ArrayList<Token> heap = new ArrayList<>();
-        private void swap(int i, int j) {
-            Token t = heap.get(i); heap.set(i, heap.get(j)); heap.set(j, t);
+    private void writeSnapshot(DataOutputStream out, long lsn) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC); out.writeLong(lsn);
+        out.writeInt(tokenCounter.get()); out.writeInt(servedCount); out.writeInt(pendingCount);
+        out.writeInt(patients.size());
+        patients.forEach(p -> {
+            try { out.writeInt(p.id); writeName(out, p.name); out.writeInt(p.age); out.writeInt(p.severity); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        });
+        out.writeInt(doctors.size());
+        for (Doctor d : doctors.values()) {
+            out.writeInt(d.id); writeName(out, d.name); writeName(out, d.specialization);
+            List<Slot> slots = d.getAllSlots();
+            out.writeInt(slots.size());
+            for (Slot s : slots) { out.writeInt(s.slotId); out.writeUTF(s.startTime); out.writeUTF(s.endTime); out.writeBoolean(s.booked); }
         }
-        private void heapifyUp(int idx, Comparator<Token> cmp) {
-            while (idx > 0) {
-                int parent = (idx - 1) / 2;
-                if (cmp.compare(heap.get(idx), heap.get(parent)) < 0) { swap(idx, parent); idx = parent; }
-                else break;
+        List<Token> queued = routineQueue.tokens();
+        out.writeInt(queued.size());
+        for (Token t : queued) writeToken(out, t);
+        out.writeInt(triage.size());
+        triage.forEachEntry((t, severity) -> {
+            try { writeToken(out, t); out.writeInt(severity); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        });
+        out.writeInt(undoLogs.size());
+        for (Map.Entry<Integer, UndoLog> e : undoLogs.entrySet()) { out.writeInt(e.getKey()); e.getValue().writeTo(out); }
+        frequencies.writeTo(out);
+        out.writeBoolean(wheel != null);
+        if (wheel != null) {
+            out.writeInt(graceMinutes); out.writeInt(escalateAfterMinutes); out.writeInt(expiredCount); out.writeInt(escalatedCount);
+            out.writeInt(held.size());
+            for (Token t : held.values()) writeToken(out, t);
+            wheel.writeTo(out);
+        }
+    }
+
+    // load a snapshot into this (fresh) system; returns the journal lsn it covers
+    private long readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a snapshot file");
+        long lsn = in.readLong();
+        tokenCounter.set(in.readInt()); servedCount = in.readInt(); pendingCount = in.readInt();
+        for (int i = in.readInt(); i > 0; i--) {
+            int id = in.readInt(); String name = readName(in);
+            patients.upsert(new Patient(id, name, in.readInt(), in.readInt()));
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            int id = in.readInt(); String name = readName(in);
+            Doctor d = new Doctor(id, name, readName(in));
+            for (int k = in.readInt(); k > 0; k--) {
+                Slot s = new Slot(in.readInt(), in.readUTF(), in.readUTF());
+                d.addSlot(s);
+                if (in.readBoolean()) d.bookSlot(s.slotId);
             }
+            putDoctor(d);
         }
-        private void heapifyDown(int idx, Comparator<Token> cmp) {
-            int n = heap.size();
-            while (true) {
-                int left = 2 * idx + 1, right = left + 1, smallest = idx;
-                if (left < n && cmp.compare(heap.get(left), heap.get(smallest)) < 0) smallest = left;
-                if (right < n && cmp.compare(heap.get(right), heap.get(smallest)) < 0) smallest = right;
-                if (smallest != idx) { swap(idx, smallest); idx = smallest; }
-                else break;
+        for (int i = in.readInt(); i > 0; i--) {
+            Token t = readToken(in);
+            routineQueue.enqueue(t);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            Token t = readToken(in);
+            triage.insert(t, in.readInt());
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            int desk = in.readInt();
+            undoLogs.put(desk, UndoLog.readFrom(in));
+        }
+        frequencies.readFrom(in);
+        if (in.readBoolean()) {
+            graceMinutes = in.readInt(); escalateAfterMinutes = in.readInt(); expiredCount = in.readInt(); escalatedCount = in.readInt();
+            for (int i = in.readInt(); i > 0; i--) { Token t = readToken(in); held.put(t.tokenId, t); }
+            wheel = TimingWheel.readFrom(in, t -> timers.put(t.tokenId, t));
+            availability.advanceTo((int) Math.min(wheel.now(), Integer.MAX_VALUE));
+        }
+        return lsn;
+    }
+
+    /* Workload helpers for loadtest and the JMH module (benchmarks/ compiles this file into
+     * package bench, so package-private members are reachable from the benchmarks) */
+    static void setupDay(HospitalSystemSingle hs, int doctorCount, int slotsPerDoctor, int patientCount) {
+        for (int d = 1; d <= doctorCount; d++) {
+            Doctor doc = new Doctor(d, "Dr. " + d, d % 2 == 0 ? "General" : "Pediatrics");
+            for (int k = 0; k < slotsPerDoctor; k++)
+                doc.addSlot(new Slot(d * 100_000 + k, String.format("%02d:%02d", 8 + k / 20 % 12, k % 20 * 3), "20:00"));
+            hs.addDoctor(doc);
+        }
+        for (int p = 1; p <= patientCount; p++) hs.upsertPatient(new Patient(p, "Patient " + p, 1 + p % 90, 1 + p % 5));
+    }
+    // one random operation of the mixed workload
+    static void mixedStep(HospitalSystemSingle hs, Random r, int patientCount, int doctorCount) {
+        int pid = 1 + r.nextInt(patientCount), dice = r.nextInt(100);
+        if (dice < 15) hs.upsertPatient(new Patient(pid, "Patient " + pid, 1 + pid % 90, 1 + r.nextInt(5)));
+        else if (dice < 50) hs.bookRoutine(pid, 1 + r.nextInt(doctorCount));
+        else if (dice < 65) { if (hs.getPatient(pid) != null) hs.triageInsert(pid); } // undo may drop a registration
+        else if (dice < 95) hs.serveNext();
+        else hs.undo();
+    }
+
+    /* ----------------------------- Bulk Import (CSV) ----------------------------- */
+    /* Morning load of rosters and registries. Each file is memory-mapped and cut into about one
+     * chunk per thread at line boundaries found in the mapped bytes; every chunk is parsed straight
+     * from those bytes (ints and HH:mm times are read digit by digit, only name fields become
+     * Strings) into primitive columns, optionally on several threads; the chunks are then applied
+     * in file order on the calling (writer) thread, bypassing the per-record undo log and journal. Files (header line optional):
+     *   doctors:  id,name,specialization
+     *   slots:    doctorId,slotId,HH:mm,HH:mm[,booked]   (booked: 1/true)
+     *   patients: id,name,age,severity
+     * A field may be double-quoted ("" escapes a quote) to hold commas. */
+    static final class CsvChunk {
+        final String file; final long offset; final int kind; // kind: 0 doctors, 1 slots, 2 patients
+        int rows;
+        int[] a = new int[256], b = new int[256], c = new int[256], d = new int[256];
+        String[] s1 = new String[256], s2 = new String[256];
+        private final ByteBuffer buf;
+        private int pos;
+        private byte[] scratch = new byte[64];
+
+        CsvChunk(String file, long offset, int kind, ByteBuffer buf) { this.file = file; this.offset = offset; this.kind = kind; this.buf = buf; }
+
+        void parse(boolean skipHeader) throws IOException {
+            int limit = buf.limit();
+            if (skipHeader && limit > 0) { byte first = buf.get(0); if ((first < '0' || first > '9') && first != '-') skipLine(); }
+            while (pos < limit) {
+                int lineStart = pos;
+                byte first = buf.get(pos);
+                if (first == '\n' || first == '\r') { pos++; continue; } // blank line
+                if (rows == a.length) grow();
+                try {
+                    switch (kind) {
+                        case 0: a[rows] = nextInt(); s1[rows] = nextString(); s2[rows] = nextString(); break;
+                        case 1: a[rows] = nextInt(); b[rows] = nextInt(); c[rows] = nextTime(); d[rows] = nextTime();
+                                s1[rows] = atEnd() ? null : nextString(); break; // booked flag, rare: kept as text
+                        default: a[rows] = nextInt(); s1[rows] = nextString(); b[rows] = nextInt(); c[rows] = nextInt();
+                    }
+                    if (!atEnd()) throw new IllegalArgumentException("too many fields");
+                } catch (RuntimeException e) {
+                    throw new IOException("Bad record at byte " + (offset + lineStart) + " of " + file + ": " + e.getMessage());
+                }
+                skipLine();
+                rows++;
+            }
+        }
+        private void grow() {
+            int n = rows * 2;
+            a = Arrays.copyOf(a, n); b = Arrays.copyOf(b, n); c = Arrays.copyOf(c, n); d = Arrays.copyOf(d, n);
+            s1 = Arrays.copyOf(s1, n); s2 = Arrays.copyOf(s2, n);
+        }
+        private boolean atEnd() { return pos >= buf.limit() || buf.get(pos) == '\n' || buf.get(pos) == '\r'; }
+        private void skipLine() { int limit = buf.limit(); while (pos < limit && buf.get(pos++) != '\n') { } }
+        // consumes the field's trailing comma, if any
+        private void endField() {
+            if (pos < buf.limit() && buf.get(pos) == ',') pos++;
+            else if (!atEnd()) throw new IllegalArgumentException("unexpected '" + (char) buf.get(pos) + "'");
+        }
+        private void skipSpaces() { while (pos < buf.limit() && buf.get(pos) == ' ') pos++; }
+        private int nextInt() {
+            skipSpaces();
+            boolean neg = pos < buf.limit() && buf.get(pos) == '-';
+            if (neg) pos++;
+            int start = pos; long v = 0;
+            for (byte ch; pos < buf.limit() && (ch = buf.get(pos)) >= '0' && ch <= '9'; pos++) {
+                v = v * 10 + (ch - '0');
+                if (v > Integer.MAX_VALUE + 1L) throw new IllegalArgumentException("number too large");
             }
+            if (pos == start) throw new IllegalArgumentException("number expected");
+            skipSpaces(); endField();
+            v = neg ? -v : v;
+            if (v > Integer.MAX_VALUE) throw new IllegalArgumentException("number too large");
+            return (int) v;
         }
-        public boolean isEmpty() { return heap.isEmpty(); }
-        public int size() { return heap.size(); }
-        public void insert(Token t, Comparator<Token> cmp) {
-            heap.add(t); heapifyUp(heap.size() - 1, cmp);
+        private int nextTime() {
+            skipSpaces();
+            int h = 0, m = 0, start = pos;
+            for (byte ch; pos < buf.limit() && (ch = buf.get(pos)) >= '0' && ch <= '9'; pos++) h = h * 10 + (ch - '0');
+            if (pos == start || pos >= buf.limit() || buf.get(pos) != ':') throw new IllegalArgumentException("time HH:mm expected");
+            start = ++pos;
+            for (byte ch; pos < buf.limit() && (ch = buf.get(pos)) >= '0' && ch <= '9'; pos++) m = m * 10 + (ch - '0');
+            if (pos == start || h > 23 || m > 59) throw new IllegalArgumentException("time HH:mm expected");
+            skipSpaces(); endField();
+            return h * 60 + m;
         }
-        public Token extractMin(Comparator<Token> cmp) {
-            if (heap.isEmpty()) return null;
-            Token root = heap.get(0);
-            Token last = heap.remove(heap.size() - 1);
-            if (!heap.isEmpty()) { heap.set(0, last); heapifyDown(0, cmp); }
-            return root;
+        private String nextString() {
+            int len = 0, limit = buf.limit();
+            if (pos < limit && buf.get(pos) == '"') {
+                for (pos++; ; pos++) {
+                    if (pos >= limit) throw new IllegalArgumentException("unterminated quote");
+                    byte ch = buf.get(pos);
+                    if (ch == '"') { if (pos + 1 < limit && buf.get(pos + 1) == '"') pos++; else { pos++; break; } }
+                    if (len == scratch.length) scratch = Arrays.copyOf(scratch, len * 2);
+                    scratch[len++] = ch;
+                }
+            } else {
+                for (byte ch; pos < limit && (ch = buf.get(pos)) != ',' && ch != '\n' && ch != '\r'; pos++) {
+                    if (len == scratch.length) scratch = Arrays.copyOf(scratch, len * 2);
+                    scratch[len++] = ch;
+                }
+            }
+            endField();
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
         }
+    }
 
-        public Token peek(Comparator<Token> cmp) { return heap.isEmpty() ? null : heap.get(0); }
+    public static final class ImportReport {
+        public final int doctors, slots, patients;
+        public final long bytes, parseNanos, applyNanos;
+        public final int threads;
+        ImportReport(int doctors, int slots, int patients, long bytes, long parseNanos, long applyNanos, int threads) {
+            this.doctors = doctors; this.slots = slots; this.patients = patients; this.bytes = bytes;
+            this.parseNanos = parseNanos; this.applyNanos = applyNanos; this.threads = threads;
+        }
+        public int records() { return doctors + slots + patients; }
+        public double recordsPerSecond() { return records() / ((parseNanos + applyNanos) / 1e9); }
+        public String toString() {
+            return String.format("Imported %d doctors, %d slots, %d patients (%.1f MB) in %d ms: parse %d ms on %d thread(s), apply %d ms, %.0f records/s",
+                doctors, slots, patients, bytes / 1e6, (parseNanos + applyNanos) / 1_000_000, parseNanos / 1_000_000, threads,
+                applyNanos / 1_000_000, recordsPerSecond());
+        }
     }
 
-    /* ----------------------------- Patient Hash Table (chaining) ----------------------------- */
-    public static class PatientHashTable {
-        private static class Entry { final int key; Patient value; Entry(int k, Patient v){ key=k; value=v; } }
-        private final LinkedList<Entry>[] buckets;
-        private final int capacity;
+    /* Bulk load from CSV files (any may be null). Patients replace existing records with the same
+     * id. A doctor row for a registered id merges into that doctor (its slots and bookings stay)
+     * and must repeat its name and specialization; slots may target registered doctors, and a slot
+     * id the doctor already has is skipped. Nothing is pushed to the undo log; with a journal the
+     * result is checkpointed into a snapshot instead of logging every record. threads <= 1 parses
+     * on the calling thread. */
+    public ImportReport bulkImport(Path doctorsCsv, Path slotsCsv, Path patientsCsv, int threads) throws IOException {
+        int workers = Math.max(1, threads);
+        ExecutorService pool = workers > 1 ? Executors.newFixedThreadPool(workers, r -> { Thread t = new Thread(r, "csv-import"); t.setDaemon(true); return t; }) : null;
+        long t0 = System.nanoTime(), bytes = 0;
+        List<CsvChunk> ds, ss, ps;
+        try {
+            ds = parseCsv(doctorsCsv, 0, workers, pool);
+            ss = parseCsv(slotsCsv, 1, workers, pool);
+            ps = parseCsv(patientsCsv, 2, workers, pool);
+        } finally { if (pool != null) pool.shutdown(); }
+        for (Path f : new Path[]{ doctorsCsv, slotsCsv, patientsCsv }) if (f != null) bytes += Files.size(f);
+        long t1 = System.nanoTime();
 
-        public PatientHashTable(int capacity) {
-            this.capacity = capacity;
-            buckets = new LinkedList[capacity];
-            for (int i=0;i<capacity;i++) buckets[i] = new LinkedList<>();
+        int doctorCount = 0, slotCount = 0, patientCount = 0;
+        Map<Integer, Doctor> fresh = new LinkedHashMap<>(); // new doctors get their slots before they are indexed
+        for (CsvChunk c : ds)
+            for (int i = 0; i < c.rows; i++) {
+                Doctor old = doctors.get(c.a[i]);
+                if (old == null) { if (fresh.put(c.a[i], new Doctor(c.a[i], c.s1[i], c.s2[i])) == null) doctorCount++; }
+                else if (!Objects.equals(old.name, c.s1[i]) || !Objects.equals(old.specialization, c.s2[i]))
+                    throw new IOException("Doctor " + c.a[i] + " in " + c.file + " is already registered as " + old.name + " (" + old.specialization + ")");
+            }
+        for (CsvChunk c : ss) // validate first, so a failed import leaves the system untouched
+            for (int i = 0; i < c.rows; i++)
+                if (!fresh.containsKey(c.a[i]) && !doctors.containsKey(c.a[i]))
+                    throw new IOException("Slot " + c.b[i] + " in " + c.file + " names unknown doctor " + c.a[i]);
+        for (CsvChunk c : ss)
+            for (int i = 0; i < c.rows; i++) {
+                Doctor d = fresh.get(c.a[i]);
+                if (d == null) d = doctors.get(c.a[i]);
+                Slot s = Slot.ofMinutes(c.b[i], c.c[i], c.d[i]);
+                String booked = c.s1[i];
+                s.booked = booked != null && (booked.equals("1") || booked.equalsIgnoreCase("true"));
+                if (d.addSlot(s)) slotCount++;
+            }
+        for (Doctor d : fresh.values()) putDoctor(d);
+        int incoming = 0;
+        for (CsvChunk c : ps) incoming += c.rows;
+        patients.ensureCapacity(patients.size() + incoming);
+        boolean reprioritize = triage.size() > 0;
+        for (CsvChunk c : ps)
+            for (int i = 0; i < c.rows; i++) {
+                Patient p = new Patient(c.a[i], c.s1[i], c.b[i], c.c[i]);
+                patients.upsert(p);
+                if (index != null) index.put(p);
+                if (reprioritize) triage.updatePriority(p.id, p.severity);
+                patientCount++;
+            }
+        changed();
+        checkpoint(); // no-op without a journal
+        return new ImportReport(doctorCount, slotCount, patientCount, bytes, t1 - t0, System.nanoTime() - t1, workers);
+    }
+
+    private static final int CSV_MIN_CHUNK = 8 << 10; // a smaller piece costs more to hand to a thread than to parse
+    private static final long CSV_MAX_MAP = 1L << 30; // one mapping covers at most 1 GB (the limit is 2 GB)
+    // map the file, split it into about `workers` chunks at line boundaries found in the mapped
+    // bytes, parse (in parallel with a pool); chunks come back in file order
+    private static List<CsvChunk> parseCsv(Path file, int kind, int workers, ExecutorService pool) throws IOException {
+        if (file == null) return Collections.emptyList();
+        List<CsvChunk> chunks = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            int per = (int) Math.max(CSV_MIN_CHUNK, Math.min(CSV_MAX_MAP, (size + workers - 1) / workers));
+            for (long start = 0; start < size; ) {
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CSV_MAX_MAP, size - start));
+                int len = map.limit();
+                if (start + len < size) { // end this mapping after its last newline; the rest starts the next one
+                    while (len > 0 && map.get(len - 1) != '\n') len--;
+                    if (len == 0) throw new IOException("Line longer than " + CSV_MAX_MAP + " bytes at byte " + start + " of " + file);
+                }
+                for (int from = 0; from < len; ) {
+                    int to = (int) Math.min(len, (long) from + per);
+                    while (to < len && map.get(to - 1) != '\n') to++; // extend to just past the next newline
+                    chunks.add(new CsvChunk(file.toString(), start + from, kind, map.slice(from, to - from)));
+                    from = to;
+                }
+                start += len;
+            }
         }
+        if (pool == null || chunks.size() == 1) {
+            for (int i = 0; i < chunks.size(); i++) chunks.get(i).parse(i == 0);
+            return chunks;
+        }
+        List<Future<?>> jobs = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            CsvChunk c = chunks.get(i); boolean first = i == 0;
+            jobs.add(pool.submit(() -> { c.parse(first); return null; }));
+        }
+        try {
+            for (Future<?> f : jobs) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Import failed: " + e.getCause(), e.getCause());
+        }
+        return chunks;
+    }
 
-        private int hash(int key) { return Math.abs(key) % capacity; }
+    /* ----------------------------- Network front end (NIO) ----------------------------- */
+    /* Line protocol over TCP: one ASCII request per line, one response line per request, in order.
+     *   REG id age severity name...  -> OK
+     *   BOOK patientId doctorId      -> TOKEN tokenId doctorId slotId | ERR no free slot
+     *   TRIAGE patientId             -> TOKEN tokenId | ERR patient not found
+     *   SERVE                        -> SERVED tokenId patientId type | EMPTY
+     *   UNDO / REDO                  -> OK message
+     *   REPORT / METRICS             -> LINES n, then n lines of text
+     *   PING -> PONG, QUIT -> BYE (then the server closes the connection)
+     * Clients may pipeline: every complete line in a read is executed, and the responses go back
+     * in one write. Each connection is its own undo desk; a closed connection's desk is released
+     * and its id reused, so reconnecting clients do not accumulate undo logs. */
+    public static class CommandServer implements Runnable, Closeable {
+        private static final int READ_BUFFER = 8192, MAX_PENDING_OUT = 1 << 20;
+        private static final java.util.regex.Pattern SPACES = java.util.regex.Pattern.compile(" +");
+        private final HospitalSystemSingle hs;
+        private final Selector selector;
+        private final ServerSocketChannel server;
+        private volatile boolean running = true;
+        private int nextDesk = 1;
+        private final ArrayDeque<Integer> freeDesks = new ArrayDeque<>(); // ids of released desks, reused first
 
-        public void upsert(Patient p) {
-            int idx = hash(p.id);
-            for (Entry e : buckets[idx]) if (e.key == p.id) { e.value = p; return; }
-            buckets[idx].add(new Entry(p.id, p));
+        private static final class Conn {
+            final SocketChannel ch;
+            final int desk;
+            final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+            ByteBuffer out = ByteBuffer.allocate(READ_BUFFER);
+            final StringBuilder replies = new StringBuilder();
+            boolean quit;
+            Conn(SocketChannel ch, int desk) { this.ch = ch; this.desk = desk; }
         }
 
-        public Patient get(int patientId) {
-            int idx = hash(patientId);
-            for (Entry e : buckets[idx]) if (e.key == patientId) return e.value;
-            return null;
+        // port 0 picks a free port (see port())
+        public CommandServer(HospitalSystemSingle hs, int port) throws IOException {
+            this.hs = hs;
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            // connection desks a previous run left behind (it crashed before releasing them)
+            for (Integer d : new ArrayList<>(hs.undoLogs.keySet())) if (d != 0) hs.releaseDesk(d);
         }
+        public int port() { return server.socket().getLocalPort(); }
 
-        public boolean delete(int patientId) {
-            int idx = hash(patientId);
-            Entry toRemove = null;
-            for (Entry e : buckets[idx]) if (e.key == patientId) { toRemove = e; break; }
-            if (toRemove != null) { buckets[idx].remove(toRemove); return true; }
-            return false;
-        }
-    }
-    /* ----------------------------- Undo Stack ----------------------------- */
-    public static class UndoStack {
-        public static class Action {
-            public final String actionType;
-            public final Object payload;
-            public Action(String actionType, Object payload) { this.actionType = actionType; this.payload = payload; }
-        }private final Stack<Action> st = new Stack<>();
-        public void push(String type, Object payload) { st.push(new Action(type, payload)); }
-        public Action pop() { return st.isEmpty() ? null : st.pop(); }
-        public boolean isEmpty() { return st.isEmpty(); }
-    }
-    /* ----------------------------- HospitalSystem (glue) ----------------------------- */
-    private final Map<Integer, Doctor> doctors = new HashMap<>();
-    private final PatientHashTable patients;
-    private final CircularQueue routineQueue;
-    private final MinHeapTriage triage;
-    private final UndoStack undo;
-    private final AtomicInteger tokenCounter = new AtomicInteger(1);
-    private int servedCount = 0;
-    private int pendingCount = 0;
-    public HospitalSystemSingle(int patientTableSize, int routineQueueCapacity) {
-        patients = new PatientHashTable(patientTableSize);
-        routineQueue = new CircularQueue(routineQueueCapacity);
-        triage = new MinHeapTriage();
-        undo = new UndoStack();
-    }
+        // the selector thread is the only thread touching hs
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                        SelectionKey key = it.next(); it.remove();
+                        try {
+                            if (!key.isValid()) continue;
+                            if (key.isAcceptable()) accept();
+                            else {
+                                if (key.isWritable()) write(key);
+                                if (key.isValid() && key.isReadable()) read(key);
+                            }
+                        } catch (IOException e) { closeQuietly(key); }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Server stopped: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) closeQuietly(key);
+                try { selector.close(); } catch (IOException ignored) { }
+            }
+        }
+        public void close() { running = false; selector.wakeup(); }
 
-    public void upsertPatient(Patient p) {
-        patients.upsert(p);
-        undo.push("register", p.id); // payload patient id
-    }
-    public Patient getPatient(int id) { return patients.get(id); }
-    public void addDoctor(Doctor d) { doctors.put(d.id, d); }
+        private void accept() throws IOException {
+            SocketChannel ch;
+            while ((ch = server.accept()) != null) {
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Integer free = freeDesks.poll();
+                ch.register(selector, SelectionKey.OP_READ, new Conn(ch, free != null ? free : nextDesk++));
+            }
+        }
+        // close the connection and release its desk (on the selector thread)
+        private void closeQuietly(SelectionKey key) {
+            key.cancel();
+            try { key.channel().close(); } catch (IOException ignored) { }
+            if (!(key.attachment() instanceof Conn)) return;
+            int desk = ((Conn) key.attachment()).desk;
+            key.attach(null); // released once, even if the key is closed again
+            try { hs.releaseDesk(desk); } catch (UncheckedIOException e) { System.out.println("Desk " + desk + " not released: " + e.getCause().getMessage()); }
+            freeDesks.push(desk);
+        }
 
-    /* Booking routine appointment: find next free slot and enqueue token */
-    public boolean bookRoutine(int patientId, int doctorId) {
-        Doctor doc = doctors.get(doctorId);
-        if (doc == null) return false;
-        Slot s = doc.findNextFreeSlot();
-        if (s == null) return false;
-        boolean ok = doc.bookSlot(s.slotId);
-        if (!ok) return false;
-        Token t = new Token(tokenCounter.getAndIncrement(), patientId, doctorId, s.slotId, Token.TokenType.ROUTINE);
-        boolean enq = routineQueue.enqueue(t);
-        if (!enq) { s.booked = false; return false; } // rollback if queue full
-        pendingCount++;
-        undo.push("book", t);
-        return true;
+        private void read(SelectionKey key) throws IOException {
+            Conn c = (Conn) key.attachment();
+            if (c.ch.read(c.in) < 0) { closeQuietly(key); return; }
+            ByteBuffer in = c.in;
+            in.flip();
+            int start = in.position();
+            for (int i = start; i < in.limit() && !c.quit; i++) {
+                if (in.get(i) != '\n') continue;
+                int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                execute(c, new String(in.array(), start, end - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining() && !c.quit) { c.replies.append("ERR line too long\n"); c.quit = true; }
+            flushReplies(key, c);
+        }
+        // one write per read batch; what the socket does not take waits for OP_WRITE
+        private void flushReplies(SelectionKey key, Conn c) throws IOException {
+            if (c.replies.length() > 0) {
+                byte[] bytes = c.replies.toString().getBytes(StandardCharsets.UTF_8);
+                c.replies.setLength(0);
+                if (c.out.remaining() < bytes.length) {
+                    c.out.flip();
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(c.out.capacity() * 2, c.out.remaining() + bytes.length));
+                    c.out = bigger.put(c.out);
+                }
+                c.out.put(bytes);
+            }
+            write(key);
+        }
+        private void write(SelectionKey key) throws IOException {
+            Conn c = (Conn) key.attachment();
+            c.out.flip();
+            c.ch.write(c.out);
+            boolean drained = !c.out.hasRemaining();
+            int pending = c.out.remaining();
+            c.out.compact();
+            if (drained && c.quit) { closeQuietly(key); return; }
+            // stop reading from a client that does not read its responses
+            int ops = (drained ? 0 : SelectionKey.OP_WRITE) | (pending > MAX_PENDING_OUT || c.quit ? 0 : SelectionKey.OP_READ);
+            key.interestOps(ops);
+        }
+
+        private void execute(Conn c, String line) {
+            StringBuilder r = c.replies;
+            String[] f = SPACES.split(line.trim());
+            try {
+                switch (f[0].toUpperCase()) {
+                    case "REG": {
+                        String name = SPACES.split(line.trim(), 5)[4];
+                        hs.upsert(c.desk, new Patient(Integer.parseInt(f[1]), name, Integer.parseInt(f[2]), Integer.parseInt(f[3])));
+                        r.append("OK\n");
+                        break;
+                    }
+                    case "BOOK": {
+                        Token t = hs.book(c.desk, Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+                        if (t == null) r.append("ERR no free slot\n");
+                        else r.append("TOKEN ").append(t.tokenId).append(' ').append(t.doctorId).append(' ').append(t.slotId).append('\n');
+                        break;
+                    }
+                    case "TRIAGE": {
+                        Token t = hs.triage(c.desk, Integer.parseInt(f[1]));
+                        if (t == null) r.append("ERR patient not found\n");
+                        else r.append("TOKEN ").append(t.tokenId).append('\n');
+                        break;
+                    }
+                    case "SERVE": {
+                        Token t = hs.serve(c.desk);
+                        if (t == null) r.append("EMPTY\n");
+                        else r.append("SERVED ").append(t.tokenId).append(' ').append(t.patientId).append(' ').append(t.type).append('\n');
+                        break;
+                    }
+                    case "UNDO": r.append("OK ").append(hs.undo(c.desk)).append('\n'); break;
+                    case "REDO": r.append("OK ").append(hs.redo(c.desk)).append('\n'); break;
+                    case "REPORT": appendLines(r, hs.reportSummary() + "Top 3 frequent patients: " + hs.topKFrequentPatients(3)); break;
+                    case "METRICS": appendLines(r, hs.metricsReport()); break;
+                    case "PING": r.append("PONG\n"); break;
+                    case "QUIT": r.append("BYE\n"); c.quit = true; break;
+                    default: r.append("ERR unknown command\n");
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                r.append("ERR bad arguments\n");
+            } catch (UncheckedIOException e) {
+                r.append("ERR journal: ").append(e.getCause().getMessage()).append('\n');
+            } catch (RuntimeException e) { // one bad request must not stop the loop for every client
+                r.append("ERR ").append(e.getClass().getSimpleName()).append(e.getMessage() == null ? "" : ": " + e.getMessage().replace('\n', ' ')).append('\n');
+            }
+        }
+        private static void appendLines(StringBuilder r, String text) {
+            String[] lines = text.split("\n");
+            r.append("LINES ").append(lines.length).append('\n');
+            for (String l : lines) r.append(l).append('\n');
+        }
     }
-    /* Emergency triage insertion */
-    public void triageInsert(int patientId) {
-        Patient p = patients.get(patientId);
-        if (p == null) { System.out.println("Patient not found."); return; }
-        Token t = new Token(tokenCounter.getAndIncrement(), patientId, -1, -1, Token.TokenType.EMERGENCY);
-        Comparator<Token> cmp = this::cmpByPatientSeverity;
-        triage.insert(t, cmp);
-        pendingCount++;
-        undo.push("triage", t);
+
+    /* Blocking client for the line protocol. send() only buffers, so a caller can pipeline any
+     * number of requests, flush() once and then receive() the responses in order. */
+    public static class CommandClient implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        public CommandClient(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+        }
+        public void send(String request) throws IOException { out.write(request); out.write('\n'); }
+        public void flush() throws IOException { out.flush(); }
+        // next response; a LINES block comes back as one string
+        public String receive() throws IOException {
+            String line = in.readLine();
+            if (line == null) throw new EOFException("Server closed the connection");
+            if (!line.startsWith("LINES ")) return line;
+            StringBuilder sb = new StringBuilder();
+            for (int n = Integer.parseInt(line.substring(6)); n > 0; n--) sb.append(in.readLine()).append('\n');
+            return sb.toString();
+        }
+        public String call(String request) throws IOException { send(request); flush(); return receive(); }
+        public void close() throws IOException { socket.close(); }
+
+        /* Loopback load test: `clients` connections, each keeping up to `depth` requests in flight
+         * (book 50%, triage 20%, serve 30%); reports requests/sec and latency percentiles measured
+         * from send to response. */
+        public static String loadTest(String host, int port, int clients, int requestsPerClient, int depth) throws Exception {
+            LatencyHistogram latency = new LatencyHistogram();
+            AtomicLong errors = new AtomicLong();
+            List<Thread> threads = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            for (int i = 0; i < clients; i++) {
+                final int seed = i;
+                threads.add(new Thread(() -> {
+                    Random r = new Random(seed);
+                    long[] sentAt = new long[depth];
+                    try (CommandClient c = new CommandClient(host, port)) {
+                        start.await();
+                        int sent = 0, received = 0;
+                        while (received < requestsPerClient) {
+                            while (sent < requestsPerClient && sent - received < depth) {
+                                int dice = r.nextInt(10), pid = 1 + r.nextInt(10_000);
+                                c.send(dice < 5 ? "BOOK " + pid + " " + (1 + r.nextInt(100)) : dice < 7 ? "TRIAGE " + pid : "SERVE");
+                                sentAt[sent++ % depth] = System.nanoTime();
+                            }
+                            c.flush();
+                            do { // take half a window of responses before refilling, so sends go out in batches
+                                String resp = c.receive();
+                                latency.record(System.nanoTime() - sentAt[received++ % depth]);
+                                if (resp.startsWith("ERR") && !resp.equals("ERR no free slot")) errors.incrementAndGet();
+                            } while (received < sent && (sent - received > depth / 2 || sent == requestsPerClient));
+                        }
+                    } catch (Exception e) { errors.incrementAndGet(); System.out.println("client " + seed + ": " + e); }
+                }, "load-" + i));
+            }
+            for (Thread t : threads) t.start();
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Thread t : threads) t.join();
+            double secs = (System.nanoTime() - t0) / 1e9;
+            OpStats s = latency.stats();
+            return String.format("%d clients x %d requests, pipeline depth %d: %.0f req/s, latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us, errors %d",
+                clients, requestsPerClient, depth, latency.count() / secs, s.getP50Micros(), s.getP99Micros(), s.getP999Micros(), s.getMaxMicros(), errors.get());
+        }
     }
 
-    /* Serve next: emergency (triage) has priority over routine */
-    public Token serveNext() {
-        Comparator<Token> cmp = this::cmpByPatientSeverity;
-        Token next = triage.peek(cmp) != null ? triage.extractMin(cmp) : routineQueue.dequeue();
-        if (next == null) return null;
-        servedCount++; pendingCount = Math.max(0, pendingCount - 1);
-        undo.push("serve", next);
-        return next;
-    }
-    private int cmpByPatientSeverity(Token a, Token b) {
-        Patient pa = patients.get(a.patientId); Patient pb = patients.get(b.patientId);
-        int sa = pa == null ? Integer.MAX_VALUE : pa.severity;
-        int sb = pb == null ? Integer.MAX_VALUE : pb.severity;
-        return Integer.compare(sa, sb);
-    }
-    /* Undo: best-effort reversals */
-    public String undo() {
-        UndoStack.Action act = undo.pop();
-        if (act == null) return "Nothing to undo";
-        switch (act.actionType) {
-            case "book": {
-                Token t = (Token) act.payload;
-                rebuildQueueWithoutToken(t.tokenId);
-                Doctor d = doctors.get(t.doctorId);
-                if (d != null) for (Slot s : d.getAllSlots()) if (s.slotId == t.slotId) s.booked = false;
-                pendingCount = Math.max(0, pendingCount - 1);
-                return "Undid booking " + t.tokenId;
+    /* ----------------------------- OPD Day Simulator ----------------------------- */
+    /* Seeded OPD day: generate() builds a replayable trace of timed events, run() drives a fresh system with it */
+    public static final class OpdSimulator {
+        private static final int TRACE_MAGIC = 0x4F504454; // "OPDT"
+        static final byte REG = 0, BOOK = 1, TRIAGE = 2, SERVE = 3, UNDO = 4, TICK = 5;
+        private static final String[] OP_NAMES = { "register", "book", "triage", "serve", "undo", "tick" };
+        private static final double[] SEVERITY_CDF = { 0.01, 0.11, 0.51, 0.88, 1.0 }; // ESI 1..5: 1%, 10%, 40%, 37%, 12%
+        static final int DAY_START = 8 * 60;
+
+        public static final class Scenario {
+            public final long seed;
+            public final int doctors, slotsPerDoctor, patients, minutes, consultMinutes, graceMinutes, escalateAfterMinutes;
+            public final double arrivalsPerMinute, undoShare, reassessShare;
+            public Scenario(long seed, int doctors, int slotsPerDoctor, int patients, int minutes, double arrivalsPerMinute,
+                            int consultMinutes, int graceMinutes, int escalateAfterMinutes, double undoShare, double reassessShare) {
+                if (doctors <= 0 || slotsPerDoctor <= 0 || patients <= 0 || minutes <= 0 || consultMinutes <= 0 || !(arrivalsPerMinute > 0))
+                    throw new IllegalArgumentException("Scenario sizes and rates must be positive");
+                this.seed = seed; this.doctors = doctors; this.slotsPerDoctor = slotsPerDoctor; this.patients = patients;
+                this.minutes = minutes; this.arrivalsPerMinute = arrivalsPerMinute; this.consultMinutes = consultMinutes;
+                this.graceMinutes = graceMinutes; this.escalateAfterMinutes = escalateAfterMinutes;
+                this.undoShare = undoShare; this.reassessShare = reassessShare;
             }
-            case "triage": {
-                Token tk = (Token) act.payload;
-                rebuildTriageWithoutToken(tk.tokenId);
-                pendingCount = Math.max(0, pendingCount - 1);
-                return "Undid triage " + tk.tokenId;
+            // a 10-hour day from 08:00: slots every `minutes / slotsPerDoctor`, arrivals slightly above room capacity
+            public static Scenario day(long seed, int doctors, int patients) {
+                return new Scenario(seed, doctors, 60, patients, 600, doctors / 10.0 * 1.1, 10, 15, 30, 0.02, 0.03);
             }
-            case "serve": {
-                Token served = (Token) act.payload;
-                if (served.type == Token.TokenType.ROUTINE) rebuildQueueWithFront(served);
-                else { Comparator<Token> cmp = this::cmpByPatientSeverity; triage.insert(served, cmp); }
-                servedCount = Math.max(0, servedCount - 1);
-                pendingCount++;
-                return "Undid serve " + served.tokenId;
+            public String toString() {
+                return String.format("seed %d: %d doctors x %d slots, %d patients, %d min from 08:00, %.2f arrivals/min, "
+                    + "%d min consults, grace %d, escalate %d, undo %.0f%%, reassess %.0f%%", seed, doctors, slotsPerDoctor,
+                    patients, minutes, arrivalsPerMinute, consultMinutes, graceMinutes, escalateAfterMinutes, undoShare * 100, reassessShare * 100);
             }
-            case "register": {
-                int pid = (int) act.payload;
-                patients.delete(pid);
-                return "Undid patient register " + pid;
+        }
+
+        public final Scenario scenario;
+        private int size;
+        private int[] at = new int[1024], argA = new int[1024], argB = new int[1024]; // at: simulated ms since DAY_START
+        private byte[] op = new byte[1024];
+
+        private OpdSimulator(Scenario scenario) { this.scenario = scenario; }
+        public int events() { return size; }
+        private void add(int time, byte kind, int a, int b) {
+            if (size == op.length) {
+                int n = size * 2;
+                at = Arrays.copyOf(at, n); argA = Arrays.copyOf(argA, n); argB = Arrays.copyOf(argB, n); op = Arrays.copyOf(op, n);
             }
-            default: return "Unknown action to undo";
-        }}
-    /* rebuild helpers (simple, destructive reads + rebuild) */
-    private void rebuildQueueWithoutToken(int tokenId) {
-        List<Token> items = new ArrayList<>();
-        while (!routineQueue.isEmpty()) {
-            Token t = routineQueue.dequeue();
-            if (t.tokenId != tokenId) items.add(t);
+            at[size] = time; op[size] = kind; argA[size] = a; argB[size] = b; size++;
         }
-        for (Token t : items) routineQueue.enqueue(t);
-    }
-    private void rebuildTriageWithoutToken(int tokenId) {
-        List<Token> items = new ArrayList<>();
-        Comparator<Token> cmp = this::cmpByPatientSeverity;
-        Token cur;
-        while ((cur = triage.extractMin(cmp)) != null) {
-            if (cur.tokenId != tokenId) items.add(cur);
+
+        public static OpdSimulator generate(Scenario s) {
+            OpdSimulator sim = new OpdSimulator(s);
+            Random r = new Random(s.seed);
+            int[] severity = new int[s.patients + 1]; // 0 = not registered yet
+            int[] recentEmergencies = new int[64]; int emergencies = 0;
+            double end = s.minutes * 60_000.0, serveGap = s.consultMinutes * 60_000.0 / s.doctors;
+            double nextArrival = -Math.log(1 - r.nextDouble()) * 60_000.0 / s.arrivalsPerMinute, nextServe = serveGap;
+            for (int minute = 0; minute <= s.minutes; minute++) {
+                sim.add(minute * 60_000, TICK, DAY_START + minute, 0);
+                double minuteEnd = Math.min(end, (minute + 1) * 60_000.0);
+                while (true) {
+                    double t = Math.min(nextArrival, nextServe);
+                    if (t >= minuteEnd) break;
+                    if (nextServe <= nextArrival) { sim.add((int) t, SERVE, 0, 0); nextServe += serveGap; continue; }
+                    int pid = 1 + r.nextInt(s.patients);
+                    if (severity[pid] == 0) {
+                        double u = r.nextDouble(); int sev = 1;
+                        while (u > SEVERITY_CDF[sev - 1]) sev++;
+                        severity[pid] = sev;
+                        sim.add((int) t, REG, pid, sev);
+                    }
+                    if (severity[pid] <= 2 || severity[pid] == 3 && r.nextInt(10) < 3) {
+                        sim.add((int) t, TRIAGE, pid, 0);
+                        recentEmergencies[emergencies++ & 63] = pid;
+                    } else sim.add((int) t, BOOK, pid, 1 + r.nextInt(s.doctors));
+                    if (r.nextDouble() < s.undoShare) sim.add((int) t, UNDO, 0, 0); // a desk takes back its last action
+                    if (emergencies > 0 && r.nextDouble() < s.reassessShare) { // a waiting emergency is reassessed
+                        int p = recentEmergencies[r.nextInt(Math.min(emergencies, 64))];
+                        severity[p] = Math.max(1, Math.min(5, severity[p] + (r.nextBoolean() ? 1 : -1)));
+                        sim.add((int) t, REG, p, severity[p]);
+                    }
+                    nextArrival += -Math.log(1 - r.nextDouble()) * 60_000.0 / s.arrivalsPerMinute;
+                }
+            }
+            return sim;
         }
-        for (Token t : items) triage.insert(t, cmp);
-    }
 
-    private void rebuildQueueWithFront(Token token) {
-        List<Token> items = new ArrayList<>();
-        while (!routineQueue.isEmpty()) items.add(routineQueue.dequeue());
-        routineQueue.enqueue(token);
-        for (Token t : items) routineQueue.enqueue(t);
-    }
+        public void record(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                Scenario s = scenario;
+                out.writeInt(TRACE_MAGIC);
+                out.writeLong(s.seed); out.writeInt(s.doctors); out.writeInt(s.slotsPerDoctor); out.writeInt(s.patients);
+                out.writeInt(s.minutes); out.writeDouble(s.arrivalsPerMinute); out.writeInt(s.consultMinutes);
+                out.writeInt(s.graceMinutes); out.writeInt(s.escalateAfterMinutes); out.writeDouble(s.undoShare); out.writeDouble(s.reassessShare);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) { out.writeInt(at[i]); out.writeByte(op[i]); out.writeInt(argA[i]); out.writeInt(argB[i]); }
+            }
+        }
+        public static OpdSimulator replay(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() != TRACE_MAGIC) throw new IOException("Not an OPD trace: " + file);
+                Scenario s = new Scenario(in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readDouble(),
+                                          in.readInt(), in.readInt(), in.readInt(), in.readDouble(), in.readDouble());
+                OpdSimulator sim = new OpdSimulator(s);
+                for (int i = in.readInt(); i > 0; i--) sim.add(in.readInt(), in.readByte(), in.readInt(), in.readInt());
+                return sim;
+            }
+        }
 
-    /* Reports */
-    public String reportSummary() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("=== SUMMARY ===\n");
-        sb.append("Served: ").append(servedCount).append("\n");
-        sb.append("Pending: ").append(pendingCount).append("\n");
-        sb.append("Doctors:\n");
-        for (Doctor d : doctors.values()) {
-            sb.append(d).append("\n");
-            sb.append("  NextSlot: ").append(d.findNextFreeSlot()).append("\n");
-            sb.append("  PendingSlots: ").append(d.pendingCount()).append("\n");
+        // the day's doctors and slots, derived from the scenario alone
+        HospitalSystemSingle newSystem() {
+            Scenario s = scenario;
+            HospitalSystemSingle hs = new HospitalSystemSingle(s.patients, 1024);
+            for (int d = 1; d <= s.doctors; d++) {
+                Doctor doc = new Doctor(d, "Dr. " + d, d % 3 == 0 ? "Pediatrics" : "General");
+                for (int k = 0; k < s.slotsPerDoctor; k++) {
+                    int from = DAY_START + k * s.minutes / s.slotsPerDoctor, to = DAY_START + (k + 1) * s.minutes / s.slotsPerDoctor;
+                    doc.addSlot(new Slot(d * 100_000 + k, String.format("%02d:%02d", from / 60, from % 60), String.format("%02d:%02d", to / 60, to % 60)));
+                }
+                hs.addDoctor(doc);
+            }
+            hs.enableSchedule(DAY_START, s.graceMinutes, s.escalateAfterMinutes);
+            return hs;
         }
-        return sb.toString();
-    }
 
-    public List<Integer> topKFrequentPatients(int K) {
-        Map<Integer,Integer> freq = new HashMap<>();
-        // scan routine queue destructively then rebuild
-        List<Token> tmp = new ArrayList<>();
-        while (!routineQueue.isEmpty()) {
-            Token t = routineQueue.dequeue();
-            freq.put(t.patientId, freq.getOrDefault(t.patientId, 0) + 1);
-            tmp.add(t);
-        }
-        for (Token t : tmp) routineQueue.enqueue(t);
-
-        // triage: drain and rebuild
-        Comparator<Token> cmp = this::cmpByPatientSeverity;
-        List<Token> tr = new ArrayList<>();
-        Token cur;
-        while ((cur = triage.extractMin(cmp)) != null) {
-            freq.put(cur.patientId, freq.getOrDefault(cur.patientId, 0) + 1);
-            tr.add(cur);
-        }
-        for (Token t : tr) triage.insert(t, cmp);
-
-        PriorityQueue<Map.Entry<Integer,Integer>> pq = new PriorityQueue<>((a,b) -> Integer.compare(b.getValue(),
-         a.getValue()));
-        pq.addAll(freq.entrySet());
-        List<Integer> out = new ArrayList<>();
-        for (int i=0;i<K && !pq.isEmpty();i++) out.add(pq.poll().getKey());
-        return out;
+        // targetOpsPerSecond <= 0 runs flat out; otherwise latency counts from each event's due time
+        public String run(double targetOpsPerSecond) {
+            HospitalSystemSingle hs = newSystem();
+            hs.metrics().setEnabled(false); // timed here instead, every op
+            LatencyHistogram[] latency = new LatencyHistogram[OP_NAMES.length];
+            for (int i = 0; i < latency.length; i++) latency[i] = new LatencyHistogram();
+            LatencyHistogram[] wait = { new LatencyHistogram(), new LatencyHistogram() }; // simulated seconds, by TokenType
+            Map<Integer, Integer> issuedAt = new HashMap<>();
+            CRC32C served = new CRC32C();
+            int skipped = 0, noSlot = 0;
+            long start = System.nanoTime();
+            double gap = targetOpsPerSecond > 0 ? 1e9 / targetOpsPerSecond : 0;
+            for (int i = 0; i < size; i++) {
+                long due = start + (long) (i * gap), t0 = System.nanoTime();
+                if (gap > 0) {
+                    // park only when well ahead (parkNanos can oversleep by tens of us), spin the rest
+                    while (t0 < due) { if (due - t0 > 1_000_000) LockSupport.parkNanos(due - t0 - 500_000); else Thread.onSpinWait(); t0 = System.nanoTime(); }
+                    t0 = due;
+                }
+                int a = argA[i];
+                switch (op[i]) {
+                    case REG: hs.upsert(0, new Patient(a, "Patient " + a, 18 + a * 7 % 70, argB[i])); break;
+                    case BOOK:
+                    case TRIAGE: {
+                        if (hs.getPatient(a) == null) { skipped++; break; } // an undo took the registration back
+                        Token t = op[i] == BOOK ? hs.book(0, a, argB[i]) : hs.triage(0, a);
+                        if (t != null) issuedAt.put(t.tokenId, at[i]); else noSlot++;
+                        break;
+                    }
+                    case SERVE: {
+                        Token t = hs.serve(0);
+                        if (t == null) break;
+                        Integer issued = issuedAt.remove(t.tokenId);
+                        if (issued != null) wait[t.type.ordinal()].record((at[i] - issued) / 1000);
+                        for (int shift = 0; shift < 32; shift += 8) served.update(t.tokenId >>> shift);
+                        break;
+                    }
+                    case UNDO: hs.undo(0); break;
+                    case TICK: hs.advanceTo(a); break;
+                    default: throw new IllegalStateException("Unknown trace op " + op[i]);
+                }
+                latency[op[i]].record(System.nanoTime() - t0);
+            }
+            long elapsed = System.nanoTime() - start;
+            byte[] summary = hs.reportSummary().getBytes(StandardCharsets.UTF_8);
+            served.update(summary, 0, summary.length);
+
+            StringBuilder sb = new StringBuilder("=== OPD SIMULATION ===\n").append(scenario).append("\n");
+            sb.append(String.format("Events: %d in %d ms wall, %.0f ops/s (%s)%n", size, elapsed / 1_000_000, size / (elapsed / 1e9),
+                targetOpsPerSecond > 0 ? String.format("target %.0f ops/s", targetOpsPerSecond) : "max speed"));
+            sb.append(String.format("%-10s %9s %9s %9s %9s %9s%n", "op (us)", "count", "p50", "p99", "p99.9", "max"));
+            for (int k = 0; k < latency.length; k++) {
+                LatencyHistogram h = latency[k];
+                if (h.count() == 0) continue;
+                sb.append(String.format("%-10s %9d %9.2f %9.2f %9.2f %9.2f%n", OP_NAMES[k], h.count(),
+                    h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3, h.max() / 1e3));
+            }
+            for (Token.TokenType type : Token.TokenType.values()) {
+                LatencyHistogram h = wait[type.ordinal()];
+                sb.append(String.format("Wait %-9s served %6d, simulated minutes p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n", type, h.count(),
+                    h.percentile(50) / 60.0, h.percentile(90) / 60.0, h.percentile(99) / 60.0, h.max() / 60.0));
+            }
+            int slots = 0, booked = 0;
+            for (Doctor d : hs.doctors.values()) { slots += d.slotCount(); booked += d.slotCount() - d.pendingCount(); }
+            sb.append(String.format("Slots: %d of %d booked (%.1f%% utilization), %d bookings found no slot%n",
+                booked, slots, 100.0 * booked / slots, noSlot));
+            sb.append(String.format("Outcome: %d served, %d no-shows, %d escalations, %d still pending, %d skipped (patient undone)%n",
+                hs.servedCount, hs.expiredCount, hs.escalatedCount, hs.pendingCount, skipped));
+            sb.append(String.format("Fingerprint: %08x (served order + final summary; equal across versions means the same day)%n", served.getValue()));
+            return sb.toString();
+        }
     }
 
     /* ----------------------------- CLI & demo ----------------------------- */
@@ -408,10 +3753,13 @@ public class HospitalSystemSingle {
         System.out.println("5. Undo");
         System.out.println("6. Reports");
         System.out.println("7. Exit");
+        System.out.println("8. Redo");
+        System.out.println("9. Metrics");
+        System.out.println("10. Search Patients");
+        System.out.println("11. Remove Patient");
         System.out.print("Choose: ");
     }
-    public static void main(String[] args) {
-        HospitalSystemSingle hs = new HospitalSystemSingle(31, 20);
+    private static void seedDemo(HospitalSystemSingle hs) {
         // Seed doctors & slots
         Doctor d1 = new Doctor(1, "Dr. Rao", "General");
         d1.addSlot(new Slot(101, "09:00", "09:15"));
@@ -434,13 +3782,107 @@ public class HospitalSystemSingle {
         System.out.println("Serve next (should serve Bob due to triage): " + hs.serveNext());
         System.out.println("Serve next (should serve Alice): " + hs.serveNext());
         System.out.println(hs.reportSummary());
+    }
+    // journal options from args[from..]: [--fsync every_op|group|none] [--group-ops n] [--group-millis ms]
+    private static HospitalSystemSingle openDataDir(Path dir, int tableSize, int queueCapacity, int snapshotEveryOps,
+                                                    String[] args, int from) throws IOException {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = from; i + 1 < args.length; i += 2) opt.put(args[i], args[i + 1]);
+        return recover(dir, tableSize, queueCapacity, Journal.FsyncPolicy.valueOf(opt.getOrDefault("--fsync", "group").toUpperCase(Locale.ROOT)),
+            Integer.parseInt(opt.getOrDefault("--group-ops", String.valueOf(Journal.DEFAULT_GROUP_OPS))),
+            Long.parseLong(opt.getOrDefault("--group-millis", String.valueOf(Journal.DEFAULT_GROUP_MILLIS))), snapshotEveryOps);
+    }
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("server")) {
+            // server [port] [dataDir [journal options]]: line-protocol TCP front end (see CommandServer)
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+            try {
+                HospitalSystemSingle hs = args.length > 2 ? openDataDir(Paths.get(args[2]), 1024, 256, 100_000, args, 3)
+                                                          : new HospitalSystemSingle(1024, 256);
+                if (hs.doctors.isEmpty()) seedDemo(hs);
+                try { hs.registerMBean("server"); } catch (JMException e) { System.out.println("Metrics MBean not registered: " + e.getMessage()); }
+                CommandServer server = new CommandServer(hs, port);
+                Thread loop = Thread.currentThread();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.close();
+                    try { loop.join(); hs.closeJournal(); } catch (Exception e) { System.out.println("Shutdown: " + e); }
+                }));
+                System.out.println("Listening on port " + server.port());
+                server.run();
+            } catch (IOException | IllegalArgumentException e) { System.out.println("Server failed: " + e.getMessage()); }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("loadtest")) {
+            // loadtest [clients] [requestsPerClient] [pipelineDepth] [host:port]; without host:port an
+            // in-process server is started on a free loopback port
+            int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+            int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+            int depth = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+            try {
+                String host = "127.0.0.1"; int port; CommandServer local = null;
+                if (args.length > 4) { host = args[4].substring(0, args[4].lastIndexOf(':')); port = Integer.parseInt(args[4].substring(args[4].lastIndexOf(':') + 1)); }
+                else {
+                    HospitalSystemSingle hs = new HospitalSystemSingle(10_000, 1024);
+                    setupDay(hs, 100, clients * requests / 100 + 1, 10_000);
+                    local = new CommandServer(hs, 0);
+                    port = local.port();
+                    Thread t = new Thread(local, "command-server"); t.setDaemon(true); t.start();
+                }
+                System.out.println(CommandClient.loadTest(host, port, clients, requests / 10, depth) + " (warm-up)");
+                System.out.println(CommandClient.loadTest(host, port, clients, requests, depth));
+                if (local != null) local.close();
+            } catch (Exception e) { System.out.println("Load test failed: " + e); }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("simulate")) {
+            // simulate [--seed n] [--doctors n] [--patients n] [--rate opsPerSec] [--record file | --replay file]
+            Map<String, String> opt = new HashMap<>();
+            for (int i = 1; i + 1 < args.length; i += 2) opt.put(args[i], args[i + 1]);
+            try {
+                OpdSimulator sim = opt.containsKey("--replay") ? OpdSimulator.replay(Paths.get(opt.get("--replay")))
+                    : OpdSimulator.generate(OpdSimulator.Scenario.day(Long.parseLong(opt.getOrDefault("--seed", "42")),
+                        Integer.parseInt(opt.getOrDefault("--doctors", "50")), Integer.parseInt(opt.getOrDefault("--patients", "20000"))));
+                if (opt.containsKey("--record")) { sim.record(Paths.get(opt.get("--record"))); System.out.println("Recorded " + sim.events() + " events to " + opt.get("--record")); }
+                for (int i = 0; i < 3; i++) sim.run(0); // JIT warm-up on throwaway systems
+                System.out.print(sim.run(Double.parseDouble(opt.getOrDefault("--rate", "0"))));
+            } catch (IOException e) { System.out.println("Simulation failed: " + e.getMessage()); }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("import")) {
+            // import <doctors.csv|-> <slots.csv|-> <patients.csv|-> [threads]
+            if (args.length < 4) { System.out.println("Usage: import <doctors.csv|-> <slots.csv|-> <patients.csv|-> [threads]"); return; }
+            Path[] files = new Path[3];
+            for (int i = 0; i < 3; i++) files[i] = args[i + 1].equals("-") ? null : Paths.get(args[i + 1]);
+            try {
+                HospitalSystemSingle hs = new HospitalSystemSingle(16, 16);
+                System.out.println(hs.bulkImport(files[0], files[1], files[2],
+                    args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors()));
+                System.out.println(hs.reportSummary());
+            } catch (IOException e) { System.out.println("Import failed: " + e.getMessage()); }
+            return;
+        }
+        // --data <dir> [journal options]: journaled state that survives restarts
+        boolean persistent = args.length > 1 && args[0].equals("--data");
+        HospitalSystemSingle hs;
+        try {
+            hs = persistent ? openDataDir(Paths.get(args[1]), 31, 20, 10_000, args, 2)
+                            : new HospitalSystemSingle(31, 20);
+        } catch (IOException | IllegalArgumentException e) { System.out.println("Cannot open data dir: " + e.getMessage()); return; }
+        hs.metrics().setSampleEvery(1); // interactive: time every operation
+        try { hs.registerMBean("cli"); } catch (JMException e) { System.out.println("Metrics MBean not registered: " + e.getMessage()); }
+        if (hs.doctors.isEmpty()) seedDemo(hs);
+        else System.out.println("Recovered state:\n" + hs.reportSummary());
+        hs.enableIndexes();
         // Interactive CLI
         Scanner sc = new Scanner(System.in);
         while (true) {
             printMenu();
             int choice = -1;
             try { choice = Integer.parseInt(sc.nextLine().trim()); } catch (Exception e) { choice = -1; }
-            if (choice == 7) { System.out.println("Bye"); break; }
+            if (choice == 7) {
+                try { hs.closeJournal(); } catch (IOException e) { System.out.println("Journal close failed: " + e.getMessage()); }
+                System.out.println("Bye"); break;
+            }
             switch (choice) {
                 case 1:
                     try {
@@ -457,7 +3899,7 @@ public class HospitalSystemSingle {
                         System.out.print("Patient id: "); int pid = Integer.parseInt(sc.nextLine().trim());
                         System.out.print("Doctor id: "); int did = Integer.parseInt(sc.nextLine().trim());
                         boolean ok = hs.bookRoutine(pid, did);
-                        System.out.println(ok ? "Booked" : "Booking failed (no slot / queue full)");
+                        System.out.println(ok ? "Booked" : "Booking failed (no free slot)");
                     } catch (Exception ex) { System.out.println("Invalid input."); }
                     break;
                 case 3:
@@ -467,13 +3909,36 @@ public class HospitalSystemSingle {
                 case 4:
                     try {
                         System.out.print("Patient id for triage: "); int pid = Integer.parseInt(sc.nextLine().trim());
-                        hs.triageInsert(pid);
-                        System.out.println("Inserted in emergency triage");
+                        System.out.println(hs.triageInsert(pid) ? "Inserted in emergency triage" : "Patient not found.");
                     } catch (Exception ex) { System.out.println("Invalid input."); }
                     break;
                 case 5:
                     System.out.println(hs.undo());
                     break;
+                case 8:
+                    System.out.println(hs.redo());
+                    break;
+                case 9:
+                    System.out.println(hs.metricsReport());
+                    break;
+                case 10:
+                    try {
+                        System.out.print("Name prefix (blank = any): "); String prefix = sc.nextLine().trim();
+                        System.out.print("Age range min-max (blank = any): "); String ages = sc.nextLine().trim();
+                        System.out.print("Max severity (blank = any): "); String sev = sc.nextLine().trim();
+                        int minAge = ages.isEmpty() ? Integer.MIN_VALUE : Integer.parseInt(ages.split("-")[0].trim());
+                        int maxAge = ages.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(ages.split("-")[1].trim());
+                        int maxSev = sev.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(sev);
+                        hs.searchByName(prefix).filter(p -> p.age >= minAge && p.age <= maxAge && p.severity <= maxSev)
+                          .limit(20).forEach(p -> System.out.println(p + " pending tokens: " + hs.pendingTokens(p.id)));
+                    } catch (Exception ex) { System.out.println("Invalid input."); }
+                    break;
+                case 11:
+                    try {
+                        System.out.print("Patient id: "); int pid = Integer.parseInt(sc.nextLine().trim());
+                        System.out.println(hs.removePatient(pid) ? "Removed: " + pid : "Patient not found.");
+                    } catch (Exception ex) { System.out.println("Invalid input."); }
+                    break;
                 case 6:
                     System.out.println(hs.reportSummary());
                     System.out.println("Top 3 frequent patients: " + hs.topKFrequentPatients(3));
@@ -487,11 +3952,21 @@ public class HospitalSystemSingle {
 }
 
     /* ----------------------------- Complexity Notes (summary) -----------------------------
-     * Queue enqueue/dequeue: O(1) time, O(1) space per op
+     * Queue enqueue/dequeue/pushFront/remove(tokenId): O(1) (amortised; tombstones compacted in bulk)
      * Heap insert/extract-min: O(log n) time, O(1) space per op; O(n) total space
-     * Hash search/insert (average): O(1) time, O(1) space per op (O(m) table)
-     * Linked list insert at tail: O(1) (tail maintained); delete: O(k)
-     * Stack push/pop (undo): O(1)
-     * Find next free slot: O(k)
-     * Reports: O(k) per doctor; Top-K naive: O(n log K)
+     * Heap remove(tokenId)/updatePriority: O(log n) via tokenId -> position index
+     * Hash search/insert/delete (average): O(1), linear probing; resize drained incrementally
+     * Patient indexes: O(log n) per indexed write; prefix/range query O(log n) + lazy O(1) per result
+     * Columnar store search/insert/delete (average): O(1) plus O(name length) to intern/decode a name
+     * Doctor schedule add/cancel/book/unbook: O(log k) (slotId map + free TreeSet)
+     * Undo log record/undo/redo: O(1), bounded ring of primitive arrays (overwrites the oldest)
+     * Find next free slot / first free at-or-after T: O(log k); free count: O(1)
+     * Earliest slot in a specialization: O(log D) pick + O(log k) book; re-rank on schedule change O(log k + log D);
+     *   clock advance re-ranks only doctors whose first free slot passed, O(S log D) per day in total
+     * Reports: O(log k) per doctor; Top-K: O(K) from incrementally maintained frequency buckets
+     * Metrics: O(1) histogram record per sampled op; percentiles O(buckets); probe stats O(capacity)
+     * Sharded mode: O(1) wait-free mailbox submit; each shard runs the single-desk costs above
+     * Snapshots: O(1) record per mutation on the writer; the reader replays them and copies O(pending) per publish
+     * Timing wheel: O(1) schedule/cancel; advancing fires each timer in O(1) amortised (<= 3 cascades)
+     * Bulk import: O(bytes / threads) parse + O(records) apply; one store resize, no undo or journal records
      * ----------------------------------------------------------------------------------*/
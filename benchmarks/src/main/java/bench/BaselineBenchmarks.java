@@ -0,0 +1,191 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.baseline.HospitalSystemSingle.CircularQueue;
+import bench.baseline.HospitalSystemSingle.Doctor;
+import bench.baseline.HospitalSystemSingle.MinHeapTriage;
+import bench.baseline.HospitalSystemSingle.Patient;
+import bench.baseline.HospitalSystemSingle.PatientHashTable;
+import bench.baseline.HospitalSystemSingle.Slot;
+import bench.baseline.HospitalSystemSingle.Token;
+
+/* The "before" of every structural optimization: the baseline system (bench.baseline) through the
+ * benchmarks of StructureBenchmarks and WorkflowBenchmarks, with the same method names, params
+ * and workloads, so `java -jar benchmarks.jar "(Baseline|Structure|Workflow)Benchmarks"` prints
+ * both sides. Where the baseline had no such operation, the benchmark does what a caller had to
+ * do with it (noted per benchmark). */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class BaselineBenchmarks {
+    static Token token(int id, int patientId) { return new Token(id, patientId, 1, id, Token.TokenType.ROUTINE); }
+
+    // fixed capacity: sized for `size` tokens plus the one in flight
+    @State(Scope.Thread)
+    public static class Queue {
+        @Param({ "1000", "100000" }) public int size;
+        CircularQueue q;
+        int next;
+        @Setup public void setup() {
+            q = new CircularQueue(size + 1);
+            for (int i = 0; i < size; i++) q.enqueue(token(i, i));
+            next = size;
+        }
+    }
+    @Benchmark public Token queueEnqueueDequeue(Queue s) { s.q.enqueue(token(s.next++, 7)); return s.q.dequeue(); }
+    // no remove: drain and re-enqueue the rest, as undo's rebuildQueueWithoutToken did
+    @Benchmark public boolean queueRemoveByTokenId(Queue s) {
+        int t = s.next++;
+        s.q.enqueue(token(t, 7));
+        return rebuildWithout(s.q, t - s.size / 2);
+    }
+    static boolean rebuildWithout(CircularQueue q, int tokenId) {
+        List<Token> items = new ArrayList<>();
+        boolean found = false;
+        while (!q.isEmpty()) {
+            Token t = q.dequeue();
+            if (t.tokenId != tokenId) items.add(t); else found = true;
+        }
+        for (Token t : items) q.enqueue(t);
+        return found;
+    }
+
+    // heap ordered by cmpByPatientSeverity: every comparison looks both patients up in the table
+    @State(Scope.Thread)
+    public static class Triage {
+        @Param({ "1000", "100000" }) public int size;
+        MinHeapTriage h;
+        PatientHashTable patients;
+        Comparator<Token> cmp;
+        final Random r = new Random(1);
+        int next;
+        @Setup public void setup() {
+            patients = new PatientHashTable(size);
+            for (int i = 0; i < size; i++) patients.upsert(new Patient(i, "P", 30, r.nextInt(5)));
+            cmp = (a, b) -> {
+                Patient pa = patients.get(a.patientId), pb = patients.get(b.patientId);
+                return Integer.compare(pa == null ? Integer.MAX_VALUE : pa.severity, pb == null ? Integer.MAX_VALUE : pb.severity);
+            };
+            h = new MinHeapTriage();
+            for (int i = 0; i < size; i++) h.insert(token(i, i), cmp);
+            next = size;
+        }
+    }
+    @Benchmark public Token triageInsertExtractMin(Triage s) { s.h.insert(token(s.next++, s.r.nextInt(s.size)), s.cmp); return s.h.extractMin(s.cmp); }
+    // no updatePriority: change the severity, then drain and re-insert so the heap is ordered again
+    @Benchmark public int triageUpdatePriority(Triage s) {
+        s.patients.get(s.r.nextInt(s.size)).severity = s.r.nextInt(5);
+        List<Token> items = new ArrayList<>(s.h.size());
+        for (Token t; (t = s.h.extractMin(s.cmp)) != null; ) items.add(t);
+        for (Token t : items) s.h.insert(t, s.cmp);
+        return items.size();
+    }
+
+    // chained table with a fixed bucket count: size / loadFactor buckets, keys spread (id * 7)
+    @State(Scope.Thread)
+    public static class Store {
+        @Param({ "0.5", "0.75", "0.9" }) public float loadFactor;
+        @Param({ "1000", "100000" }) public int size;
+        PatientHashTable t;
+        final Random r = new Random(2);
+        final Patient spare = new Patient(-1, "P", 30, 3);
+        @Setup public void setup() {
+            t = new PatientHashTable((int) Math.ceil(size / loadFactor));
+            for (int i = 0; i < size; i++) t.upsert(new Patient(i * 7, "P", 30, 3));
+        }
+    }
+    @Benchmark public Patient storeGet(Store s) { return s.t.get(s.r.nextInt(s.size) * 7); }
+    @Benchmark public void storeUpsertDelete(Store s) {
+        int k = s.r.nextInt(s.size) * 7;
+        s.t.delete(k); s.t.upsert(s.spare); s.t.delete(-1); s.t.upsert(new Patient(k, "P", 30, 3));
+    }
+
+    // one doctor with `size` slots in a SlotNode list, the first half of them booked
+    @State(Scope.Thread)
+    public static class Schedule {
+        @Param({ "1000", "100000" }) public int size;
+        Doctor d;
+        final Random r = new Random(3);
+        @Setup public void setup() {
+            d = new Doctor(1, "Dr", "General");
+            for (int i = 0; i < size; i++) d.addSlot(new Slot(i, String.format("%02d:%02d", i / 60 % 24, i % 60), "23:59"));
+            for (int i = 0; i < size / 2; i++) d.bookSlot(i);
+        }
+    }
+    // no unbookSlot: clear the flag, as undo did
+    @Benchmark public boolean doctorFindNextFreeAndBook(Schedule s) {
+        Slot slot = s.d.findNextFreeSlot();
+        boolean ok = s.d.bookSlot(slot.slotId);
+        slot.booked = false;
+        return ok;
+    }
+    // no time query: scan getAllSlots() comparing the "HH:mm" strings
+    @Benchmark public Slot doctorFreeSlotAtOrAfter(Schedule s) {
+        int m = s.r.nextInt(24 * 60);
+        String from = String.format("%02d:%02d", m / 60, m % 60);
+        for (Slot slot : s.d.getAllSlots()) if (!slot.booked && slot.startTime.compareTo(from) >= 0) return slot;
+        return null;
+    }
+
+    // WorkflowBenchmarks.Day on the baseline system; the routine queue cannot grow, so it is sized for the day
+    static void setupDay(bench.baseline.HospitalSystemSingle hs, int doctorCount, int slotsPerDoctor, int patientCount) {
+        for (int d = 1; d <= doctorCount; d++) {
+            Doctor doc = new Doctor(d, "Dr. " + d, d % 2 == 0 ? "General" : "Pediatrics");
+            for (int k = 0; k < slotsPerDoctor; k++)
+                doc.addSlot(new Slot(d * 100_000 + k, String.format("%02d:%02d", 8 + k / 20 % 12, k % 20 * 3), "20:00"));
+            hs.addDoctor(doc);
+        }
+        for (int p = 1; p <= patientCount; p++) hs.upsertPatient(new Patient(p, "Patient " + p, 1 + p % 90, 1 + p % 5));
+    }
+    @State(Scope.Thread)
+    public static class Day {
+        @Param({ "1000", "100000" }) public int size;
+        bench.baseline.HospitalSystemSingle hs;
+        Patient newcomer;
+        @Setup public void setup() {
+            hs = new bench.baseline.HospitalSystemSingle(size, 4 * size);
+            setupDay(hs, 100, Math.max(10, size / 75), size);
+            Random r = new Random(5);
+            for (int i = 0; i < size; i++) {
+                if (i % 4 == 0) hs.triageInsert(1 + r.nextInt(size));
+                else hs.bookRoutine(1 + r.nextInt(size), 1 + r.nextInt(100));
+            }
+            newcomer = new Patient(size + 1, "New", 30, 3);
+        }
+    }
+    @Benchmark public String undoRegister(Day s) { s.hs.upsertPatient(s.newcomer); return s.hs.undo(); }
+    @Benchmark public String undoBook(Day s) { s.hs.bookRoutine(1, 1); return s.hs.undo(); }
+    @Benchmark public String undoTriage(Day s) { s.hs.triageInsert(2); return s.hs.undo(); }
+    @Benchmark public String undoServe(Day s) { s.hs.serveNext(); return s.hs.undo(); }
+    @Benchmark public List<Integer> topKFrequentPatients(Day s) { return s.hs.topKFrequentPatients(10); }
+
+    // WorkflowBenchmarks.mixed (the baseline has no metrics to switch)
+    @State(Scope.Thread)
+    public static class Mixed {
+        @Param({ "1000", "100000" }) public int size;
+        bench.baseline.HospitalSystemSingle hs;
+        final Random r = new Random(4);
+        @Setup public void setup() {
+            hs = new bench.baseline.HospitalSystemSingle(size, 4 * size);
+            setupDay(hs, 100, Math.max(10, size / 75), size);
+        }
+    }
+    @Benchmark public void mixed(Mixed s) {
+        bench.baseline.HospitalSystemSingle hs = s.hs;
+        int pid = 1 + s.r.nextInt(s.size), dice = s.r.nextInt(100);
+        if (dice < 15) hs.upsertPatient(new Patient(pid, "Patient " + pid, 1 + pid % 90, 1 + s.r.nextInt(5)));
+        else if (dice < 50) hs.bookRoutine(pid, 1 + s.r.nextInt(100));
+        else if (dice < 65) { if (hs.getPatient(pid) != null) hs.triageInsert(pid); }
+        else if (dice < 95) hs.serveNext();
+        else hs.undo();
+    }
+}
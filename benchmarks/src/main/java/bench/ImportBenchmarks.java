@@ -0,0 +1,89 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.HospitalSystemSingle.Doctor;
+import bench.HospitalSystemSingle.ImportReport;
+import bench.HospitalSystemSingle.Patient;
+import bench.HospitalSystemSingle.Slot;
+
+/* Startup-to-ready: rosters and a registry written once as CSV, then loaded into a fresh system
+ * per shot, record by record (BufferedReader, split, addDoctor/addSlot/upsertPatient) or with
+ * bulkImport on `threads` parser threads. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class ImportBenchmarks {
+    @Param({ "500" }) public int doctors;
+    @Param({ "400" }) public int slotsPerDoctor;
+    @Param({ "1000000" }) public int patients;
+    @Param({ "1", "4" }) public int threads;
+    Path dir, dcsv, scsv, pcsv;
+
+    @Setup public void setup() throws IOException {
+        dir = Files.createTempDirectory("hs-import");
+        dcsv = dir.resolve("doctors.csv"); scsv = dir.resolve("slots.csv"); pcsv = dir.resolve("patients.csv");
+        Random r = new Random(11);
+        try (BufferedWriter w = Files.newBufferedWriter(dcsv)) {
+            w.write("id,name,specialization\n");
+            for (int d = 1; d <= doctors; d++) w.write(d + ",Dr. " + d + "," + (d % 2 == 0 ? "General" : "Pediatrics") + "\n");
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(scsv)) {
+            w.write("doctorId,slotId,start,end,booked\n");
+            for (int d = 1; d <= doctors; d++)
+                for (int k = 0; k < slotsPerDoctor; k++) {
+                    int start = 8 * 60 + k % 240 * 3;
+                    w.write(d + "," + (d * 100_000 + k) + "," + String.format("%02d:%02d,%02d:%02d", start / 60, start % 60, (start + 3) / 60, (start + 3) % 60)
+                        + "," + (r.nextInt(4) == 0 ? 1 : 0) + "\n");
+                }
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(pcsv)) {
+            w.write("id,name,age,severity\n");
+            for (int p = 1; p <= patients; p++) w.write(p + ",Patient " + p + "," + (1 + r.nextInt(90)) + "," + (1 + r.nextInt(5)) + "\n");
+        }
+    }
+    @TearDown public void tearDown() throws IOException {
+        for (Path f : new Path[]{ dcsv, scsv, pcsv, dir }) Files.deleteIfExists(f);
+    }
+
+    @Benchmark public ImportReport bulkImport() throws IOException {
+        return new HospitalSystemSingle(16, 16).bulkImport(dcsv, scsv, pcsv, threads);
+    }
+
+    // the baseline does not use threads; run it with -p threads=1
+    @Benchmark public HospitalSystemSingle perObjectLoad() throws IOException {
+        HospitalSystemSingle hs = new HospitalSystemSingle(16, 16);
+        try (BufferedReader in = Files.newBufferedReader(dcsv)) {
+            in.readLine();
+            for (String line; (line = in.readLine()) != null; ) { String[] f = line.split(","); hs.addDoctor(new Doctor(Integer.parseInt(f[0]), f[1], f[2])); }
+        }
+        try (BufferedReader in = Files.newBufferedReader(scsv)) {
+            in.readLine();
+            for (String line; (line = in.readLine()) != null; ) {
+                String[] f = line.split(",");
+                Slot slot = new Slot(Integer.parseInt(f[1]), f[2], f[3]);
+                slot.booked = f[4].equals("1"); // before the slot is added, so it never enters the free index
+                hs.addSlot(Integer.parseInt(f[0]), slot);
+            }
+        }
+        try (BufferedReader in = Files.newBufferedReader(pcsv)) {
+            in.readLine();
+            for (String line; (line = in.readLine()) != null; ) {
+                String[] f = line.split(",");
+                hs.upsertPatient(new Patient(Integer.parseInt(f[0]), f[1], Integer.parseInt(f[2]), Integer.parseInt(f[3])));
+            }
+        }
+        return hs;
+    }
+}
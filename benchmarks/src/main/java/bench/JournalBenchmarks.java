@@ -0,0 +1,66 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.HospitalSystemSingle.Journal;
+
+/* Journaling: the mixed workload against a journaled system under each fsync policy (compare
+ * with WorkflowBenchmarks.mixed for the unjournaled cost), and the time to recover a data
+ * directory by replaying `ops` operations. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class JournalBenchmarks {
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Journaled {
+        @Param({ "NONE", "GROUP", "EVERY_OP" }) public Journal.FsyncPolicy policy;
+        Path dir;
+        HospitalSystemSingle hs;
+        final Random r = new Random(42);
+        @Setup public void setup() throws IOException {
+            dir = Files.createTempDirectory("hs-journal");
+            hs = HospitalSystemSingle.recover(dir, 1024, 256, policy, 0);
+            HospitalSystemSingle.setupDay(hs, 100, 200, 10_000);
+        }
+        @TearDown public void tearDown() throws IOException { hs.closeJournal(); delete(dir); }
+    }
+    @Benchmark public void mixedJournaled(Journaled s) { HospitalSystemSingle.mixedStep(s.hs, s.r, 10_000, 100); }
+
+    @State(Scope.Thread)
+    public static class Log {
+        @Param({ "200000" }) public int ops;
+        Path dir;
+        @Setup public void setup() throws IOException {
+            dir = Files.createTempDirectory("hs-replay");
+            HospitalSystemSingle hs = HospitalSystemSingle.recover(dir, 1024, 256, Journal.FsyncPolicy.NONE, 0);
+            HospitalSystemSingle.setupDay(hs, 100, 200, 10_000);
+            Random r = new Random(42);
+            for (int i = 0; i < ops; i++) HospitalSystemSingle.mixedStep(hs, r, 10_000, 100);
+            hs.closeJournal();
+        }
+        @TearDown public void tearDown() throws IOException { delete(dir); }
+    }
+    // replays the whole journal (setup included); nothing new is written, so every shot is the same
+    @Benchmark @BenchmarkMode(Mode.SingleShotTime) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public HospitalSystemSingle recover(Log s) throws IOException {
+        HospitalSystemSingle hs = HospitalSystemSingle.recover(s.dir, 1024, 256, Journal.FsyncPolicy.NONE, 0);
+        hs.closeJournal();
+        return hs;
+    }
+}
@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.HospitalSystemSingle.Doctor;
+import bench.HospitalSystemSingle.Patient;
+import bench.HospitalSystemSingle.Slot;
+
+/* One simulated day (08:00-20:00) of `doctors` x `slotsPerDoctor` slots. Single-shot: every
+ * iteration starts from a fresh day. bookDay books every slot with and without the schedule (the
+ * difference is the timer arm cost); runDay advances a fully booked day minute by minute, serving
+ * `servedPerMinute` tokens each minute so the rest expire as no-shows. */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ScheduleBenchmarks {
+    static final int OPEN = 480, CLOSE = 1200, GRACE = 10;
+
+    static HospitalSystemSingle day(int doctors, int slotsPerDoctor) {
+        HospitalSystemSingle hs = new HospitalSystemSingle(doctors * slotsPerDoctor * 2, 1024);
+        for (int d = 1; d <= doctors; d++) {
+            Doctor doc = new Doctor(d, "Dr. " + d, "General");
+            for (int k = 0; k < slotsPerDoctor; k++) {
+                int m = OPEN + k * (CLOSE - OPEN) / slotsPerDoctor;
+                doc.addSlot(new Slot(d * 100_000 + k, String.format("%02d:%02d", m / 60, m % 60), "20:00"));
+            }
+            hs.addDoctor(doc);
+        }
+        for (int p = 1; p <= doctors * slotsPerDoctor; p++) hs.upsertPatient(new Patient(p, "Patient " + p, 30, 1 + p % 5));
+        return hs;
+    }
+
+    @State(Scope.Thread)
+    public static class Unbooked {
+        @Param({ "false", "true" }) public boolean scheduled;
+        @Param({ "100" }) public int doctors;
+        @Param({ "300" }) public int slotsPerDoctor;
+        HospitalSystemSingle hs;
+        @Setup(Level.Iteration) public void setup() {
+            hs = day(doctors, slotsPerDoctor);
+            if (scheduled) hs.enableSchedule(OPEN - 10, GRACE, 0);
+        }
+    }
+    @Benchmark public int bookDay(Unbooked s) {
+        int booked = 0;
+        for (int p = 1; p <= s.doctors * s.slotsPerDoctor; p++) if (s.hs.bookRoutine(p, 1 + p % s.doctors)) booked++;
+        return booked;
+    }
+
+    @State(Scope.Thread)
+    public static class Booked {
+        @Param({ "100" }) public int doctors;
+        @Param({ "300" }) public int slotsPerDoctor;
+        @Param({ "30" }) public int servedPerMinute;
+        HospitalSystemSingle hs;
+        @Setup(Level.Iteration) public void setup() {
+            hs = day(doctors, slotsPerDoctor);
+            hs.enableSchedule(OPEN - 10, GRACE, 0);
+            for (int p = 1; p <= doctors * slotsPerDoctor; p++) hs.bookRoutine(p, 1 + p % doctors);
+        }
+    }
+    // every token is released once and no-shows fire a second timer; returns the no-show count
+    @Benchmark public int runDay(Booked s) {
+        while (s.hs.clock() <= CLOSE + GRACE) {
+            s.hs.advanceClock(1);
+            for (int i = 0; i < s.servedPerMinute; i++) s.hs.serveNext();
+        }
+        return s.hs.expiredCount();
+    }
+}
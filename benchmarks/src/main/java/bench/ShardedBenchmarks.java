@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.HospitalSystemSingle.Doctor;
+import bench.HospitalSystemSingle.Patient;
+import bench.HospitalSystemSingle.ShardedHospitalSystem;
+import bench.HospitalSystemSingle.Slot;
+
+/* Department scaling: every benchmark thread is the client of one department (thread index
+ * modulo `departments`) driving book/triage/serve, through the sharded router with up to 256
+ * commands in flight ("sharded") or against one shared HospitalSystemSingle behind a lock
+ * ("shared"). Run with as many threads as departments, e.g. -t 4 -p departments=4. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ShardedBenchmarks {
+    static final int DOCTORS = 20, PATIENTS = 10_000, SLOTS = 2_000;
+    @Param({ "1", "2", "4" }) public int departments;
+    @Param({ "sharded", "shared" }) public String mode;
+    ShardedHospitalSystem sys;
+    HospitalSystemSingle shared;
+    final AtomicInteger clients = new AtomicInteger();
+
+    @Setup public void setup() {
+        boolean sharded = mode.equals("sharded");
+        if (sharded) sys = new ShardedHospitalSystem(departments, PATIENTS, 1024); else shared = new HospitalSystemSingle(PATIENTS, 1024);
+        for (int dep = 0; dep < departments; dep++)
+            for (int i = 0; i < DOCTORS; i++) {
+                int id = dep * DOCTORS + i + 1;
+                Doctor doc = new Doctor(id, "Dr. " + id, "Dept-" + dep);
+                for (int s = 0; s < SLOTS; s++) doc.addSlot(new Slot(id * 1_000_000 + s, String.format("%02d:%02d", 8 + s / 60 % 12, s % 60), "23:59"));
+                if (sharded) sys.addDoctor(doc); else shared.addDoctor(doc);
+            }
+        for (int p = 1; p <= PATIENTS; p++) {
+            Patient pt = new Patient(p, "P" + p, 20 + p % 60, p % 5);
+            if (sharded) sys.upsertPatient(pt); else shared.upsertPatient(pt);
+        }
+        if (sharded) for (int dep = 0; dep < departments; dep++) sys.serveNext("Dept-" + dep).join(); // setup applied
+    }
+    @TearDown public void tearDown() { if (sys != null) sys.close(); }
+
+    @State(Scope.Thread)
+    public static class Client {
+        int department, ops;
+        String spec;
+        Random r;
+        CompletableFuture<?> last;
+        @Setup public void setup(ShardedBenchmarks b) {
+            department = b.clients.getAndIncrement() % b.departments;
+            spec = "Dept-" + department;
+            r = new Random(department);
+        }
+        @TearDown public void drain() { if (last != null) last.join(); }
+    }
+
+    @Benchmark public void mixed(Client c) {
+        int dice = c.r.nextInt(10), pid = 1 + c.r.nextInt(PATIENTS), doctorId = c.department * DOCTORS + 1 + c.r.nextInt(DOCTORS);
+        if (sys != null) {
+            c.last = dice < 4 ? sys.bookRoutine(pid, doctorId) : dice < 6 ? sys.triageInsert(pid, c.spec) : sys.serveNext(c.spec);
+            if (++c.ops % 256 == 0) c.last.join(); // bound the commands in flight
+        } else synchronized (shared) {
+            if (dice < 4) shared.bookRoutine(pid, doctorId); else if (dice < 6) shared.triageInsert(pid); else shared.serveNext();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.HospitalSystemSingle.StateSnapshot;
+
+/* Cost of StateSnapshot publishing on the writer: the mixed workload with snapshots off or
+ * published every `publishMillis`, alone (writer) and with a dashboard thread rendering
+ * snapshot().report() in a loop (dashboard group: writer + reader). `-bm sample` gives the
+ * writer's per-op latency percentiles. */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class SnapshotBenchmarks {
+    @Param({ "off", "0", "20" }) public String publishMillis;
+    HospitalSystemSingle hs;
+    final Random r = new Random(42);
+
+    @Setup public void setup() {
+        hs = new HospitalSystemSingle(1024, 256);
+        HospitalSystemSingle.setupDay(hs, 100, 200, 10_000);
+        if (!publishMillis.equals("off")) hs.enableSnapshots(Long.parseLong(publishMillis));
+    }
+
+    @Benchmark @Group("writer") @GroupThreads(1)
+    public void writer() { HospitalSystemSingle.mixedStep(hs, r, 10_000, 100); }
+
+    @Benchmark @Group("dashboard") @GroupThreads(1)
+    public void dashboardWriter() { HospitalSystemSingle.mixedStep(hs, r, 10_000, 100); }
+    @Benchmark @Group("dashboard") @GroupThreads(1)
+    public String dashboardReader() {
+        StateSnapshot snap = hs.snapshot();
+        return snap == null ? null : snap.report();
+    }
+}
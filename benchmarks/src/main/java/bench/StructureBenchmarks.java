@@ -0,0 +1,153 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.HospitalSystemSingle.CircularQueue;
+import bench.HospitalSystemSingle.ColumnarPatientStore;
+import bench.HospitalSystemSingle.Doctor;
+import bench.HospitalSystemSingle.LatencyHistogram;
+import bench.HospitalSystemSingle.MinHeapTriage;
+import bench.HospitalSystemSingle.Patient;
+import bench.HospitalSystemSingle.PatientHashTable;
+import bench.HospitalSystemSingle.PatientStore;
+import bench.HospitalSystemSingle.Slot;
+import bench.HospitalSystemSingle.TimingWheel;
+import bench.HospitalSystemSingle.Token;
+
+/* The core structures on their own, each loaded to `size` entries in setup; every invocation
+ * leaves its structure the same size. Run with `-prof gc` for allocation per op. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class StructureBenchmarks {
+    static Token token(int id, int patientId) { return new Token(id, patientId, 1, id, Token.TokenType.ROUTINE); }
+
+    @State(Scope.Thread)
+    public static class Queue {
+        @Param({ "1000", "100000" }) public int size;
+        CircularQueue q;
+        int next;
+        @Setup public void setup() {
+            q = new CircularQueue(16);
+            for (int i = 0; i < size; i++) q.enqueue(token(i, i));
+            next = size;
+        }
+    }
+    @Benchmark public Token queueEnqueueDequeue(Queue s) { s.q.enqueue(token(s.next++, 7)); return s.q.dequeue(); }
+    @Benchmark public boolean queueRemoveByTokenId(Queue s) { int t = s.next++; s.q.enqueue(token(t, 7)); return s.q.remove(t - s.size / 2); }
+
+    @State(Scope.Thread)
+    public static class Triage {
+        @Param({ "1000", "100000" }) public int size;
+        MinHeapTriage h;
+        final Random r = new Random(1);
+        int next;
+        @Setup public void setup() {
+            h = new MinHeapTriage();
+            for (int i = 0; i < size; i++) h.insert(token(i, i), r.nextInt(5));
+            next = size;
+        }
+    }
+    @Benchmark public Token triageInsertExtractMin(Triage s) { s.h.insert(token(s.next++, s.r.nextInt(s.size)), s.r.nextInt(5)); return s.h.extractMin(); }
+    @Benchmark public void triageUpdatePriority(Triage s) { s.h.updatePriority(s.r.nextInt(s.size), s.r.nextInt(5)); }
+
+    // both registries behind PatientStore; keys are spread (id * 7) like real patient ids
+    @State(Scope.Thread)
+    public static class Store {
+        @Param({ "hash", "columnar" }) public String store;
+        @Param({ "0.5", "0.75", "0.9" }) public float loadFactor;
+        @Param({ "1000", "100000" }) public int size;
+        PatientStore t;
+        final Random r = new Random(2);
+        final Patient spare = new Patient(-1, "P", 30, 3);
+        @Setup public void setup() {
+            t = store.equals("hash") ? new PatientHashTable(16, loadFactor) : new ColumnarPatientStore(16, loadFactor);
+            for (int i = 0; i < size; i++) t.upsert(new Patient(i * 7, "P", 30, 3));
+        }
+    }
+    @Benchmark public Patient storeGet(Store s) { return s.t.get(s.r.nextInt(s.size) * 7); }
+    @Benchmark public void storeUpsertDelete(Store s) {
+        int k = s.r.nextInt(s.size) * 7;
+        s.t.delete(k); s.t.upsert(s.spare); s.t.delete(-1); s.t.upsert(new Patient(k, "P", 30, 3));
+    }
+
+    // flyweight read: no Patient, no name decode
+    @State(Scope.Thread)
+    public static class Columnar {
+        @Param({ "1000", "100000" }) public int size;
+        ColumnarPatientStore.View v;
+        final Random r = new Random(2);
+        @Setup public void setup() {
+            ColumnarPatientStore t = new ColumnarPatientStore(16);
+            for (int i = 0; i < size; i++) t.upsert(new Patient(i * 7, "P", 30, 3));
+            v = t.view();
+        }
+    }
+    @Benchmark public int columnarViewSeverity(Columnar s) { return s.v.moveTo(s.r.nextInt(s.size) * 7) ? s.v.severity() : -1; }
+
+    // one doctor with `size` slots, the first half of them booked
+    @State(Scope.Thread)
+    public static class Schedule {
+        @Param({ "1000", "100000" }) public int size;
+        Doctor d;
+        final Random r = new Random(3);
+        @Setup public void setup() {
+            d = new Doctor(1, "Dr", "General");
+            for (int i = 0; i < size; i++) d.addSlot(new Slot(i, String.format("%02d:%02d", i / 60 % 24, i % 60), "23:59"));
+            for (int i = 0; i < size / 2; i++) d.bookSlot(i);
+        }
+    }
+    @Benchmark public boolean doctorFindNextFreeAndBook(Schedule s) {
+        Slot slot = s.d.findNextFreeSlot();
+        s.d.bookSlot(slot.slotId);
+        return s.d.unbookSlot(slot.slotId);
+    }
+    @Benchmark public Slot doctorFreeSlotAtOrAfter(Schedule s) { return s.d.findFreeSlotAtOrAfter(s.r.nextInt(24 * 60)); }
+
+    // `size` timers spread over one day (08:00-20:00)
+    @State(Scope.Thread)
+    public static class Wheel {
+        @Param({ "1000", "100000" }) public int size;
+        TimingWheel wheel;
+        final Random r = new Random(4);
+        int next;
+        @Setup public void setup() {
+            wheel = new TimingWheel(480);
+            for (int i = 0; i < size; i++) wheel.schedule(TimingWheel.RELEASE, i, 480 + i % 720);
+            next = size;
+        }
+    }
+    @Benchmark public void wheelScheduleCancel(Wheel s) { s.wheel.cancel(s.wheel.schedule(TimingWheel.RELEASE, s.next++, 480 + s.r.nextInt(720))); }
+
+    @State(Scope.Thread)
+    public static class Histogram {
+        final LatencyHistogram h = new LatencyHistogram();
+        long v = 1;
+    }
+    @Benchmark public void metricsRecord(Histogram s) {
+        s.v = s.v * 6364136223846793005L + 1442695040888963407L;
+        s.h.record(s.v >>> 40);
+    }
+
+    // a whole registry loaded into an empty store, Patient objects made on the way as an importer
+    // would: with -prof gc, the collections the load triggers
+    @State(Scope.Thread)
+    public static class Load {
+        static final String[] FIRST = { "Aarav", "Priya", "Rohan", "Ananya", "Vikram", "Meera", "Arjun", "Kavya", "Dana", "Omar", "Lena", "Jose" };
+        @Param({ "hash", "columnar" }) public String store;
+        @Param({ "2000000" }) public int patients;
+    }
+    @Benchmark @BenchmarkMode(Mode.SingleShotTime) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PatientStore storeBulkLoad(Load s) {
+        PatientStore t = s.store.equals("hash") ? new PatientHashTable(16) : new ColumnarPatientStore(16);
+        Random r = new Random(7);
+        for (int p = 1; p <= s.patients; p++)
+            t.upsert(new Patient(p, Load.FIRST[r.nextInt(Load.FIRST.length)] + " Family" + r.nextInt(20_000), 1 + r.nextInt(90), 1 + r.nextInt(5)));
+        return t;
+    }
+}
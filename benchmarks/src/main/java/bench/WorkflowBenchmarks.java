@@ -0,0 +1,99 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bench.HospitalSystemSingle.Doctor;
+import bench.HospitalSystemSingle.Patient;
+import bench.HospitalSystemSingle.Slot;
+import bench.HospitalSystemSingle.Token;
+
+/* The public HospitalSystemSingle API on a loaded day. Operations that change the day are paired
+ * with their undo so the state stays the same size across invocations. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class WorkflowBenchmarks {
+    // 100 doctors, `size` patients and `size` pending tokens (3/4 routine, 1/4 emergency)
+    @State(Scope.Thread)
+    public static class Day {
+        @Param({ "1000", "100000" }) public int size;
+        HospitalSystemSingle hs;
+        Patient newcomer;
+        @Setup public void setup() {
+            hs = new HospitalSystemSingle(size, 64);
+            HospitalSystemSingle.setupDay(hs, 100, Math.max(10, size / 75), size);
+            Random r = new Random(5);
+            for (int i = 0; i < size; i++) {
+                if (i % 4 == 0) hs.triageInsert(1 + r.nextInt(size));
+                else hs.bookRoutine(1 + r.nextInt(size), 1 + r.nextInt(100));
+            }
+            hs.bookRoutine(1, 1); // something for undoRedo to take back
+            newcomer = new Patient(size + 1, "New", 30, 3);
+        }
+    }
+    @Benchmark public String undoRegister(Day s) { s.hs.upsertPatient(s.newcomer); return s.hs.undo(); }
+    @Benchmark public String undoBook(Day s) { s.hs.bookRoutine(1, 1); return s.hs.undo(); }
+    @Benchmark public String undoTriage(Day s) { s.hs.triageInsert(2); return s.hs.undo(); }
+    @Benchmark public String undoServe(Day s) { s.hs.serveNext(); return s.hs.undo(); }
+    @Benchmark public String undoRedo(Day s) { s.hs.undo(); return s.hs.redo(); }
+    @Benchmark public List<Integer> topKFrequentPatients(Day s) { return s.hs.topKFrequentPatients(10); }
+
+    // `doctors` doctors of one specialization with 8 slots each between 08:00 and 18:00
+    @State(Scope.Thread)
+    public static class Clinic {
+        @Param({ "100", "10000" }) public int doctors;
+        HospitalSystemSingle hs;
+        final List<Doctor> roster = new ArrayList<>();
+        @Setup public void setup() {
+            hs = new HospitalSystemSingle(64, 64);
+            Random r = new Random(5);
+            for (int d = 1; d <= doctors; d++) {
+                Doctor doc = new Doctor(d, "Dr. " + d, "General");
+                for (int k = 0; k < 8; k++) doc.addSlot(new Slot(d * 100 + k, String.format("%02d:%02d", 8 + r.nextInt(10), r.nextInt(4) * 15), "20:00"));
+                hs.addDoctor(doc);
+                roster.add(doc);
+            }
+            hs.upsertPatient(new Patient(1, "P", 30, 3));
+        }
+    }
+    // availability index vs a scan of every doctor's first free slot
+    @Benchmark public Token bookEarliest(Clinic s) {
+        Token t = s.hs.bookEarliest(1, "General");
+        s.hs.undo();
+        return t;
+    }
+    @Benchmark public boolean bookEarliestByScan(Clinic s) {
+        Doctor best = null; Slot bestSlot = null;
+        for (Doctor d : s.roster) {
+            Slot slot = d.findNextFreeSlot();
+            if (slot != null && (bestSlot == null || slot.startMinute < bestSlot.startMinute)) { best = d; bestSlot = slot; }
+        }
+        boolean ok = best != null && s.hs.bookRoutine(1, best.id);
+        s.hs.undo();
+        return ok;
+    }
+
+    // the mixed register/book/triage/serve/undo workload with instrumentation off, sampled (the
+    // default) and timing every op: the cost of metrics
+    @State(Scope.Thread)
+    public static class Mixed {
+        @Param({ "off", "sampled", "every" }) public String metrics;
+        @Param({ "1000", "100000" }) public int size;
+        HospitalSystemSingle hs;
+        final Random r = new Random(4);
+        @Setup public void setup() {
+            hs = new HospitalSystemSingle(size, 64);
+            HospitalSystemSingle.setupDay(hs, 100, Math.max(10, size / 75), size);
+            if (metrics.equals("off")) hs.metrics().setEnabled(false);
+            else if (metrics.equals("every")) hs.metrics().setSampleEvery(1);
+        }
+    }
+    @Benchmark public void mixed(Mixed s) { HospitalSystemSingle.mixedStep(s.hs, s.r, s.size, 100); }
+}
@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/* bookEarliest (the per-specialization availability index) against a linear scan over every doctor's slots. */
+class BookEarliestTest {
+    private static final String[] SPECS = { "Cardiology", "Orthopedics", "General" };
+
+    // the scan: earliest free slot at or after the clock, ties by fewest booked slots, then doctor id;
+    // within the doctor, the earliest (start, slotId) — returns {doctorId, slotId} or null
+    private static int[] scan(List<HospitalSystemSingle.Doctor> doctors, String spec, long clock) {
+        int[] best = null; int bestStart = 0, bestBooked = 0;
+        for (HospitalSystemSingle.Doctor d : doctors) {
+            if (!d.specialization.equals(spec)) continue;
+            HospitalSystemSingle.Slot first = null;
+            int booked = 0;
+            for (HospitalSystemSingle.Slot s : d.getAllSlots()) {
+                if (s.booked) { booked++; continue; }
+                if (s.startMinute < clock) continue;
+                if (first == null || s.startMinute < first.startMinute || s.startMinute == first.startMinute && s.slotId < first.slotId) first = s;
+            }
+            if (first == null) continue;
+            if (best == null || first.startMinute < bestStart || first.startMinute == bestStart && (booked < bestBooked || booked == bestBooked && d.id < best[0])) {
+                best = new int[]{ d.id, first.slotId }; bestStart = first.startMinute; bestBooked = booked;
+            }
+        }
+        return best;
+    }
+
+    private static void run(boolean schedule, long seed) {
+        Random r = new Random(seed);
+        HospitalSystemSingle hs = new HospitalSystemSingle(1 << 10, 64);
+        List<HospitalSystemSingle.Doctor> doctors = new ArrayList<>();
+        int nextSlot = 1;
+        for (int id = 1; id <= 24; id++) {
+            HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(id, "Dr. " + id, SPECS[id % SPECS.length]);
+            // coarse start times, so doctors often tie on their first free slot
+            for (int s = 0; s < 12; s++) { int start = 8 * 60 + r.nextInt(16) * 15; d.addSlot(HospitalSystemSingle.Slot.ofMinutes(nextSlot++, start, start + 15)); }
+            hs.addDoctor(d);
+            doctors.add(d);
+        }
+        if (schedule) hs.enableSchedule(8 * 60, 20, 0);
+        int booked = 0;
+        for (int step = 0; step < 20_000; step++) {
+            String spec = SPECS[r.nextInt(SPECS.length)], when = (schedule ? "clock " + hs.clock() : "no clock") + ", step " + step;
+            int op = r.nextInt(12);
+            if (op < 5) {
+                int[] want = scan(doctors, spec, schedule ? hs.clock() : Integer.MIN_VALUE);
+                HospitalSystemSingle.Token t = hs.bookEarliest(1 + r.nextInt(100), spec);
+                if (want == null) { assertNull(t, when + ": " + spec + " should be full"); continue; }
+                assertNotNull(t, when + ": " + spec);
+                assertEquals(want[0], t.doctorId, when + ": doctor for " + spec);
+                assertEquals(want[1], t.slotId, when + ": slot for " + spec);
+                booked++;
+            } else if (op < 7) hs.undo(); // unbooks the last booking or re-queues the last serve
+            else if (op < 8) hs.serveNext();
+            else if (op < 10) { // new slots, some before the clock, re-rank the doctor
+                HospitalSystemSingle.Doctor d = doctors.get(r.nextInt(doctors.size()));
+                int start = 8 * 60 + r.nextInt(16) * 15;
+                assertTrue(hs.addSlot(d.id, HospitalSystemSingle.Slot.ofMinutes(nextSlot++, start, start + 15)));
+            } else if (op < 11) {
+                HospitalSystemSingle.Doctor d = doctors.get(r.nextInt(doctors.size()));
+                List<HospitalSystemSingle.Slot> slots = d.getAllSlots();
+                if (!slots.isEmpty()) d.cancelSlot(slots.get(r.nextInt(slots.size())).slotId);
+            } else if (schedule && r.nextInt(20) == 0) hs.advanceClock(1 + r.nextInt(10)); // no-shows free slots behind the clock
+        }
+        assertTrue(booked > 1000, "only " + booked + " bookings: the run hardly exercised the index");
+    }
+
+    @Test
+    void matchesALinearScanWithoutAClock() { run(false, 18); }
+
+    @Test
+    void matchesALinearScanWithAClock() { run(true, 19); }
+}
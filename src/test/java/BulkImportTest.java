@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* CSV bulk import: chunked (parallel) parsing, validation, merging into a running system. */
+class BulkImportTest {
+    @TempDir Path dir;
+
+    private Path write(String name, String text) throws IOException {
+        return Files.write(dir.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+    // `n` patients with names of varying length, so chunk cuts land mid-line; some names quoted with commas
+    private Path patients(int n) throws IOException {
+        StringBuilder sb = new StringBuilder("id,name,age,severity\n");
+        for (int p = 1; p <= n; p++) {
+            String name = "Patient " + "x".repeat(p % 37) + p;
+            if (p % 5 == 0) sb.append(p).append(",\"").append(name).append(", \"\"Jr\"\"\",");
+            else sb.append(p).append(',').append(name).append(',');
+            sb.append(1 + p % 90).append(',').append(1 + p % 5).append(p % 7 == 0 ? "\r\n" : "\n");
+        }
+        return write("patients.csv", sb.toString());
+    }
+    private static String expectedName(int p) {
+        String name = "Patient " + "x".repeat(p % 37) + p;
+        return p % 5 == 0 ? name + ", \"Jr\"" : name;
+    }
+    private static String dump(HospitalSystemSingle hs, int patients) {
+        StringBuilder sb = new StringBuilder(hs.reportSummary());
+        for (int p = 1; p <= patients; p++) sb.append(hs.getPatient(p)).append('\n');
+        return sb.toString();
+    }
+
+    @Test
+    void rowsCutByChunkBoundariesAreParsedWhole() throws IOException {
+        int n = 20_000; // ~0.8 MB: many chunks on 8 threads
+        Path csv = patients(n);
+        HospitalSystemSingle hs = new HospitalSystemSingle(16, 16);
+        HospitalSystemSingle.ImportReport r = hs.bulkImport(null, null, csv, 8);
+        assertEquals(n, r.patients);
+        for (int p = 1; p <= n; p++) {
+            HospitalSystemSingle.Patient got = hs.getPatient(p);
+            assertNotNull(got, "patient " + p + " lost at a chunk boundary");
+            assertEquals(expectedName(p), got.name);
+            assertEquals(1 + p % 90, got.age);
+            assertEquals(1 + p % 5, got.severity);
+        }
+    }
+
+    @Test
+    void parallelParsingMatchesSingleThreaded() throws IOException {
+        int n = 10_000;
+        Path pcsv = patients(n);
+        StringBuilder docs = new StringBuilder(), slots = new StringBuilder();
+        for (int d = 1; d <= 300; d++) {
+            docs.append(d).append(",Dr. ").append(d).append(',').append(d % 3 == 0 ? "General" : "Pediatrics").append('\n');
+            for (int k = 0; k < 20; k++)
+                slots.append(d).append(',').append(d * 100 + k).append(',').append(String.format("%02d:%02d,%02d:%02d", 8 + k / 4, k % 4 * 15, 8 + k / 4, k % 4 * 15 + 14))
+                    .append(k % 6 == 0 ? ",1" : "").append('\n');
+        }
+        Path dcsv = write("doctors.csv", docs.toString()), scsv = write("slots.csv", slots.toString());
+        HospitalSystemSingle one = new HospitalSystemSingle(16, 16), many = new HospitalSystemSingle(16, 16);
+        HospitalSystemSingle.ImportReport a = one.bulkImport(dcsv, scsv, pcsv, 1), b = many.bulkImport(dcsv, scsv, pcsv, 6);
+        assertEquals(a.records(), b.records());
+        assertEquals(300 * 20, b.slots);
+        assertEquals(dump(one, n), dump(many, n));
+    }
+
+    @Test
+    void slotOfUnknownDoctorLeavesTheSystemUnchanged() throws IOException {
+        HospitalSystemSingle hs = new HospitalSystemSingle(16, 16);
+        hs.upsertPatient(new HospitalSystemSingle.Patient(1, "Kept", 30, 3));
+        String before = dump(hs, 3);
+        Path docs = write("doctors.csv", "1,Dr. One,General\n");
+        Path slots = write("slots.csv", "1,100,09:00,09:15\n9,900,09:00,09:15\n");
+        Path pats = write("patients.csv", "1,Replaced,40,1\n2,New,20,2\n");
+        IOException e = assertThrows(IOException.class, () -> hs.bulkImport(docs, slots, pats, 2));
+        assertTrue(e.getMessage().contains("unknown doctor 9"), e.getMessage());
+        assertEquals(before, dump(hs, 3));
+    }
+
+    @Test
+    void quotedAndEmptyFields() throws IOException {
+        Path docs = write("doctors.csv", "id,name,specialization\n1,\"Rao, Anil\",\"\"\n2,,General\n");
+        Path pats = write("patients.csv", "1,\"He said \"\"hi\"\"\",30,2\n2,,40,3\n");
+        HospitalSystemSingle hs = new HospitalSystemSingle(16, 16);
+        hs.bulkImport(docs, null, pats, 1);
+        assertEquals("He said \"hi\"", hs.getPatient(1).name);
+        assertEquals("", hs.getPatient(2).name);
+        String report = hs.reportSummary();
+        assertTrue(report.contains("name=Rao, Anil,spec=,"), report);
+        assertTrue(report.contains("id=2,name=,spec=General"), report);
+    }
+
+    // ensureCapacity once, before the first record: the table never grows during the load
+    @Test
+    void patientTableIsSizedUpFront() throws IOException {
+        int n = 50_000;
+        List<Integer> capacities = new ArrayList<>();
+        HospitalSystemSingle.PatientHashTable table = new HospitalSystemSingle.PatientHashTable(16);
+        HospitalSystemSingle.PatientStore recording = new HospitalSystemSingle.PatientStore() {
+            public void upsert(HospitalSystemSingle.Patient p) { table.upsert(p); capacities.add(table.capacity()); }
+            public HospitalSystemSingle.Patient get(int id) { return table.get(id); }
+            public boolean delete(int id) { return table.delete(id); }
+            public void forEach(Consumer<HospitalSystemSingle.Patient> action) { table.forEach(action); }
+            public int size() { return table.size(); }
+            public int capacity() { return table.capacity(); }
+            public int[] probeLengthHistogram() { return table.probeLengthHistogram(); }
+            public void ensureCapacity(int expected) { table.ensureCapacity(expected); }
+        };
+        HospitalSystemSingle hs = new HospitalSystemSingle(recording, 16, 16);
+        hs.bulkImport(null, null, patients(n), 4);
+        assertEquals(n, capacities.size());
+        assertTrue(capacities.get(0) >= n, "not presized: capacity " + capacities.get(0));
+        assertEquals(1, new HashSet<>(capacities).size(), "the table grew during the import");
+    }
+
+    // a roster re-import over a running day: bookings and issued tokens survive
+    @Test
+    void importOverExistingDoctorsKeepsTheirBookings() throws IOException {
+        HospitalSystemSingle hs = new HospitalSystemSingle(16, 16);
+        HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(1, "Dr. One", "General");
+        d.addSlot(new HospitalSystemSingle.Slot(100, "09:00", "09:15"));
+        d.addSlot(new HospitalSystemSingle.Slot(101, "09:15", "09:30"));
+        hs.addDoctor(d);
+        hs.upsertPatient(new HospitalSystemSingle.Patient(7, "P7", 30, 3));
+        assertTrue(hs.bookRoutine(7, 1));
+
+        Path docs = write("doctors.csv", "1,Dr. One,General\n2,Dr. Two,General\n");
+        Path slots = write("slots.csv", "1,101,09:15,09:30\n1,102,09:30,09:45\n2,200,10:00,10:15\n");
+        HospitalSystemSingle.ImportReport r = hs.bulkImport(docs, slots, null, 2);
+        assertEquals(1, r.doctors, "only doctor 2 is new");
+        assertEquals(2, r.slots, "slot 101 already existed");
+        assertEquals(3, d.slotCount(), "the registered doctor was replaced");
+        assertEquals(2, d.pendingCount());
+        HospitalSystemSingle.Token served = hs.serveNext();
+        assertEquals(100, served.slotId);
+        assertEquals("Undid serve " + served.tokenId, hs.undo());
+        assertTrue(hs.reportSummary().contains("Doctor[id=1,name=Dr. One,spec=General,pendingSlots=2]"));
+
+        Path renamed = write("renamed.csv", "1,Dr. Other,General\n");
+        String before = hs.reportSummary();
+        assertThrows(IOException.class, () -> hs.bulkImport(renamed, slots, null, 1));
+        assertEquals(before, hs.reportSummary());
+    }
+}
@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/* The chunked routine queue against a LinkedList of the same tokens. */
+class CircularQueueTest {
+    private static HospitalSystemSingle.Token token(int id) {
+        return new HospitalSystemSingle.Token(id, id % 97, 1, id, HospitalSystemSingle.Token.TokenType.ROUTINE);
+    }
+    private static List<Integer> ids(Collection<HospitalSystemSingle.Token> ts) { return ts.stream().map(t -> t.tokenId).collect(Collectors.toList()); }
+
+    @Test
+    void matchesALinkedListUnderRandomOperations() {
+        Random r = new Random(5);
+        for (int capacity : new int[]{ 16, 1000 }) {
+            HospitalSystemSingle.CircularQueue q = new HospitalSystemSingle.CircularQueue(capacity);
+            LinkedList<HospitalSystemSingle.Token> ref = new LinkedList<>();
+            int next = 1;
+            for (int step = 0; step < 100_000; step++) {
+                // phases that grow the queue and phases that cancel most of it, so compaction runs often
+                int phase = step / 5000 % 3, op = r.nextInt(10);
+                if (op < (phase == 0 ? 6 : 2)) { HospitalSystemSingle.Token t = token(next++); q.enqueue(t); ref.addLast(t); }
+                else if (op < 7 && phase == 2 || op == 2) {
+                    HospitalSystemSingle.Token t = ref.isEmpty() ? null : ref.get(r.nextInt(ref.size()));
+                    int id = t != null && r.nextInt(4) != 0 ? t.tokenId : 1 + r.nextInt(next);
+                    boolean present = ref.removeIf(x -> x.tokenId == id);
+                    assertEquals(present, q.remove(id), "cancel " + id);
+                    if (present) assertTrue(q.tombstones() <= Math.max(64, q.size()), "tombstones not compacted: " + q.tombstones() + " for " + q.size() + " live");
+                } else if (op < 8) assertSame(ref.pollFirst(), q.dequeue());
+                else if (op < 9) { // undo of a serve puts a token back at the front
+                    HospitalSystemSingle.Token t = token(next++); q.pushFront(t); ref.addFirst(t);
+                } else {
+                    assertSame(ref.peekFirst(), q.peek());
+                    int id = 1 + r.nextInt(next);
+                    HospitalSystemSingle.Token found = ref.stream().filter(x -> x.tokenId == id).findFirst().orElse(null);
+                    assertSame(found, q.find(id));
+                    assertEquals(found != null, q.contains(id));
+                }
+                assertEquals(ref.size(), q.size());
+                assertEquals(ref.isEmpty(), q.isEmpty());
+                if (step % 250 == 0) assertEquals(ids(ref), ids(q.tokens()), "queue order at step " + step);
+            }
+            while (!ref.isEmpty()) assertSame(ref.pollFirst(), q.dequeue());
+            assertNull(q.dequeue());
+            assertEquals(0, q.tombstones(), "tombstones left in an empty queue");
+        }
+    }
+
+    // cancelling nearly everything compacts, and the survivors keep their order and stay cancellable
+    @Test
+    void compactionKeepsOrderAndTheIndex() {
+        HospitalSystemSingle.CircularQueue q = new HospitalSystemSingle.CircularQueue(16);
+        for (int id = 1; id <= 1000; id++) q.enqueue(token(id));
+        for (int id = 1; id <= 1000; id++) if (id % 10 != 0) assertTrue(q.remove(id));
+        assertTrue(q.tombstones() < 100, "no compaction after 900 cancels: " + q.tombstones());
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 10; id <= 1000; id += 10) expected.add(id);
+        assertEquals(expected, ids(q.tokens()));
+        assertTrue(q.remove(500));
+        assertFalse(q.remove(500));
+        assertEquals(10, q.find(10).tokenId);
+        q.pushFront(token(5000));
+        assertEquals(5000, q.dequeue().tokenId);
+        assertEquals(10, q.dequeue().tokenId);
+        assertEquals(98, q.size());
+    }
+}
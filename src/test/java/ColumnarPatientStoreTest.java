@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/* The columnar patient store against a HashMap of Patient copies. */
+class ColumnarPatientStoreTest {
+    // a shared pool, so names repeat and go through the dedup index; null and non-ASCII names too
+    private static String name(Random r) {
+        int n = r.nextInt(400);
+        return n == 0 ? null : n % 7 == 0 ? "Zoë Ångström " + n : n % 11 == 0 ? "" : "Patient " + n;
+    }
+    private static String fields(HospitalSystemSingle.Patient p) { return p == null ? null : p.id + "|" + p.name + "|" + p.age + "|" + p.severity; }
+
+    private static void assertSameContents(Map<Integer, HospitalSystemSingle.Patient> ref, HospitalSystemSingle.ColumnarPatientStore store, String when) {
+        assertEquals(ref.size(), store.size(), when);
+        Map<Integer, String> rows = new HashMap<>();
+        store.forEach(p -> assertNull(rows.put(p.id, fields(p)), when + ": row " + p.id + " twice"));
+        Map<Integer, String> expected = new HashMap<>();
+        ref.forEach((id, p) -> expected.put(id, fields(p)));
+        assertEquals(expected, rows, when);
+        Map<Integer, String> views = new HashMap<>();
+        store.forEachView(v -> views.put(v.id(), fields(v.toPatient())));
+        assertEquals(expected, views, when + ": forEachView");
+        assertEquals(ref.size(), Arrays.stream(store.probeLengthHistogram()).sum(), when + ": probe histogram");
+    }
+
+    @Test
+    void matchesAHashMapUnderRandomOperations() {
+        Random r = new Random(14);
+        for (float loadFactor : new float[]{ 0.5f, 0.9f }) {
+            HospitalSystemSingle.ColumnarPatientStore store = new HospitalSystemSingle.ColumnarPatientStore(4, loadFactor);
+            HospitalSystemSingle.ColumnarPatientStore.View view = store.view();
+            Map<Integer, HospitalSystemSingle.Patient> ref = new HashMap<>();
+            Set<String> names = new HashSet<>();
+            for (int step = 0; step < 100_000; step++) {
+                int id = r.nextInt(20) == 0 ? r.nextInt() : r.nextInt(5000) - 100;
+                int op = r.nextInt(10);
+                if (op < 5) {
+                    HospitalSystemSingle.Patient p = new HospitalSystemSingle.Patient(id, name(r), r.nextInt(100), r.nextInt(6));
+                    store.upsert(p); ref.put(id, p.copy());
+                    if (p.name != null) names.add(p.name);
+                    p.age = -1; // the store keeps its own copy of the fields
+                } else if (op < 8) {
+                    assertEquals(ref.remove(id) != null, store.delete(id), "delete " + id);
+                } else if (op < 9) {
+                    HospitalSystemSingle.Patient got = store.get(id);
+                    assertEquals(fields(ref.get(id)), fields(got), "get " + id);
+                    if (got != null) { got.severity = 99; assertEquals(ref.get(id).severity, store.get(id).severity); }
+                } else {
+                    HospitalSystemSingle.Patient want = ref.get(id);
+                    assertEquals(want != null, view.moveTo(id), "moveTo " + id);
+                    if (want != null) {
+                        assertEquals(id, view.id());
+                        assertEquals(want.name, view.name());
+                        assertEquals(want.age, view.age());
+                        assertEquals(want.severity, view.severity());
+                    }
+                }
+                if (step == 50_000) store.ensureCapacity(20_000); // pre-sizing mid-run keeps every row reachable
+                assertEquals(fields(ref.get(id)), fields(store.get(id)));
+                if (step % 2000 == 0) assertSameContents(ref, store, "load factor " + loadFactor + ", step " + step);
+            }
+            assertSameContents(ref, store, "load factor " + loadFactor + ", end");
+            assertEquals(names.size(), store.distinctNames(), "each distinct name is stored once");
+            assertTrue(store.size() <= store.capacity() * loadFactor + 1);
+        }
+    }
+
+    // deleting every row one by one, from either end, keeps the survivors intact
+    @Test
+    void deletesKeepRowsDense() {
+        HospitalSystemSingle.ColumnarPatientStore store = new HospitalSystemSingle.ColumnarPatientStore(16);
+        Map<Integer, HospitalSystemSingle.Patient> ref = new HashMap<>();
+        for (int id = 0; id < 1000; id++) {
+            HospitalSystemSingle.Patient p = new HospitalSystemSingle.Patient(id * 31, "P" + id % 10, id % 90, id % 5);
+            store.upsert(p); ref.put(p.id, p);
+        }
+        for (int i = 0; i < 1000; i++) {
+            int id = (i % 2 == 0 ? i / 2 : 999 - i / 2) * 31;
+            assertTrue(store.delete(id));
+            assertFalse(store.delete(id));
+            ref.remove(id);
+            if (i % 100 == 0) assertSameContents(ref, store, "after " + (i + 1) + " deletes");
+        }
+        assertEquals(0, store.size());
+        assertEquals(10, store.distinctNames());
+        assertThrows(IllegalArgumentException.class, () -> new HospitalSystemSingle.ColumnarPatientStore(16, 1f));
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/* The line-protocol server: pipelined batches against the same requests sent one round trip at a time. */
+class CommandServerTest {
+    private static HospitalSystemSingle clinic() {
+        HospitalSystemSingle hs = new HospitalSystemSingle(1 << 10, 64);
+        for (int id = 1; id <= 5; id++) {
+            HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(id, "Dr. " + id, "General");
+            for (int s = 0; s < 40; s++) d.addSlot(HospitalSystemSingle.Slot.ofMinutes(id * 100 + s, 8 * 60 + s * 10, 8 * 60 + s * 10 + 10));
+            hs.addDoctor(d);
+        }
+        return hs;
+    }
+    private static HospitalSystemSingle.CommandServer start(HospitalSystemSingle hs) throws IOException {
+        HospitalSystemSingle.CommandServer server = new HospitalSystemSingle.CommandServer(hs, 0);
+        Thread t = new Thread(server, "server-test");
+        t.setDaemon(true);
+        t.start();
+        return server;
+    }
+    private static String request(Random r) {
+        int pid = 1 + r.nextInt(300); // ids above 200 are never registered
+        switch (r.nextInt(20)) {
+            case 0: case 1: case 2: return pid > 200 ? "PING" : "REG " + pid + " " + (1 + r.nextInt(90)) + " " + r.nextInt(6) + " Patient  " + pid + " Jr";
+            case 3: case 4: case 5: case 6: return "BOOK " + pid + " " + (1 + r.nextInt(6)); // doctor 6 does not exist
+            case 7: case 8: case 9: return "TRIAGE " + pid;
+            case 10: case 11: case 12: case 13: return "serve";
+            case 14: case 15: return "UNDO";
+            case 16: return "REDO";
+            case 17: return "REPORT";
+            case 18: return r.nextBoolean() ? "BOOK " + pid : "TRIAGE x";
+            default: return "NOPE " + pid;
+        }
+    }
+
+    // any split of the stream into reads (small batches, batches past the read buffer, CRLF) answers like lock-step
+    @Test
+    void pipelinedBatchesMatchLockStepRoundTrips() throws Exception {
+        Random r = new Random(12);
+        List<String> requests = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) requests.add(request(r));
+        HospitalSystemSingle lockStepSystem = clinic(), pipelinedSystem = clinic();
+        HospitalSystemSingle.CommandServer lockStep = start(lockStepSystem), pipelined = start(pipelinedSystem);
+        try (HospitalSystemSingle.CommandClient one = new HospitalSystemSingle.CommandClient("localhost", lockStep.port());
+             Socket raw = new Socket("localhost", pipelined.port());
+             HospitalSystemSingle.CommandClient batch = new HospitalSystemSingle.CommandClient("localhost", pipelined.port())) {
+            raw.getOutputStream().write("PING\r\n".getBytes(StandardCharsets.UTF_8)); // a second connection takes its own desk
+            List<String> expected = new ArrayList<>();
+            for (String req : requests) expected.add(one.call(req));
+            for (int i = 0; i < requests.size(); ) {
+                int n = Math.min(requests.size() - i, r.nextInt(4) == 0 ? 1000 + r.nextInt(2000) : 1 + r.nextInt(20));
+                for (int j = i; j < i + n; j++) batch.send(r.nextBoolean() ? requests.get(j) : requests.get(j) + "\r");
+                batch.flush();
+                for (int j = i; j < i + n; j++) assertEquals(expected.get(j), batch.receive(), "request " + j + ": " + requests.get(j));
+                i += n;
+            }
+            assertEquals("BYE", batch.call("QUIT"));
+            assertEquals("BYE", one.call("QUIT"));
+        } finally { lockStep.close(); pipelined.close(); }
+        assertEquals(lockStepSystem.reportSummary(), pipelinedSystem.reportSummary());
+        assertEquals(lockStepSystem.topKFrequentPatients(5), pipelinedSystem.topKFrequentPatients(5));
+    }
+
+    // responses as documented, desks scoped per connection and released when it closes
+    @Test
+    void responsesAndDesks() throws Exception {
+        HospitalSystemSingle hs = clinic();
+        HospitalSystemSingle.CommandServer server = start(hs);
+        try (HospitalSystemSingle.CommandClient a = new HospitalSystemSingle.CommandClient("localhost", server.port());
+             HospitalSystemSingle.CommandClient b = new HospitalSystemSingle.CommandClient("localhost", server.port())) {
+            assertEquals("PONG", a.call("PING"));
+            assertEquals("PONG", b.call("PING"));
+            assertEquals("OK", a.call("REG 7 40 2 Ann Lee"));
+            assertEquals("Ann Lee", hs.getPatient(7).name);
+            assertEquals("TOKEN 1 3 300", a.call("BOOK 7 3"));
+            assertEquals("ERR no free slot", a.call("BOOK 7 9"));
+            assertEquals("TOKEN 2", b.call("TRIAGE 7"));
+            assertEquals("ERR patient not found", b.call("TRIAGE 8"));
+            assertEquals("SERVED 2 7 EMERGENCY", a.call("SERVE"));
+            assertEquals("OK Undid serve 2", a.call("UNDO"));
+            assertEquals("OK Undid booking 1", a.call("UNDO"));
+            assertEquals("OK Undid patient register 7", a.call("UNDO"));
+            assertEquals("OK Nothing to undo", a.call("UNDO")); // b's triage is not a's to undo
+            assertEquals("OK Undid triage 2", b.call("UNDO"));
+            assertEquals("EMPTY", a.call("SERVE"));
+            assertEquals("ERR bad arguments", a.call("BOOK 7"));
+            assertEquals("ERR unknown command", a.call("HELLO"));
+            assertTrue(a.call("METRICS").contains("\n"));
+            assertEquals(2, hs.deskCount()); // one undo log per connection
+            assertEquals("BYE", b.call("QUIT"));
+            assertThrows(EOFException.class, b::receive);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (hs.deskCount() > 1 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+            assertEquals(1, hs.deskCount(), "the closed connection's desk was not released");
+        } finally { server.close(); }
+    }
+
+    // a line longer than the read buffer gets one error and the connection is closed
+    @Test
+    void overlongLineClosesTheConnection() throws Exception {
+        HospitalSystemSingle.CommandServer server = start(clinic());
+        try (HospitalSystemSingle.CommandClient c = new HospitalSystemSingle.CommandClient("localhost", server.port())) {
+            char[] name = new char[10_000];
+            Arrays.fill(name, 'x');
+            assertEquals("ERR line too long", c.call("REG 1 30 1 " + new String(name)));
+            assertThrows(EOFException.class, c::receive);
+        } finally { server.close(); }
+    }
+}
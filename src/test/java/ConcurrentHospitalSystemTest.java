@@ -0,0 +1,167 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+/* Concurrency checks for the multi-desk mode (ConcurrentHospitalSystem). */
+class ConcurrentHospitalSystemTest {
+    private static final int PATIENTS = 1000;
+
+    /* `desks` threads book/triage (and re-register patients) while `rooms` threads serve: no
+     * double-booked slot, no lost token, no token served twice. */
+    @Test
+    void desksAndRoomsNeverDoubleBookOrLoseTokens() throws InterruptedException {
+        int desks = 8, rooms = 4, doctorCount = 50, slotsPerDoctor = 400, opsPerDesk = 20_000;
+        HospitalSystemSingle.ConcurrentHospitalSystem hs = new HospitalSystemSingle.ConcurrentHospitalSystem(1 << 12, 64);
+        List<HospitalSystemSingle.Doctor> doctors = new ArrayList<>();
+        for (int d = 1; d <= doctorCount; d++) {
+            HospitalSystemSingle.Doctor doc = new HospitalSystemSingle.Doctor(d, "Dr. " + d, "General");
+            for (int s = 0; s < slotsPerDoctor; s++)
+                doc.addSlot(new HospitalSystemSingle.Slot(d * 100_000 + s, String.format("%02d:%02d", 8 + s / 60 % 12, s % 60), "23:59"));
+            hs.addDoctor(doc);
+            doctors.add(doc);
+        }
+        for (int p = 1; p <= PATIENTS; p++) hs.upsertPatient(new HospitalSystemSingle.Patient(p, "P" + p, 20 + p % 60, p % 5));
+
+        ConcurrentLinkedQueue<HospitalSystemSingle.Token> issued = new ConcurrentLinkedQueue<>(), served = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1), desksDone = new CountDownLatch(desks);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < desks; i++) {
+            final int seed = i;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    start.await();
+                    for (int op = 0; op < opsPerDesk; op++) {
+                        int pid = 1 + r.nextInt(PATIENTS);
+                        HospitalSystemSingle.Token t = r.nextInt(4) == 0 ? hs.triageInsert(pid) : hs.bookRoutine(pid, 1 + r.nextInt(doctorCount));
+                        if (t != null) issued.add(t);
+                        if (r.nextInt(16) == 0) hs.upsertPatient(new HospitalSystemSingle.Patient(pid, "P" + pid, 40, r.nextInt(5)));
+                    }
+                } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                finally { desksDone.countDown(); }
+            }, "desk-" + i));
+        }
+        for (int i = 0; i < rooms; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    while (true) {
+                        HospitalSystemSingle.Token t = hs.serveNext();
+                        if (t != null) { served.add(t); continue; }
+                        if (desksDone.getCount() == 0 && hs.pendingCount() == 0) break;
+                        Thread.onSpinWait();
+                    }
+                } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }, "room-" + i));
+        }
+        for (Thread t : threads) t.start();
+        start.countDown();
+        for (Thread t : threads) t.join();
+
+        Set<Long> bookedSlots = new HashSet<>();
+        for (HospitalSystemSingle.Token t : issued)
+            if (t.type == HospitalSystemSingle.Token.TokenType.ROUTINE)
+                assertTrue(bookedSlots.add(((long) t.doctorId << 32) | t.slotId), "slot double-booked: " + t);
+        Set<Integer> servedIds = new HashSet<>();
+        for (HospitalSystemSingle.Token t : served) assertTrue(servedIds.add(t.tokenId), "token served twice: " + t);
+        for (HospitalSystemSingle.Token t : issued) assertTrue(servedIds.contains(t.tokenId), "token lost: " + t);
+        assertEquals(issued.size(), servedIds.size());
+        assertEquals(issued.size(), hs.servedCount());
+        int bookedInSchedules = 0;
+        for (HospitalSystemSingle.Doctor d : doctors) bookedInSchedules += d.slotCount() - d.pendingCount();
+        assertEquals(bookedSlots.size(), bookedInSchedules, "schedules and tokens disagree on booked slots");
+    }
+
+    /* Upserts racing triage insertions for the same patients: once the desks stop, every pending
+     * emergency must be keyed by its patient's latest severity, so draining the triage yields
+     * tokens in non-decreasing order of the patients' final severities. */
+    @Test
+    void triageKeepsLatestSeverityUnderConcurrentUpserts() throws InterruptedException {
+        int desks = 4, opsPerDesk = 2_000, hot = 64;
+        for (int round = 0; round < 20; round++) {
+            HospitalSystemSingle.ConcurrentHospitalSystem hs = new HospitalSystemSingle.ConcurrentHospitalSystem(1 << 12, 16);
+            for (int p = 1; p <= hot; p++) hs.upsertPatient(new HospitalSystemSingle.Patient(p, "P" + p, 30, 2));
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < desks; i++) {
+                final int seed = round * desks + i;
+                threads.add(new Thread(() -> {
+                    Random r = new Random(seed);
+                    try {
+                        start.await();
+                        for (int op = 0; op < opsPerDesk; op++) {
+                            int pid = 1 + r.nextInt(hot);
+                            if (r.nextBoolean()) hs.triageInsert(pid);
+                            else hs.upsertPatient(new HospitalSystemSingle.Patient(pid, "P" + pid, 30, r.nextInt(100)));
+                        }
+                    } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                }, "desk-" + i));
+            }
+            for (Thread t : threads) t.start();
+            start.countDown();
+            for (Thread t : threads) t.join();
+
+            int last = Integer.MIN_VALUE, drained = 0;
+            for (HospitalSystemSingle.Token t; (t = hs.serveNext()) != null; drained++) {
+                int severity = hs.getPatient(t.patientId).severity;
+                assertTrue(severity >= last, "token " + t.tokenId + " of patient " + t.patientId + " (severity " + severity
+                    + ") served after severity " + last + ": it kept a stale priority");
+                last = severity;
+            }
+            assertTrue(drained > 0);
+        }
+    }
+
+    /* A desk re-registers a pending emergency while a room serves: the re-key must never leave
+     * the triage looking empty, so the emergency is served ahead of the routine token. */
+    @Test
+    void reprioritizingNeverHidesAPendingEmergency() throws Exception {
+        int rounds = 20_000;
+        AtomicReference<HospitalSystemSingle.ConcurrentHospitalSystem> current = new AtomicReference<>();
+        AtomicReference<HospitalSystemSingle.Token> first = new AtomicReference<>();
+        CyclicBarrier go = new CyclicBarrier(3), done = new CyclicBarrier(3);
+        Thread desk = new Thread(() -> {
+            try {
+                for (int round = 0; round < rounds; round++) {
+                    go.await();
+                    HospitalSystemSingle.ConcurrentHospitalSystem hs = current.get();
+                    for (int k = 0; k < 32; k++) hs.upsertPatient(new HospitalSystemSingle.Patient(1, "P1", 30, k % 5));
+                    done.await();
+                }
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, "desk");
+        Thread room = new Thread(() -> {
+            try {
+                for (int round = 0; round < rounds; round++) {
+                    go.await();
+                    for (int spin = round % 64; spin > 0; spin--) Thread.onSpinWait();
+                    first.set(current.get().serveNext());
+                    done.await();
+                }
+            } catch (Exception e) { throw new RuntimeException(e); }
+        }, "room");
+        desk.start(); room.start();
+        for (int round = 0; round < rounds; round++) {
+            HospitalSystemSingle.ConcurrentHospitalSystem hs = new HospitalSystemSingle.ConcurrentHospitalSystem(16, 4);
+            HospitalSystemSingle.Doctor doc = new HospitalSystemSingle.Doctor(1, "Dr. 1", "General");
+            doc.addSlot(new HospitalSystemSingle.Slot(1, "09:00", "09:15"));
+            hs.addDoctor(doc);
+            hs.upsertPatient(new HospitalSystemSingle.Patient(1, "P1", 30, 2));
+            hs.upsertPatient(new HospitalSystemSingle.Patient(2, "P2", 30, 2));
+            assertNotNull(hs.bookRoutine(2, 1));
+            assertNotNull(hs.triageInsert(1));
+            current.set(hs);
+            go.await();
+            done.await();
+            HospitalSystemSingle.Token t = first.get();
+            assertNotNull(t, "round " + round + ": nothing served");
+            assertEquals(HospitalSystemSingle.Token.TokenType.EMERGENCY, t.type, "round " + round + ": routine served before a pending emergency");
+            assertEquals(HospitalSystemSingle.Token.TokenType.ROUTINE, hs.serveNext().type);
+            assertNull(hs.serveNext());
+        }
+        desk.join(); room.join();
+    }
+}
@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/* The doctor's ordered free-slot set against a linear scan over every slot. */
+class DoctorScheduleTest {
+    // free slots by (start, slotId), found by scanning every slot the reference holds
+    private static List<Integer> free(Map<Integer, HospitalSystemSingle.Slot> slots, Map<Integer, Boolean> booked, int from, int to) {
+        return slots.values().stream()
+            .filter(s -> !booked.get(s.slotId) && s.startMinute >= from && s.startMinute < to)
+            .sorted(Comparator.comparingInt((HospitalSystemSingle.Slot s) -> s.startMinute).thenComparingInt(s -> s.slotId))
+            .map(s -> s.slotId).collect(Collectors.toList());
+    }
+    private static Integer id(HospitalSystemSingle.Slot s) { return s == null ? null : s.slotId; }
+
+    @Test
+    void matchesALinearScanUnderRandomOperations() {
+        Random r = new Random(2);
+        HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(1, "Dr. A", "General");
+        int[] notified = { 0 };
+        d.listener = doc -> notified[0]++;
+        Map<Integer, HospitalSystemSingle.Slot> slots = new LinkedHashMap<>();
+        Map<Integer, Boolean> booked = new HashMap<>();
+        int changes = 0;
+        for (int step = 0; step < 20_000; step++) {
+            int slotId = r.nextInt(400);
+            switch (r.nextInt(6)) {
+                case 0: case 1: { // several slots may share a start time: ties go by slotId
+                    int start = 8 * 60 + r.nextInt(60) * 5;
+                    HospitalSystemSingle.Slot s = HospitalSystemSingle.Slot.ofMinutes(slotId, start, start + 5);
+                    boolean added = !slots.containsKey(slotId);
+                    assertEquals(added, d.addSlot(s));
+                    if (added) { slots.put(slotId, s); booked.put(slotId, false); changes++; }
+                    break;
+                }
+                case 2: {
+                    boolean had = slots.remove(slotId) != null;
+                    booked.remove(slotId);
+                    assertEquals(had, d.cancelSlot(slotId));
+                    if (had) changes++;
+                    break;
+                }
+                case 3: {
+                    boolean ok = Boolean.FALSE.equals(booked.get(slotId));
+                    assertEquals(ok, d.bookSlot(slotId));
+                    if (ok) { booked.put(slotId, true); changes++; }
+                    break;
+                }
+                case 4: {
+                    boolean ok = Boolean.TRUE.equals(booked.get(slotId));
+                    assertEquals(ok, d.unbookSlot(slotId));
+                    if (ok) { booked.put(slotId, false); changes++; }
+                    break;
+                }
+                default: {
+                    int from = 7 * 60 + r.nextInt(6 * 60), to = from + r.nextInt(120);
+                    List<Integer> expected = free(slots, booked, from, to);
+                    assertEquals(expected, d.freeSlotsBetween(from, to).stream().map(s -> s.slotId).collect(Collectors.toList()));
+                    List<Integer> after = free(slots, booked, from, Integer.MAX_VALUE);
+                    assertEquals(after.isEmpty() ? null : after.get(0), id(d.findFreeSlotAtOrAfter(from)));
+                }
+            }
+            List<Integer> all = free(slots, booked, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            assertEquals(all.size(), d.pendingCount());
+            assertEquals(slots.size(), d.slotCount());
+            assertEquals(all.isEmpty() ? null : all.get(0), id(d.findNextFreeSlot()), "next free slot at step " + step);
+            assertEquals(changes, notified[0], "the listener is told of every change and nothing else");
+        }
+        assertEquals(new ArrayList<>(slots.keySet()), d.getAllSlots().stream().map(s -> s.slotId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void rangeBoundsAreHalfOpen() {
+        HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(1, "Dr. A", "General");
+        d.addSlot(new HospitalSystemSingle.Slot(3, "09:00", "09:15"));
+        d.addSlot(new HospitalSystemSingle.Slot(1, "09:00", "09:15"));
+        d.addSlot(new HospitalSystemSingle.Slot(2, "09:15", "09:30"));
+        assertEquals(List.of(1, 3), d.freeSlotsBetween("09:00", "09:15").stream().map(s -> s.slotId).collect(Collectors.toList()));
+        assertEquals(0, d.freeSlotsBetween("09:15", "09:15").size());
+        assertEquals(0, d.freeSlotsBetween("09:30", "09:00").size());
+        assertEquals(2, d.findFreeSlotAtOrAfter("09:01").slotId);
+        assertNull(d.findFreeSlotAtOrAfter("09:16"));
+        assertTrue(d.bookSlot(1));
+        assertEquals(3, d.findNextFreeSlot().slotId);
+        assertThrows(UnsupportedOperationException.class, () -> d.freeSlotsBetween("08:00", "10:00").clear());
+    }
+}
@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/* Top-K frequency buckets (exact and Space-Saving) and the tracker's window, against plain counts. */
+class FrequencyBucketsTest {
+    // a skewed key: a few patients come back far more often than the rest
+    private static int skewed(Random r, int keys) { return (int) Math.floor(Math.pow(r.nextDouble(), 3) * keys); }
+
+    // topK must return keys whose counts are exactly the K largest, highest first
+    private static void assertTopK(Map<Integer, Long> ref, HospitalSystemSingle.FrequencyBuckets f, int k, String when) {
+        List<Integer> top = f.topK(k);
+        List<Long> counts = top.stream().map(ref::get).collect(Collectors.toList());
+        List<Long> expected = ref.values().stream().sorted(Comparator.reverseOrder()).limit(k).collect(Collectors.toList());
+        assertEquals(expected, counts, when + ": top " + k + " = " + top);
+        assertEquals(top.size(), new HashSet<>(top).size(), when + ": duplicate key in top-K");
+    }
+
+    @Test
+    void exactCountsMatchAHashMap() {
+        Random r = new Random(6);
+        HospitalSystemSingle.FrequencyBuckets f = new HospitalSystemSingle.FrequencyBuckets();
+        Map<Integer, Long> ref = new HashMap<>();
+        long total = 0;
+        for (int step = 0; step < 100_000; step++) {
+            int key = skewed(r, 200);
+            if (r.nextInt(3) != 0) { f.increment(key); ref.merge(key, 1L, Long::sum); total++; }
+            else {
+                f.decrement(key);
+                Long c = ref.get(key);
+                if (c != null) { total--; if (c == 1) ref.remove(key); else ref.put(key, c - 1); }
+            }
+            assertEquals((long) ref.getOrDefault(key, 0L), f.count(key));
+            assertEquals(0, f.error(key));
+            if (step % 100 == 0) {
+                assertEquals(total, f.total());
+                assertEquals(ref.size(), f.distinct());
+                assertTopK(ref, f, 1 + r.nextInt(20), "step " + step);
+            }
+        }
+    }
+
+    /* Space-Saving with m counters over N arrivals: each monitored count overestimates by at most
+     * its recorded error, which is at most N/m, and every key seen more than N/m times is kept. */
+    @Test
+    void spaceSavingStaysWithinItsErrorBound() {
+        Random r = new Random(7);
+        for (int m : new int[]{ 8, 50, 200 }) {
+            HospitalSystemSingle.FrequencyBuckets f = new HospitalSystemSingle.FrequencyBuckets(m);
+            Map<Integer, Long> truth = new HashMap<>();
+            for (int n = 1; n <= 200_000; n++) {
+                int key = skewed(r, 5000);
+                f.increment(key); truth.merge(key, 1L, Long::sum);
+                if (n % 10_000 != 0) continue;
+                assertEquals(n, f.total());
+                assertTrue(f.distinct() <= m);
+                for (Map.Entry<Integer, Long> e : truth.entrySet()) {
+                    int k = e.getKey(); long c = f.count(k), err = f.error(k), t = e.getValue();
+                    if (c == 0) { assertTrue(t <= n / m, "m=" + m + ": key " + k + " seen " + t + " times was dropped"); continue; }
+                    assertTrue(c >= t && c - err <= t, "m=" + m + ": key " + k + " count " + c + " error " + err + " true " + t);
+                    assertTrue(err <= n / m, "m=" + m + ": error " + err + " above N/m = " + n / m);
+                }
+            }
+            // a key leading the runner-up by more than N/m must come out on top despite the overestimates
+            List<Long> counts = truth.values().stream().sorted(Comparator.reverseOrder()).limit(2).collect(Collectors.toList());
+            int leader = truth.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+            if (counts.get(0) - counts.get(1) > 200_000 / m) assertEquals(leader, (int) f.topK(1).get(0), "m=" + m);
+        }
+    }
+
+    // the recent view counts exactly the last `window` arrivals, with undone arrivals taken back out
+    @Test
+    void recentWindowMatchesTheLastArrivals() {
+        Random r = new Random(8);
+        int window = 100;
+        HospitalSystemSingle.FrequencyTracker t = new HospitalSystemSingle.FrequencyTracker(window);
+        Deque<Integer> arrivals = new ArrayDeque<>();
+        Map<Integer, Long> pending = new HashMap<>();
+        for (int step = 0; step < 50_000; step++) {
+            int pid = skewed(r, 60);
+            if (r.nextInt(5) != 0 || arrivals.isEmpty()) {
+                t.onArrival(pid); arrivals.addLast(pid); pending.merge(pid, 1L, Long::sum);
+                if (arrivals.size() > window) arrivals.removeFirst();
+            } else { // undo the newest arrival
+                int last = arrivals.removeLast();
+                t.onArrivalUndone(last);
+                pending.merge(last, -1L, Long::sum);
+            }
+            if (step % 50 == 0) {
+                Map<Integer, Long> recent = arrivals.stream().collect(Collectors.groupingBy(x -> x, Collectors.counting()));
+                List<Long> top = t.topRecent(5).stream().map(recent::get).collect(Collectors.toList());
+                assertEquals(recent.values().stream().sorted(Comparator.reverseOrder()).limit(5).collect(Collectors.toList()), top, "step " + step);
+                for (Map.Entry<Integer, Long> e : pending.entrySet()) assertEquals((long) e.getValue(), t.pendingCount(e.getKey()));
+            }
+        }
+    }
+}
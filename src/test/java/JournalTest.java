@@ -0,0 +1,194 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* The write-ahead journal: record round trips, torn tails, snapshots and the fsync policies. */
+class JournalTest {
+    private static final HospitalSystemSingle.Journal.FsyncPolicy EVERY_OP = HospitalSystemSingle.Journal.FsyncPolicy.EVERY_OP;
+    private static final int PATIENTS = 40;
+    @TempDir Path dir;
+
+    private Path journalFile() { return dir.resolve(HospitalSystemSingle.JOURNAL_FILE); }
+
+    // everything recovery must rebuild, read without mutating the system
+    private static String state(HospitalSystemSingle hs) {
+        StringBuilder sb = new StringBuilder(hs.reportSummary());
+        for (int p = 1; p <= PATIENTS; p++) sb.append(hs.getPatient(p)).append(' ').append(hs.pendingTokens(p)).append('\n');
+        return sb.append("desks=").append(hs.deskCount()).toString();
+    }
+    // what is left to serve and undo, in order: consumes a system whose journal is closed
+    private static List<String> drain(HospitalSystemSingle hs) {
+        List<String> out = new ArrayList<>();
+        for (String u; !(u = hs.undo()).equals("Nothing to undo"); ) out.add(u);
+        for (HospitalSystemSingle.Token t; (t = hs.serveNext()) != null; ) out.add(t.toString());
+        return out;
+    }
+    // the op byte of every record in the journal, in file order
+    private List<Byte> ops() throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(journalFile()));
+        List<Byte> ops = new ArrayList<>();
+        while (in.remaining() >= 4) {
+            int start = in.position(), len = in.getInt();
+            ops.add(in.get(start + 4 + 8));
+            in.position(start + 4 + len);
+        }
+        return ops;
+    }
+    private HospitalSystemSingle open(HospitalSystemSingle.Journal.FsyncPolicy policy, int snapshotEvery) throws IOException {
+        return HospitalSystemSingle.recover(dir, 31, 20, policy, snapshotEvery);
+    }
+
+    // a seeded day touching every journaled operation
+    private static void workload(HospitalSystemSingle hs, long seed, int steps) {
+        Random r = new Random(seed);
+        hs.enableSchedule(8 * 60, 10, 7);
+        for (int d = 1; d <= 3; d++) {
+            HospitalSystemSingle.Doctor doc = new HospitalSystemSingle.Doctor(d, "Dr. " + d, d == 3 ? null : "General");
+            for (int s = 0; s < 12; s++)
+                doc.addSlot(new HospitalSystemSingle.Slot(d * 100 + s, String.format("%02d:%02d", 8 + s / 4, s % 4 * 15), String.format("%02d:%02d", 8 + s / 4, s % 4 * 15 + 14)));
+            if (d == 2) doc.bookSlot(200);
+            hs.addDoctor(doc);
+        }
+        long clock = 8 * 60;
+        for (int i = 0; i < steps; i++) {
+            int pid = 1 + r.nextInt(PATIENTS), desk = r.nextInt(3);
+            switch (r.nextInt(10)) {
+                case 0: case 1: hs.desk(desk).upsertPatient(new HospitalSystemSingle.Patient(pid, "P" + pid + "-" + i, 20 + r.nextInt(60), 1 + r.nextInt(5))); break;
+                case 2: hs.desk(desk).bookRoutine(pid, 1 + r.nextInt(3)); break;
+                case 3: hs.desk(desk).triageInsert(pid); break;
+                case 4: hs.desk(desk).serveNext(); break;
+                case 5: hs.desk(desk).undo(); break;
+                case 6: hs.desk(desk).redo(); break;
+                case 7: hs.advanceTo(clock += r.nextInt(6)); break;
+                case 8: if (r.nextInt(4) == 0) hs.desk(desk).removePatient(pid); else hs.bookEarliest(pid, "General"); break;
+                default: if (r.nextInt(8) == 0) hs.releaseDesk(desk); else hs.desk(desk).upsertPatient(new HospitalSystemSingle.Patient(pid, null, 40, 3));
+            }
+        }
+    }
+
+    /* One step per journal op: each writes exactly the expected record, and after each the
+     * recovered system matches the live one. */
+    @Test
+    void everyOpTypeRoundTrips() throws IOException {
+        HospitalSystemSingle hs = open(EVERY_OP, 0);
+        HospitalSystemSingle.Doctor named = new HospitalSystemSingle.Doctor(1, "Dr. Ünal", "General");
+        named.addSlot(new HospitalSystemSingle.Slot(10, "09:00", "09:15"));
+        named.addSlot(new HospitalSystemSingle.Slot(11, "09:15", "09:30"));
+        named.bookSlot(11);
+        Map<String, Map.Entry<List<Byte>, Consumer<HospitalSystemSingle>>> steps = new LinkedHashMap<>();
+        steps.put("schedule", Map.entry(List.of(HospitalSystemSingle.Journal.SCHEDULE), s -> s.enableSchedule(8 * 60, 10, 5)));
+        steps.put("doctor + slots", Map.entry(List.of(HospitalSystemSingle.Journal.ADD_DOCTOR, HospitalSystemSingle.Journal.ADD_SLOT, HospitalSystemSingle.Journal.ADD_SLOT), s -> s.addDoctor(named)));
+        steps.put("doctor, null strings", Map.entry(List.of(HospitalSystemSingle.Journal.ADD_DOCTOR), s -> s.addDoctor(new HospitalSystemSingle.Doctor(2, null, null))));
+        steps.put("upsert", Map.entry(List.of(HospitalSystemSingle.Journal.UPSERT), s -> s.upsertPatient(new HospitalSystemSingle.Patient(1, "Zoë \"Z\", Jr", 33, 4))));
+        steps.put("upsert, null name", Map.entry(List.of(HospitalSystemSingle.Journal.UPSERT), s -> s.desk(2).upsertPatient(new HospitalSystemSingle.Patient(2, null, 50, 2))));
+        steps.put("book", Map.entry(List.of(HospitalSystemSingle.Journal.BOOK), s -> assertTrue(s.desk(2).bookRoutine(1, 1))));
+        steps.put("triage", Map.entry(List.of(HospitalSystemSingle.Journal.TRIAGE), s -> s.triageInsert(2)));
+        steps.put("serve", Map.entry(List.of(HospitalSystemSingle.Journal.SERVE), s -> assertEquals(2, s.serveNext().patientId)));
+        steps.put("undo", Map.entry(List.of(HospitalSystemSingle.Journal.UNDO), s -> s.undo()));
+        steps.put("redo", Map.entry(List.of(HospitalSystemSingle.Journal.REDO), s -> s.redo()));
+        steps.put("advance", Map.entry(List.of(HospitalSystemSingle.Journal.ADVANCE), s -> s.advanceTo(9 * 60 + 3)));
+        steps.put("remove", Map.entry(List.of(HospitalSystemSingle.Journal.REMOVE), s -> assertTrue(s.removePatient(2))));
+        steps.put("release desk", Map.entry(List.of(HospitalSystemSingle.Journal.RELEASE_DESK), s -> s.releaseDesk(2)));
+
+        List<Byte> expected = new ArrayList<>();
+        for (Map.Entry<String, Map.Entry<List<Byte>, Consumer<HospitalSystemSingle>>> step : steps.entrySet()) {
+            step.getValue().getValue().accept(hs);
+            expected.addAll(step.getValue().getKey());
+            assertEquals(expected, ops(), step.getKey() + ": unexpected records");
+            HospitalSystemSingle back = open(EVERY_OP, 0);
+            assertEquals(state(hs), state(back), step.getKey() + " did not round-trip");
+            back.closeJournal();
+        }
+        hs.closeJournal();
+        HospitalSystemSingle back = open(EVERY_OP, 0);
+        back.closeJournal();
+        assertEquals(drain(hs), drain(back));
+    }
+
+    @Test
+    void tornTailIsTruncatedOnRecovery() throws IOException {
+        HospitalSystemSingle hs = open(EVERY_OP, 0);
+        workload(hs, 1, 300);
+        String state = state(hs);
+        long intact = Files.size(journalFile());
+        hs.upsertPatient(new HospitalSystemSingle.Patient(1, "Last", 30, 3));
+        byte[] last = Arrays.copyOfRange(Files.readAllBytes(journalFile()), (int) intact, (int) Files.size(journalFile()));
+        hs.closeJournal();
+        // the crash cut the last record short
+        try (FileChannel ch = FileChannel.open(journalFile(), StandardOpenOption.WRITE)) { ch.truncate(intact + last.length - 3); }
+
+        HospitalSystemSingle back = open(EVERY_OP, 0);
+        assertEquals(state, state(back));
+        assertEquals(intact, Files.size(journalFile()), "the torn record was not truncated");
+        back.upsertPatient(new HospitalSystemSingle.Patient(1, "After", 30, 3)); // appends after the cut
+        back.closeJournal();
+        assertEquals("After", open(EVERY_OP, 0).getPatient(1).name);
+    }
+
+    @Test
+    void badCrcAtTheTailIsTruncatedOnRecovery() throws IOException {
+        HospitalSystemSingle hs = open(EVERY_OP, 0);
+        workload(hs, 2, 300);
+        String state = state(hs);
+        long intact = Files.size(journalFile());
+        hs.upsertPatient(new HospitalSystemSingle.Patient(1, "Last", 30, 3));
+        hs.closeJournal();
+        try (FileChannel ch = FileChannel.open(journalFile(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            long at = intact + 4 + 8 + 1 + 4; // inside the payload
+            ch.read(b, at);
+            b.put(0, (byte) (b.get(0) ^ 0x40)).rewind();
+            ch.write(b, at);
+        }
+        HospitalSystemSingle back = open(EVERY_OP, 0);
+        assertEquals(state, state(back));
+        assertEquals(intact, Files.size(journalFile()));
+        back.closeJournal();
+    }
+
+    @Test
+    void snapshotPlusTailMatchesJournalOnlyReplay() throws IOException {
+        Path journalOnly = dir.resolve("journal-only"), snapshots = dir.resolve("snapshots");
+        HospitalSystemSingle a = HospitalSystemSingle.recover(journalOnly, 31, 20, EVERY_OP, 0);
+        HospitalSystemSingle b = HospitalSystemSingle.recover(snapshots, 31, 20, EVERY_OP, 37);
+        workload(a, 3, 2000);
+        workload(b, 3, 2000);
+        assertEquals(state(a), state(b));
+        assertTrue(Files.exists(snapshots.resolve(HospitalSystemSingle.SNAPSHOT_FILE)));
+        assertTrue(Files.size(snapshots.resolve(HospitalSystemSingle.JOURNAL_FILE)) < Files.size(journalOnly.resolve(HospitalSystemSingle.JOURNAL_FILE)));
+        a.closeJournal();
+        b.closeJournal();
+
+        HospitalSystemSingle fromJournal = HospitalSystemSingle.recover(journalOnly, 31, 20, EVERY_OP, 0);
+        HospitalSystemSingle fromSnapshot = HospitalSystemSingle.recover(snapshots, 31, 20, EVERY_OP, 37);
+        assertEquals(state(a), state(fromJournal));
+        assertEquals(state(a), state(fromSnapshot));
+        fromJournal.closeJournal();
+        fromSnapshot.closeJournal();
+        List<String> rest = drain(a);
+        assertEquals(rest, drain(fromJournal));
+        assertEquals(rest, drain(fromSnapshot));
+    }
+
+    /* Every policy writes each record through to the OS, so a process that dies without closing
+     * the journal (another reader here) loses nothing the OS has; only forcing differs. */
+    @Test
+    void everyFsyncPolicyKeepsAcknowledgedRecords() throws IOException {
+        for (HospitalSystemSingle.Journal.FsyncPolicy policy : HospitalSystemSingle.Journal.FsyncPolicy.values()) {
+            Path d = dir.resolve(policy.name());
+            HospitalSystemSingle hs = HospitalSystemSingle.recover(d, 31, 20, policy, 1_000_000, 60_000, 0); // no group force during the test
+            workload(hs, 4, 500);
+            HospitalSystemSingle crashed = HospitalSystemSingle.recover(d, 31, 20, policy, 0);
+            assertEquals(state(hs), state(crashed), policy + " lost acknowledged records");
+            crashed.closeJournal();
+            hs.closeJournal();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/* The log-linear latency histogram against exact percentiles of the recorded values. */
+class LatencyHistogramTest {
+    // the exact value at percentile p under the histogram's rank rule: the ceil(p/100 * n)-th smallest
+    private static long exact(long[] sorted, double p) {
+        return sorted[(int) Math.max(1, (long) Math.ceil(p / 100.0 * sorted.length)) - 1];
+    }
+
+    // a reported percentile is never below the exact one and above it by at most one sub-bucket (1/16)
+    @Test
+    void percentilesStayWithinTheBucketErrorBound() {
+        Random r = new Random(10);
+        double[] ps = { 0, 1, 25, 50, 90, 99, 99.9, 99.99, 100 };
+        for (int run = 0; run < 40; run++) {
+            HospitalSystemSingle.LatencyHistogram h = new HospitalSystemSingle.LatencyHistogram();
+            int n = 1 + r.nextInt(run < 10 ? 20 : 50_000);
+            long[] values = new long[n];
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                // short ops near 100 ns, a lognormal body and a rare multi-millisecond tail
+                long v = r.nextInt(20) == 0 ? r.nextInt(16)
+                       : r.nextInt(500) == 0 ? 1_000_000L + (long) (r.nextDouble() * 50_000_000L)
+                       : (long) Math.exp(5 + 2 * r.nextGaussian());
+                values[i] = v; sum += v;
+                h.record(v);
+            }
+            Arrays.sort(values);
+            assertEquals(n, h.count());
+            assertEquals(values[n - 1], h.max());
+            assertEquals(sum / (double) n, h.mean(), 1e-9 * Math.max(1, sum));
+            for (double p : ps) {
+                long want = exact(values, p), got = h.percentile(p);
+                assertTrue(got >= want && got <= want + want / 16, "run " + run + ", n " + n + ", p" + p + ": " + got + " vs exact " + want);
+            }
+        }
+    }
+
+    // every value lies inside its bucket, and the buckets tile the range without gaps
+    @Test
+    void bucketsCoverEveryValueOnce() {
+        Random r = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            long v = i < 5000 ? i : r.nextLong() >>> (1 + r.nextInt(63));
+            int b = HospitalSystemSingle.LatencyHistogram.bucket(v);
+            assertTrue(HospitalSystemSingle.LatencyHistogram.lowerBound(b) <= v, "value " + v + " below bucket " + b);
+            assertTrue(v < HospitalSystemSingle.LatencyHistogram.lowerBound(b + 1) || b == HospitalSystemSingle.LatencyHistogram.bucket(Long.MAX_VALUE),
+                "value " + v + " above bucket " + b);
+        }
+        for (int b = 0; b < HospitalSystemSingle.LatencyHistogram.bucket(Long.MAX_VALUE); b++)
+            assertEquals(b, HospitalSystemSingle.LatencyHistogram.bucket(HospitalSystemSingle.LatencyHistogram.lowerBound(b)));
+    }
+
+    // concurrent recorders lose nothing, and reset empties the histogram
+    @Test
+    void concurrentRecordsAreAllCounted() throws Exception {
+        HospitalSystemSingle.LatencyHistogram h = new HospitalSystemSingle.LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> { Random r = new Random(seed); for (int i = 0; i < 50_000; i++) h.record(r.nextInt(1 << 20)); });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(200_000, h.count());
+        assertTrue(h.max() < 1 << 20);
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(99));
+    }
+}
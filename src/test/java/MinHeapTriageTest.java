@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/* The indexed triage heap against a linear scan over a plain map of pending tokens. */
+class MinHeapTriageTest {
+    private static HospitalSystemSingle.Token token(int tokenId, int patientId) {
+        return new HospitalSystemSingle.Token(tokenId, patientId, -1, -1, HospitalSystemSingle.Token.TokenType.EMERGENCY);
+    }
+    // the reference: tokenId -> {patientId, severity}; the minimum is the lowest (severity, tokenId)
+    private static Integer min(Map<Integer, int[]> ref) {
+        Integer best = null;
+        for (Map.Entry<Integer, int[]> e : ref.entrySet()) {
+            if (best == null) { best = e.getKey(); continue; }
+            int[] b = ref.get(best), c = e.getValue();
+            if (c[1] < b[1] || c[1] == b[1] && e.getKey() < best) best = e.getKey();
+        }
+        return best;
+    }
+
+    @Test
+    void matchesALinearScanUnderRandomOperations() {
+        Random r = new Random(1);
+        HospitalSystemSingle.MinHeapTriage heap = new HospitalSystemSingle.MinHeapTriage();
+        Map<Integer, int[]> ref = new HashMap<>();
+        int nextToken = 1;
+        for (int step = 0; step < 30_000; step++) {
+            int patient = r.nextInt(50), severity = r.nextInt(6);
+            switch (r.nextInt(7)) {
+                case 0: case 1: { // new tokens mostly in issue order, sometimes an old id coming back (undo)
+                    int id = r.nextInt(5) == 0 ? 1 + r.nextInt(nextToken) : nextToken++;
+                    heap.insert(token(id, patient), severity);
+                    ref.putIfAbsent(id, new int[]{ patient, severity });
+                    break;
+                }
+                case 2: {
+                    Integer expected = min(ref);
+                    HospitalSystemSingle.Token t = heap.extractMin();
+                    assertEquals(expected, t == null ? null : t.tokenId, "extractMin at step " + step);
+                    if (expected != null) ref.remove(expected);
+                    break;
+                }
+                case 3: {
+                    int id = 1 + r.nextInt(nextToken);
+                    assertEquals(ref.remove(id) != null, heap.remove(id));
+                    break;
+                }
+                case 4:
+                    heap.updatePriority(patient, severity);
+                    for (int[] v : ref.values()) if (v[0] == patient) v[1] = severity;
+                    break;
+                case 5: {
+                    int id = 1 + r.nextInt(nextToken);
+                    int[] v = ref.get(id);
+                    assertEquals(v != null, heap.changeKey(id, severity));
+                    if (v != null) v[1] = severity;
+                    break;
+                }
+                default: {
+                    int id = 1 + r.nextInt(nextToken);
+                    int[] v = ref.get(id);
+                    assertEquals(v == null ? null : v[1], heap.severityOf(id));
+                    assertEquals(v != null, heap.contains(id));
+                }
+            }
+            assertEquals(ref.size(), heap.size());
+            Integer m = min(ref);
+            assertEquals(m, heap.peek() == null ? null : heap.peek().tokenId);
+            assertEquals(m == null ? Integer.MAX_VALUE : ref.get(m)[1], heap.peekSeverity());
+        }
+        // the snapshot copy sorts into the same serving order the heap drains in
+        HospitalSystemSingle.Token[] tokens = new HospitalSystemSingle.Token[heap.size()];
+        int[] severities = new int[tokens.length];
+        heap.copyTo(tokens, severities);
+        List<HospitalSystemSingle.Token> sorted = HospitalSystemSingle.MinHeapTriage.sortByPriority(tokens, severities);
+        for (HospitalSystemSingle.Token t : sorted) assertSame(t, heap.extractMin());
+        assertNull(heap.extractMin());
+    }
+
+    // equal keys are served in issue order, whatever order they reached that key in
+    @Test
+    void tiesAreServedInTokenOrderAfterReprioritizing() {
+        HospitalSystemSingle.MinHeapTriage heap = new HospitalSystemSingle.MinHeapTriage();
+        for (int id = 1; id <= 40; id++) heap.insert(token(id, id % 4), 5 - id % 4); // patient p at severity 5 - p
+        heap.updatePriority(3, 1); // patient 3's tokens were at 2, now tie with nobody
+        heap.updatePriority(0, 1); // patient 0's tokens join them at 1
+        heap.changeKey(2, 1);      // one of patient 2's tokens too
+        List<Integer> ones = new ArrayList<>();
+        while (heap.peekSeverity() == 1) ones.add(heap.extractMin().tokenId);
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 1; id <= 40; id++) if (id % 4 == 3 || id % 4 == 0 || id == 2) expected.add(id);
+        assertEquals(expected, ones);
+        int last = 0;
+        while (heap.peekSeverity() == 3) { int id = heap.extractMin().tokenId; assertTrue(id > last); assertEquals(2, id % 4); last = id; }
+        assertEquals(4, heap.peekSeverity());
+    }
+}
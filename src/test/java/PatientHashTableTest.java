@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/* The open-addressing patient table against java.util.HashMap. */
+class PatientHashTableTest {
+    private static HospitalSystemSingle.Patient patient(int id, int version) { return new HospitalSystemSingle.Patient(id, "P" + id, version, 1); }
+
+    private static void assertSameContents(Map<Integer, HospitalSystemSingle.Patient> ref, HospitalSystemSingle.PatientHashTable table, String when) {
+        assertEquals(ref.size(), table.size(), when);
+        for (Map.Entry<Integer, HospitalSystemSingle.Patient> e : ref.entrySet()) assertSame(e.getValue(), table.get(e.getKey()), when + ": key " + e.getKey());
+        Map<Integer, HospitalSystemSingle.Patient> seen = new HashMap<>();
+        table.forEach(p -> assertNull(seen.put(p.id, p), when + ": " + p.id + " visited twice"));
+        assertEquals(ref, seen, when);
+        assertEquals(ref.size(), Arrays.stream(table.probeLengthHistogram()).sum(), when + ": probe histogram");
+    }
+
+    // small initial table: the run goes through many incremental resizes, with reads and writes mid-drain
+    @Test
+    void matchesAHashMapThroughIncrementalResizes() {
+        Random r = new Random(3);
+        for (float loadFactor : new float[]{ 0.5f, 0.75f, 0.95f }) {
+            HospitalSystemSingle.PatientHashTable table = new HospitalSystemSingle.PatientHashTable(4, loadFactor);
+            Map<Integer, HospitalSystemSingle.Patient> ref = new HashMap<>();
+            int keySpace = 64;
+            for (int step = 0; step < 60_000; step++) {
+                if (step % 2000 == 0 && keySpace < 1 << 16) keySpace *= 2; // the live set keeps growing
+                // dense ids, negative ids and a few far-off ones
+                int id = r.nextInt(10) == 0 ? r.nextInt() : r.nextInt(keySpace) - keySpace / 8;
+                int op = r.nextInt(10);
+                if (op < 6) {
+                    HospitalSystemSingle.Patient p = patient(id, step);
+                    table.upsert(p); ref.put(id, p);
+                } else if (op < 9) {
+                    assertEquals(ref.remove(id) != null, table.delete(id), "delete " + id);
+                } else {
+                    assertSame(ref.get(id), table.get(id), "get " + id);
+                }
+                assertSame(ref.get(id), table.get(id));
+                if (step % 500 == 0) assertSameContents(ref, table, "load factor " + loadFactor + ", step " + step);
+            }
+            assertSameContents(ref, table, "load factor " + loadFactor + ", end");
+            assertTrue(ref.size() <= table.capacity() * loadFactor + 1);
+        }
+    }
+
+    // backward-shift deletion leaves no tombstones, so churn at a steady size never grows the table
+    @Test
+    void churnAtASteadySizeNeverGrowsTheTable() {
+        Random r = new Random(4);
+        HospitalSystemSingle.PatientHashTable table = new HospitalSystemSingle.PatientHashTable(1000, 0.9f);
+        Map<Integer, HospitalSystemSingle.Patient> ref = new HashMap<>();
+        List<Integer> live = new ArrayList<>();
+        while (ref.size() < 1000) {
+            int id = r.nextInt(1 << 20);
+            if (ref.containsKey(id)) continue;
+            HospitalSystemSingle.Patient p = patient(id, 0);
+            table.upsert(p); ref.put(id, p); live.add(id);
+        }
+        int capacity = table.capacity();
+        for (int step = 0; step < 200_000; step++) {
+            int victim = live.set(r.nextInt(live.size()), -1);
+            int id;
+            do id = r.nextInt(1 << 20); while (ref.containsKey(id));
+            assertTrue(table.delete(victim));
+            ref.remove(victim);
+            assertNull(table.get(victim));
+            HospitalSystemSingle.Patient p = patient(id, step);
+            table.upsert(p); ref.put(id, p);
+            live.set(live.indexOf(-1), id);
+            if (step % 20_000 == 0) assertSameContents(ref, table, "step " + step);
+        }
+        assertEquals(capacity, table.capacity(), "the table grew under churn");
+        assertSameContents(ref, table, "end");
+    }
+
+    @Test
+    void presizingSkipsEveryResize() {
+        HospitalSystemSingle.PatientHashTable table = new HospitalSystemSingle.PatientHashTable(16);
+        table.upsert(patient(-5, 0));
+        table.ensureCapacity(100_000);
+        int capacity = table.capacity();
+        assertTrue(capacity * 0.75 >= 100_000);
+        for (int id = 0; id < 100_000 - 1; id++) table.upsert(patient(id, 0));
+        assertEquals(capacity, table.capacity());
+        assertEquals(100_000, table.size());
+        assertNotNull(table.get(-5));
+        assertThrows(IllegalArgumentException.class, () -> new HospitalSystemSingle.PatientHashTable(16, 1f));
+    }
+}
@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/* Secondary patient indexes, checked against a TreeSet and a linear scan of the registry. */
+class PatientIndexTest {
+    private static final int IDS = 300;
+
+    @Test
+    void packedSetMatchesATreeSet() {
+        Random r = new Random(5);
+        HospitalSystemSingle.PatientIndex.PackedLongSet set = new HospitalSystemSingle.PatientIndex.PackedLongSet();
+        TreeSet<Long> ref = new TreeSet<>();
+        for (int step = 0; step < 200_000; step++) {
+            // phases of mostly adds and mostly removes, so blocks split, drain and merge
+            boolean adding = step / 20_000 % 2 == 0 ? r.nextInt(4) != 0 : r.nextInt(4) == 0;
+            long v = (long) (r.nextInt(200) - 20) << 32 | r.nextInt(1000);
+            if (adding) assertEquals(ref.add(v), set.add(v));
+            else assertEquals(ref.remove(v), set.remove(v));
+            assertEquals(ref.size(), set.size());
+            if (step % 97 == 0) {
+                long from = (long) (r.nextInt(220) - 30) << 32, to = from + ((long) (1 + r.nextInt(40)) << 32) - 1;
+                List<Integer> expected = ref.subSet(from, true, to, true).stream().map(Long::intValue).collect(Collectors.toList());
+                assertEquals(expected, set.lowBits(from, to).boxed().collect(Collectors.toList()), "range at step " + step);
+            }
+        }
+        for (Long v : new ArrayList<>(ref)) assertTrue(set.remove(v));
+        assertEquals(0, set.size());
+        assertEquals(0, set.lowBits(Long.MIN_VALUE, Long.MAX_VALUE).count());
+        assertTrue(set.add(42));
+        assertEquals(List.of(42), set.lowBits(0, 100).boxed().collect(Collectors.toList()));
+    }
+
+    // each query against a filter over every registered patient, in the index's order
+    private static void assertInSync(HospitalSystemSingle hs, Random r, String when) {
+        List<HospitalSystemSingle.Patient> all = new ArrayList<>();
+        for (int id = 1; id <= IDS; id++) { HospitalSystemSingle.Patient p = hs.getPatient(id); if (p != null) all.add(p); }
+        String prefix = r.nextBoolean() ? "" : String.valueOf("abcAB".charAt(r.nextInt(5)));
+        Comparator<HospitalSystemSingle.Patient> byName = Comparator.comparing((HospitalSystemSingle.Patient p) -> p.name == null ? "" : p.name.toLowerCase(Locale.ROOT)).thenComparingInt(p -> p.id);
+        assertEquals(ids(all.stream().filter(p -> (p.name == null ? "" : p.name.toLowerCase(Locale.ROOT)).startsWith(prefix.toLowerCase(Locale.ROOT))).sorted(byName)),
+            ids(hs.searchByName(prefix)), when + ": name prefix '" + prefix + "'");
+        int lo = r.nextInt(90), hi = lo + r.nextInt(30);
+        assertEquals(ids(all.stream().filter(p -> p.age >= lo && p.age <= hi).sorted(Comparator.comparingInt((HospitalSystemSingle.Patient p) -> p.age).thenComparingInt(p -> p.id))),
+            ids(hs.patientsByAge(lo, hi)), when + ": age " + lo + ".." + hi);
+        int s = 1 + r.nextInt(5), t = s + r.nextInt(3);
+        assertEquals(ids(all.stream().filter(p -> p.severity >= s && p.severity <= t).sorted(Comparator.comparingInt((HospitalSystemSingle.Patient p) -> p.severity).thenComparingInt(p -> p.id))),
+            ids(hs.patientsBySeverity(s, t)), when + ": severity " + s + ".." + t);
+    }
+    private static List<Integer> ids(java.util.stream.Stream<HospitalSystemSingle.Patient> s) { return s.map(p -> p.id).collect(Collectors.toList()); }
+
+    @Test
+    void indexesFollowUpsertRemoveUndoAndRedo() {
+        HospitalSystemSingle hs = new HospitalSystemSingle(31, 20, 64);
+        Random r = new Random(9);
+        for (int id = 1; id <= IDS / 2; id++) hs.upsertPatient(new HospitalSystemSingle.Patient(id, "Ab" + id, r.nextInt(100), 1 + r.nextInt(5)));
+        hs.enableIndexes(); // built from the existing registry
+        assertInSync(hs, r, "enable");
+        HospitalSystemSingle.Patient reused = new HospitalSystemSingle.Patient(7, "Reused", 40, 2);
+        for (int step = 0; step < 5000; step++) {
+            int id = 1 + r.nextInt(IDS);
+            String what;
+            switch (r.nextInt(6)) {
+                case 0: case 1: {
+                    String name = r.nextInt(10) == 0 ? null : "ABCabc".charAt(r.nextInt(6)) + "x" + r.nextInt(50);
+                    hs.desk(r.nextInt(2)).upsertPatient(new HospitalSystemSingle.Patient(id, name, r.nextInt(100), 1 + r.nextInt(5)));
+                    what = "upsert " + id; break;
+                }
+                case 2: // the caller mutates and re-upserts one object
+                    reused.name = "b" + r.nextInt(9); reused.age = r.nextInt(100); reused.severity = 1 + r.nextInt(5);
+                    hs.upsertPatient(reused); what = "re-upsert 7"; break;
+                case 3: what = "remove " + id + " " + hs.desk(r.nextInt(2)).removePatient(id); break;
+                case 4: what = hs.desk(r.nextInt(2)).undo(); break;
+                default: what = hs.desk(r.nextInt(2)).redo();
+            }
+            assertInSync(hs, r, "step " + step + " (" + what + ")");
+        }
+    }
+
+    // undoing a registration restores the replaced values in every index, or drops a new patient from all of them
+    @Test
+    void undoOfARegistrationRestoresTheIndexedValues() {
+        HospitalSystemSingle hs = new HospitalSystemSingle(31, 20);
+        hs.enableIndexes();
+        hs.upsertPatient(new HospitalSystemSingle.Patient(1, "Asha", 30, 4));
+        hs.upsertPatient(new HospitalSystemSingle.Patient(1, "Bela", 70, 1));
+        hs.upsertPatient(new HospitalSystemSingle.Patient(2, "Asif", 31, 4));
+        assertEquals(List.of(2), ids(hs.searchByName("as")));
+        hs.undo();
+        assertEquals(List.of(), ids(hs.searchByName("as")));
+        assertEquals(List.of(), ids(hs.patientsByAge(31, 31)));
+        hs.undo();
+        assertEquals(List.of(1), ids(hs.searchByName("AS")));
+        assertEquals(List.of(), ids(hs.searchByName("bela")));
+        assertEquals(List.of(1), ids(hs.patientsByAge(30, 30)));
+        assertEquals(List.of(), ids(hs.patientsBySeverity(1, 1)));
+        assertEquals(List.of(1), ids(hs.patientsBySeverity(4, 4)));
+        hs.redo();
+        assertEquals(List.of(1), ids(hs.patientsBySeverity(1, 1)));
+        assertTrue(hs.removePatient(1));
+        assertEquals(List.of(), ids(hs.patientsByAge(0, 200)));
+        hs.undo();
+        assertEquals(List.of(1), ids(hs.patientsByAge(0, 200)));
+    }
+}
@@ -0,0 +1,205 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* The timing wheel and the schedule built on it, driven by the simulated minute clock. */
+class ScheduleTest {
+    private static final int NINE = 9 * 60, EIGHT = 8 * 60;
+    @TempDir Path tmp;
+
+    /* Random timers from random start times, advanced in random steps: every timer fires exactly
+     * at its deadline (however many levels it cascaded through), in scheduling order within a
+     * minute, and a cancelled timer never fires. */
+    @Test
+    void wheelFiresEveryTimerAtItsDeadline() {
+        Random r = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            long start = r.nextInt(1 << 20);
+            HospitalSystemSingle.TimingWheel wheel = new HospitalSystemSingle.TimingWheel(start);
+            List<HospitalSystemSingle.TimingWheel.Timer> live = new ArrayList<>();
+            Set<HospitalSystemSingle.TimingWheel.Timer> cancelled = new HashSet<>();
+            for (int id = 0; id < 300; id++) {
+                int level = r.nextInt(4); // spread over all four levels: under 64, 4096, 262144 minutes, and beyond
+                long delta = 1 + (long) r.nextInt(1 << Math.min(6 * (level + 1), 20));
+                HospitalSystemSingle.TimingWheel.Timer t = wheel.schedule(HospitalSystemSingle.TimingWheel.RELEASE, id, start + delta);
+                if (r.nextInt(10) == 0) { assertTrue(wheel.cancel(t)); cancelled.add(t); }
+                else live.add(t);
+            }
+            assertEquals(live.size(), wheel.size());
+            List<HospitalSystemSingle.TimingWheel.Timer> fired = new ArrayList<>();
+            long end = start + (1 << 20) + 1;
+            while (wheel.now() < end) {
+                long to = Math.min(end, wheel.now() + 1 + r.nextInt(r.nextBoolean() ? 100 : 1 << 16));
+                wheel.advanceTo(to, t -> {
+                    assertEquals(t.deadline, wheel.now(), "timer " + t.tokenId + " fired off its deadline");
+                    assertFalse(cancelled.contains(t), "cancelled timer " + t.tokenId + " fired");
+                    fired.add(t);
+                });
+            }
+            assertEquals(0, wheel.size());
+            List<HospitalSystemSingle.TimingWheel.Timer> expected = new ArrayList<>(live);
+            expected.sort(Comparator.comparingLong((HospitalSystemSingle.TimingWheel.Timer t) -> t.deadline).thenComparingInt(t -> t.tokenId));
+            assertEquals(expected, fired);
+            for (HospitalSystemSingle.TimingWheel.Timer t : live) assertFalse(wheel.cancel(t), "a fired timer can still be cancelled");
+        }
+    }
+
+    // one doctor with a 09:00 and a 09:15 slot, patients 1..3 with severities 3, 1, 2
+    private HospitalSystemSingle.Doctor doctor;
+    private HospitalSystemSingle clinic(HospitalSystemSingle hs, int grace, int escalateAfter) {
+        hs.enableSchedule(EIGHT, grace, escalateAfter);
+        doctor = new HospitalSystemSingle.Doctor(1, "Dr. A", "General");
+        doctor.addSlot(new HospitalSystemSingle.Slot(10, "09:00", "09:15"));
+        doctor.addSlot(new HospitalSystemSingle.Slot(11, "09:15", "09:30"));
+        hs.addDoctor(doctor);
+        hs.upsertPatient(new HospitalSystemSingle.Patient(1, "P1", 30, 3));
+        hs.upsertPatient(new HospitalSystemSingle.Patient(2, "P2", 40, 1));
+        hs.upsertPatient(new HospitalSystemSingle.Patient(3, "P3", 50, 2));
+        return hs;
+    }
+    private HospitalSystemSingle clinic(int grace, int escalateAfter) { return clinic(new HospitalSystemSingle(31, 20), grace, escalateAfter); }
+
+    // at interval 0 a snapshot is always current, including the moment the clock appears
+    @Test
+    void snapshotShowsTheClockAsSoonAsTheScheduleIsEnabled() {
+        HospitalSystemSingle hs = new HospitalSystemSingle(31, 20);
+        hs.enableSnapshots(0);
+        hs.enableSchedule(EIGHT, 10, 5);
+        assertEquals(EIGHT, hs.snapshot().clock);
+        assertTrue(hs.snapshot().report().contains("Clock: 08:00"));
+    }
+
+    @Test
+    void bookedTokenIsHeldUntilItsSlotStarts() {
+        HospitalSystemSingle hs = clinic(-1, 0);
+        assertTrue(hs.bookRoutine(2, 1));
+        assertEquals(1, hs.heldCount());
+        assertNull(hs.serveNext(), "a held token must not be served before its slot");
+        hs.advanceTo(NINE - 1);
+        assertEquals(1, hs.heldCount());
+        assertNull(hs.serveNext());
+        hs.advanceTo(NINE);
+        assertEquals(0, hs.heldCount());
+        HospitalSystemSingle.Token t = hs.serveNext();
+        assertNotNull(t);
+        assertEquals(10, t.slotId);
+    }
+
+    @Test
+    void noShowExpiryFreesTheSlot() {
+        HospitalSystemSingle hs = clinic(10, 0);
+        assertTrue(hs.bookRoutine(2, 1));
+        assertEquals(1, doctor.pendingCount());
+        hs.advanceTo(NINE + 9);
+        assertEquals(0, hs.expiredCount());
+        hs.advanceTo(NINE + 10);
+        assertEquals(1, hs.expiredCount());
+        assertEquals(2, doctor.pendingCount(), "the no-show's slot was not freed");
+        assertNull(hs.serveNext());
+        assertTrue(hs.reportSummary().contains("no-shows expired: 1"));
+    }
+
+    @Test
+    void waitingEmergencyEscalatesRepeatedly() {
+        HospitalSystemSingle hs = clinic(-1, 5);
+        hs.triageInsert(1); // severity 3: keys 2, 1, 0 at 08:05, 08:10, 08:15
+        hs.advanceTo(EIGHT + 4);
+        assertEquals(0, hs.escalatedCount());
+        hs.advanceTo(EIGHT + 10);
+        assertEquals(2, hs.escalatedCount());
+        hs.advanceTo(EIGHT + 60);
+        assertEquals(3, hs.escalatedCount(), "escalation goes no further than 0");
+        hs.triageInsert(2); // severity 1, but patient 1 now outranks it
+        assertEquals(1, hs.serveNext().patientId);
+        assertEquals(2, hs.serveNext().patientId);
+    }
+
+    @Test
+    void undoAndRedoReArmTimers() {
+        HospitalSystemSingle hs = clinic(10, 5);
+        // undoing a routine serve puts the token back under its no-show deadline
+        assertTrue(hs.bookRoutine(2, 1));
+        hs.advanceTo(NINE);
+        assertEquals(2, hs.serveNext().patientId);
+        hs.undo();
+        hs.advanceTo(NINE + 10);
+        assertEquals(1, hs.expiredCount());
+
+        // undoing an emergency serve keeps its escalated key, and escalation resumes
+        hs.triageInsert(1); // severity 3 at 09:10
+        hs.advanceTo(NINE + 15); // key 2
+        assertEquals(1, hs.escalatedCount());
+        hs.advanceTo(NINE + 17);
+        hs.triageInsert(3); // severity 2, issued later: behind patient 1 only while patient 1 keeps key 2
+        assertEquals(1, hs.serveNext().patientId);
+        hs.undo();
+        assertEquals(1, hs.serveNext().patientId, "undo reset patient 1's escalated key");
+        hs.undo();
+        hs.redo(); // serving patient 1 again disarms its timer
+        hs.advanceTo(NINE + 25); // patient 3 escalates at 09:22, patient 1 would have at 09:20
+        assertEquals(2, hs.escalatedCount());
+        hs.undo(); // patient 1 back at key 2, escalating again at 09:30
+        hs.advanceTo(NINE + 30); // patient 3 to key 0 at 09:27, patient 1 to key 1 at 09:30
+        assertEquals(4, hs.escalatedCount());
+        assertEquals(3, hs.serveNext().patientId);
+        assertEquals(1, hs.serveNext().patientId);
+
+        // undoing a booking drops the held token and its release timer; redo holds it again
+        assertFalse(hs.bookRoutine(2, 1)); // both slots are past
+        assertEquals(0, hs.heldCount());
+        HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(2, "Dr. B", "General");
+        d.addSlot(new HospitalSystemSingle.Slot(20, "10:00", "10:15"));
+        hs.addDoctor(d);
+        assertTrue(hs.bookRoutine(3, 2));
+        assertEquals(1, hs.heldCount());
+        hs.undo();
+        assertEquals(0, hs.heldCount());
+        assertEquals(1, d.pendingCount());
+        hs.redo();
+        assertEquals(1, hs.heldCount());
+        hs.advanceTo(10 * 60);
+        assertEquals(0, hs.heldCount());
+        assertEquals(3, hs.serveNext().patientId);
+    }
+
+    /* The clock is journaled: recovery (journal alone, or snapshot + tail) rebuilds the same
+     * timers, so the recovered system expires, escalates and serves exactly as the original. */
+    @Test
+    void recoveryReplaysClockAdvances() throws Exception {
+        for (int snapshotEvery : new int[]{ 0, 3 }) {
+            Path dir = tmp.resolve(snapshotEvery == 0 ? "journal-only" : "snapshots");
+            HospitalSystemSingle hs = clinic(HospitalSystemSingle.recover(dir, 31, 20, HospitalSystemSingle.Journal.FsyncPolicy.EVERY_OP, snapshotEvery), 10, 5);
+            assertTrue(hs.bookRoutine(2, 1)); // 09:00
+            assertTrue(hs.bookRoutine(3, 1)); // 09:15
+            hs.triageInsert(1);
+            hs.advanceTo(EIGHT + 30);
+            hs.triageInsert(3);
+            hs.advanceTo(NINE + 12); // the 09:00 booking is a no-show
+            String before = hs.reportSummary();
+            int held = hs.heldCount(), expired = hs.expiredCount(), escalated = hs.escalatedCount();
+            assertEquals(1, held);
+            assertEquals(1, expired);
+            assertTrue(escalated > 0);
+
+            HospitalSystemSingle back = HospitalSystemSingle.recover(dir, 31, 20, HospitalSystemSingle.Journal.FsyncPolicy.EVERY_OP, snapshotEvery);
+            assertEquals(before, back.reportSummary());
+            assertEquals(held, back.heldCount());
+            assertEquals(expired, back.expiredCount());
+            assertEquals(escalated, back.escalatedCount());
+            hs.closeJournal();
+            for (HospitalSystemSingle s : List.of(hs, back)) s.advanceTo(NINE + 40);
+            assertEquals(hs.escalatedCount(), back.escalatedCount());
+            assertEquals(hs.expiredCount(), back.expiredCount());
+            for (HospitalSystemSingle.Token a; (a = hs.serveNext()) != null; ) {
+                HospitalSystemSingle.Token b = back.serveNext();
+                assertNotNull(b);
+                assertEquals(a.tokenId, b.tokenId);
+            }
+            assertNull(back.serveNext());
+            back.closeJournal();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import org.junit.jupiter.api.Test;
+
+/* The sharded engine against one plain HospitalSystemSingle per shard, fed the same commands. */
+class ShardedHospitalSystemTest {
+    private static final String[] SPECS = { "Cardiology", "Orthopedics", "Neurology", "General", "Dermatology" }; // no doctor in the last
+    private static final Pattern TOKEN_ID = Pattern.compile("\\d+");
+
+    // Orthopedics and Neurology share the "surgery" shard
+    private static String shardOf(String spec) { return spec.equals("Orthopedics") || spec.equals("Neurology") ? "surgery" : spec; }
+
+    private static HospitalSystemSingle.Doctor doctor(int id, String spec) {
+        HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(id, "Dr. " + id, spec);
+        for (int s = 0; s < 25; s++) d.addSlot(HospitalSystemSingle.Slot.ofMinutes(id * 1000 + s, 8 * 60 + (s * 7 + id) % 240, 8 * 60 + (s * 7 + id) % 240 + 15));
+        return d;
+    }
+    private static <T> T join(CompletableFuture<T> f) throws Exception { return f.get(10, TimeUnit.SECONDS); }
+
+    // per shard: the reference's next token id (it issues 1, 2, 3, ...) and reference id -> sharded id
+    private static final class Ids {
+        int next = 1;
+        final Map<Integer, Integer> sharded = new HashMap<>();
+    }
+
+    // an issue succeeds on both sides or neither; the sharded id is unique across shards
+    private static void assertIssued(boolean ok, HospitalSystemSingle.Token got, int pid, Ids ids, Set<Integer> issued, String when) {
+        assertEquals(ok, got != null, when);
+        if (!ok) return;
+        assertEquals(pid, got.patientId, when);
+        assertTrue(issued.add(got.tokenId), when + ": token id " + got.tokenId + " issued twice");
+        ids.sharded.put(ids.next++, got.tokenId);
+    }
+    // a served token: same patient, doctor, slot and type, and the id the sharded side issued for it
+    private static void assertServed(HospitalSystemSingle.Token want, HospitalSystemSingle.Token got, Ids ids, String when) {
+        if (want == null) { assertNull(got, when); return; }
+        assertNotNull(got, when);
+        assertEquals(want.type, got.type, when);
+        assertEquals(want.patientId, got.patientId, when);
+        assertEquals(want.doctorId, got.doctorId, when);
+        assertEquals(want.slotId, got.slotId, when);
+        assertEquals(ids.sharded.get(want.tokenId), (Integer) got.tokenId, when);
+    }
+
+    @Test
+    void matchesOneSystemPerShard() throws Exception {
+        Random r = new Random(11);
+        HospitalSystemSingle.ShardedHospitalSystem sharded = new HospitalSystemSingle.ShardedHospitalSystem(8, 256, 64);
+        sharded.group("surgery", "Orthopedics", "Neurology");
+        Map<String, HospitalSystemSingle> ref = new HashMap<>();
+        Map<Integer, String> specOfDoctor = new HashMap<>();
+        try {
+            for (int id = 1; id <= 12; id++) {
+                String spec = SPECS[id % 4];
+                sharded.addDoctor(doctor(id, spec));
+                ref.computeIfAbsent(shardOf(spec), k -> new HospitalSystemSingle(256, 64)).addDoctor(doctor(id, spec));
+                specOfDoctor.put(id, spec);
+            }
+            Map<String, Ids> ids = new HashMap<>();
+            for (String shard : ref.keySet()) ids.put(shard, new Ids());
+            Set<Integer> issued = new HashSet<>();
+            Map<Integer, Integer> severity = new HashMap<>();
+            for (int step = 0; step < 20_000; step++) {
+                String spec = SPECS[r.nextInt(SPECS.length)], when = "step " + step;
+                HospitalSystemSingle one = ref.get(shardOf(spec));
+                int pid = 1 + r.nextInt(80); // ids above 60 are never registered
+                switch (r.nextInt(8)) {
+                    case 0: { // registration goes to every shard; the reference keeps it out of the desk's undo log as the mirror does
+                        if (pid > 60) break;
+                        HospitalSystemSingle.Patient p = new HospitalSystemSingle.Patient(pid, "P" + pid, 30, r.nextInt(6));
+                        sharded.upsertPatient(p);
+                        for (HospitalSystemSingle hs : ref.values()) hs.desk(-1).upsertPatient(p);
+                        severity.put(pid, p.severity);
+                        break;
+                    }
+                    case 1: case 2: { // some ids name no doctor
+                        int doctorId = 1 + r.nextInt(14);
+                        HospitalSystemSingle.Token got = join(sharded.bookRoutine(pid, doctorId));
+                        String s = specOfDoctor.get(doctorId);
+                        boolean ok = s != null && ref.get(shardOf(s)).bookRoutine(pid, doctorId);
+                        assertIssued(ok, got, pid, s == null ? null : ids.get(shardOf(s)), issued, when + ": book " + pid + " with " + doctorId);
+                        if (ok) assertEquals(doctorId, got.doctorId, when);
+                        break;
+                    }
+                    case 3: case 4: {
+                        HospitalSystemSingle.Token got = join(sharded.triageInsert(pid, spec));
+                        assertIssued(one != null && one.triageInsert(pid), got, pid, ids.get(shardOf(spec)), issued, when + ": triage " + pid + " at " + spec);
+                        break;
+                    }
+                    case 5: case 6: {
+                        HospitalSystemSingle.Token got = join(sharded.serveNext(spec));
+                        assertServed(one == null ? null : one.serveNext(), got, ids.get(shardOf(spec)), when + ": serve " + spec);
+                        break;
+                    }
+                    default: { // undo messages name the token: translate the reference's id
+                        String got = join(sharded.undo(spec));
+                        if (one == null) { assertNull(got, when); break; }
+                        Map<Integer, Integer> shardIds = ids.get(shardOf(spec)).sharded;
+                        Matcher m = TOKEN_ID.matcher(one.undo());
+                        StringBuffer want = new StringBuffer();
+                        while (m.find()) m.appendReplacement(want, String.valueOf(shardIds.get(Integer.parseInt(m.group()))));
+                        m.appendTail(want);
+                        assertEquals(want.toString(), got, when + ": undo " + spec);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Integer> e : severity.entrySet()) assertEquals((int) e.getValue(), sharded.getPatient(e.getKey()).severity);
+            assertNull(sharded.getPatient(70));
+            // drain every shard in the reference's order
+            for (String spec : SPECS) {
+                HospitalSystemSingle one = ref.get(shardOf(spec));
+                if (one == null) continue;
+                HospitalSystemSingle.Token want;
+                do assertServed(want = one.serveNext(), join(sharded.serveNext(spec)), ids.get(shardOf(spec)), "drain " + spec);
+                while (want != null);
+            }
+        } finally { sharded.close(); }
+        assertEquals(3, sharded.stats().size()); // Cardiology, surgery, General
+        for (HospitalSystemSingle.ShardedHospitalSystem.ShardStats st : sharded.stats()) {
+            assertEquals(0, st.pending, st.name);
+            assertEquals(0, st.failed, st.name);
+        }
+        assertThrows(ExecutionException.class, () -> sharded.serveNext("General").get(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+/* Snapshot publishing: the delta replica against a full snapshot built from the live system. */
+class SnapshotFeedTest {
+    private static final int PATIENTS = 60;
+
+    // everything a snapshot shows except when it was published and the lazily refreshed probe stats
+    private static String view(HospitalSystemSingle.StateSnapshot s) {
+        return s.report() + "routine=" + s.routine + "\nemergencies=" + s.emergencies()
+            + "\ntopPending=" + s.topPending + " topRecent=" + s.topRecent
+            + "\ndepths=" + s.maxRoutineDepth + "," + s.maxTriageDepth + " patients=" + s.patientCount + "/" + s.patientCapacity;
+    }
+    // what a replica started right now would show: the feed copies the live structures on creation
+    private static String full(HospitalSystemSingle hs) { return view(new HospitalSystemSingle.SnapshotFeed(hs).catchUp()); }
+
+    private static HospitalSystemSingle clinic() {
+        HospitalSystemSingle hs = new HospitalSystemSingle(31, 20);
+        hs.enableSchedule(8 * 60, 15, 10);
+        for (int d = 1; d <= 4; d++) {
+            HospitalSystemSingle.Doctor doc = new HospitalSystemSingle.Doctor(d, "Dr. " + d, d % 2 == 0 ? "General" : "Pediatrics");
+            for (int s = 0; s < 40; s++) doc.addSlot(new HospitalSystemSingle.Slot(d * 100 + s, String.format("%02d:%02d", 8 + s / 6, s % 6 * 10), String.format("%02d:%02d", 8 + s / 6, s % 6 * 10 + 9)));
+            hs.addDoctor(doc);
+        }
+        for (int p = 1; p <= PATIENTS; p++) hs.upsertPatient(new HospitalSystemSingle.Patient(p, "P" + p, 20 + p, 1 + p % 5));
+        return hs;
+    }
+    private static long step(HospitalSystemSingle hs, Random r, long clock) {
+        int pid = 1 + r.nextInt(PATIENTS);
+        switch (r.nextInt(9)) {
+            case 0: case 1: hs.bookRoutine(pid, 1 + r.nextInt(4)); break;
+            case 2: case 3: hs.triageInsert(pid); break;
+            case 4: hs.serveNext(); break;
+            case 5: hs.undo(); break;
+            case 6: hs.redo(); break;
+            case 7: hs.upsertPatient(new HospitalSystemSingle.Patient(pid, "P" + pid, 30, 1 + r.nextInt(5))); break;
+            default: hs.advanceTo(clock += r.nextInt(4));
+        }
+        return clock;
+    }
+
+    /* Interval 0 publishes on every snapshot() call: after each change the replica equals a full
+     * snapshot, and versions advance one change at a time. */
+    @Test
+    void everyDeltaReachesTheReplica() {
+        HospitalSystemSingle hs = clinic();
+        hs.enableSnapshots(0);
+        Random r = new Random(7);
+        long clock = 8 * 60, version = hs.snapshot().version;
+        for (int i = 0; i < 1500; i++) {
+            clock = step(hs, r, clock);
+            HospitalSystemSingle.StateSnapshot s = hs.snapshot();
+            assertTrue(s.version == version || s.version == version + 1, "version jumped from " + version + " to " + s.version);
+            version = s.version;
+            assertEquals(full(hs), view(s), "replica diverged at step " + i);
+        }
+    }
+
+    // a long interval lets thousands of records (many feed chunks) pile up between two catch-ups
+    @Test
+    void aLargeBacklogIsReplayedWithoutGaps() {
+        HospitalSystemSingle hs = clinic();
+        hs.enableSnapshots(3_600_000);
+        HospitalSystemSingle.StateSnapshot before = hs.snapshot();
+        Random r = new Random(11);
+        long clock = 8 * 60;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3000; i++) clock = step(hs, r, clock);
+            assertSame(before, hs.snapshot(), "nothing is published until the flusher or flushSnapshot runs");
+            hs.flushSnapshot();
+            HospitalSystemSingle.StateSnapshot s = hs.snapshot();
+            assertTrue(s.version > before.version);
+            assertEquals(full(hs), view(s));
+            before = s;
+        }
+    }
+
+    // enabled mid-day: the replica starts from a full copy and then follows the deltas
+    @Test
+    void aReplicaStartedMidDayCatchesUp() {
+        HospitalSystemSingle hs = clinic();
+        Random r = new Random(13);
+        long clock = 8 * 60;
+        for (int i = 0; i < 800; i++) clock = step(hs, r, clock);
+        assertNull(hs.snapshot());
+        hs.enableSnapshots(0);
+        assertEquals(full(hs), view(hs.snapshot()));
+        assertTrue(hs.snapshot().report().startsWith(hs.reportSummary().replace("=== SUMMARY ===", "=== SUMMARY (v" + hs.snapshot().version + ") ===")));
+        for (int i = 0; i < 800; i++) clock = step(hs, r, clock);
+        assertEquals(full(hs), view(hs.snapshot()));
+    }
+
+    // a dashboard thread reading while the writer runs only ever sees versions move forward
+    @Test
+    void concurrentReadersSeeMonotonicVersions() throws InterruptedException {
+        HospitalSystemSingle hs = clinic();
+        hs.enableSnapshots(1);
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            long last = -1;
+            while (!Thread.currentThread().isInterrupted()) {
+                HospitalSystemSingle.StateSnapshot s = hs.snapshot();
+                if (s.version < last) { error.set("version went back from " + last + " to " + s.version); return; }
+                if (s.pending != s.routine.size() + s.emergencies().size() + s.held) { error.set("torn snapshot at v" + s.version); return; }
+                last = s.version;
+            }
+        });
+        reader.start();
+        Random r = new Random(17);
+        long clock = 8 * 60;
+        for (int i = 0; i < 20_000; i++) clock = step(hs, r, clock);
+        reader.interrupt();
+        reader.join();
+        assertNull(error.get(), error.get());
+        hs.flushSnapshot();
+        assertEquals(full(hs), view(hs.snapshot()));
+    }
+}
@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/* Undo/redo history: the bounded ring, per-desk scopes and the redo tail. */
+class UndoLogTest {
+    private static HospitalSystemSingle clinic(int undoDepth) {
+        HospitalSystemSingle hs = new HospitalSystemSingle(31, 20, undoDepth);
+        HospitalSystemSingle.Doctor d = new HospitalSystemSingle.Doctor(1, "Dr. A", "General");
+        for (int s = 0; s < 4; s++) d.addSlot(new HospitalSystemSingle.Slot(10 + s, "09:0" + s, "09:0" + (s + 1)));
+        hs.addDoctor(d);
+        return hs;
+    }
+
+    @Test
+    void depthOverflowDropsTheOldestRecords() {
+        HospitalSystemSingle hs = clinic(3);
+        for (int p = 1; p <= 5; p++) hs.upsertPatient(new HospitalSystemSingle.Patient(p, "P" + p, 30, 3));
+        assertEquals("Undid patient register 5", hs.undo());
+        assertEquals("Undid patient register 4", hs.undo());
+        assertEquals("Undid patient register 3", hs.undo());
+        assertEquals("Nothing to undo", hs.undo(), "the two oldest records should have been overwritten");
+        assertNotNull(hs.getPatient(1));
+        assertNotNull(hs.getPatient(2));
+        assertNull(hs.getPatient(3));
+
+        // the ring wraps repeatedly and still redoes in order
+        HospitalSystemSingle.UndoLog log = new HospitalSystemSingle.UndoLog(4);
+        for (int p = 1; p <= 11; p++) log.pushRegister(new HospitalSystemSingle.Patient(p, "P" + p, 30, 3), null);
+        assertEquals(4, log.undoable());
+        for (int p = 11; p >= 8; p--) { assertEquals(p, log.patientId(log.lastDone())); log.undone(); }
+        assertEquals(-1, log.lastDone());
+        assertEquals(4, log.redoable());
+        assertEquals(8, log.patientId(log.nextRedo()));
+    }
+
+    @Test
+    void aDeskOnlyUndoesItsOwnActions() {
+        HospitalSystemSingle hs = clinic(16);
+        HospitalSystemSingle.DeskSession a = hs.desk(1), b = hs.desk(2);
+        a.upsertPatient(new HospitalSystemSingle.Patient(1, "P1", 30, 3));
+        b.upsertPatient(new HospitalSystemSingle.Patient(2, "P2", 40, 2));
+        assertTrue(a.bookRoutine(1, 1));
+        b.triageInsert(2);
+
+        assertTrue(a.undo().startsWith("Undid booking "));
+        assertTrue(hs.reportSummary().contains("pendingSlots=4"), "desk A's booking should be undone");
+        assertEquals("Undid patient register 1", a.undo());
+        assertEquals("Nothing to undo", a.undo());
+        assertNotNull(hs.getPatient(2));
+        assertEquals("Nothing to undo", hs.undo(), "desk 0 has no history of its own");
+
+        HospitalSystemSingle.Token t = hs.serveNext();
+        assertEquals(2, t.patientId, "desk B's triage must survive desk A's undo");
+        hs.undo(); // desk 0 puts the emergency back
+        assertEquals("Undid triage " + t.tokenId, b.undo());
+        assertEquals("Undid patient register 2", b.undo());
+        assertNull(hs.serveNext());
+
+        b.release();
+        assertEquals("Nothing to undo", hs.desk(2).undo(), "a released desk starts with an empty history");
+    }
+
+    @Test
+    void aNewActionClearsTheRedoHistory() {
+        HospitalSystemSingle hs = clinic(16);
+        hs.upsertPatient(new HospitalSystemSingle.Patient(1, "P1", 30, 3));
+        assertTrue(hs.bookRoutine(1, 1));
+        assertTrue(hs.bookRoutine(1, 1));
+        hs.undo();
+        hs.undo();
+        assertTrue(hs.redo().startsWith("Redid booking "));
+        hs.triageInsert(1);
+        assertEquals("Nothing to redo", hs.redo());
+        assertTrue(hs.reportSummary().contains("pendingSlots=3"));
+
+        // an action on another desk leaves this desk's redo tail alone
+        hs.undo();
+        hs.desk(1).upsertPatient(new HospitalSystemSingle.Patient(2, "P2", 40, 1));
+        assertTrue(hs.redo().startsWith("Redid triage "));
+    }
+
+    // a triage of an unknown patient fails quietly: no token, no undo record, still counted in the metrics
+    @Test
+    void triageOfAnUnknownPatientRecordsNothing() {
+        HospitalSystemSingle hs = clinic(16);
+        hs.metrics().setSampleEvery(1);
+        java.io.PrintStream out = System.out;
+        java.io.ByteArrayOutputStream printed = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(printed));
+        try { assertFalse(hs.triageInsert(42)); } finally { System.setOut(out); }
+        assertEquals("", printed.toString(), "the model printed to stdout");
+        assertEquals("Nothing to undo", hs.undo());
+        assertNull(hs.serveNext());
+        assertEquals(1, hs.metrics().latency(HospitalSystemSingle.Metrics.Op.TRIAGE).count());
+        hs.upsertPatient(new HospitalSystemSingle.Patient(42, "P42", 30, 2));
+        assertTrue(hs.desk(3).triageInsert(42));
+    }
+
+    // register records share the registry's records, so a caller mutating its objects must not reach them
+    @Test
+    void mutatingAPatientObjectNeverRewritesHistory() {
+        HospitalSystemSingle hs = clinic(16);
+        HospitalSystemSingle.Patient p = new HospitalSystemSingle.Patient(1, "First", 30, 3);
+        hs.upsertPatient(p);
+        p.name = "Second"; p.severity = 1;
+        hs.upsertPatient(p);
+        p.name = "Third";
+        hs.getPatient(1).name = "Fourth";
+        assertEquals("Second", hs.getPatient(1).name);
+
+        hs.undo();
+        assertEquals("First", hs.getPatient(1).name);
+        assertEquals(3, hs.getPatient(1).severity);
+        hs.getPatient(1).name = "Fifth";
+        hs.redo();
+        assertEquals("Second", hs.getPatient(1).name);
+        assertEquals(1, hs.getPatient(1).severity);
+
+        assertTrue(hs.removePatient(1));
+        hs.undo();
+        assertEquals("Second", hs.getPatient(1).name);
+    }
+}